@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.gpuopenanalytics.jenkins.remotedocker.agent.CacheVolumeManager;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.LeaseOwner;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.NodeResourceManager;
+import com.gpuopenanalytics.jenkins.remotedocker.config.CacheVolume;
+import com.gpuopenanalytics.jenkins.remotedocker.config.CacheVolumeConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.ConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.CpuPinningConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.CudaVersionConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.DockerRuntimeConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.EnvironmentVariableConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.ExtraDockerArgsConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.MemoryConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.NvidiaDriverAbilityConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.NvidiaGpuDevicesConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.ResourceUsageConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.UserConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerImageConfiguration;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.Collections;
+
+/**
+ * Cost of each {@link ConfigItem} adding its <code>docker run</code> and
+ * <code>docker exec</code> arguments. Leases taken by an item are released
+ * within the measured call, as tearing down a build would.
+ */
+public class ConfigItemBenchmark {
+
+    static final String IMAGE = "nvidia/cuda:${CUDA_VERSION}-base";
+
+    public static class ItemState extends JmhBenchmarkState {
+
+        @Param({"cache", "cpus", "cuda", "driverAbility", "environment",
+                "extraArgs", "gpus", "memory", "resourceUsage", "runtime",
+                "user"})
+        public String item;
+
+        ConfigItem configItem;
+        BenchmarkDockerLauncher launcher;
+
+        @Override
+        public void setup() throws Exception {
+            configItem = createItem(item);
+            launcher = new BenchmarkDockerLauncher(
+                    createFakeLauncher(),
+                    BenchmarkDockerLauncher.createEnvironment(128),
+                    new DockerImageConfiguration(
+                            Collections.singletonList(configItem),
+                            Collections.emptyList(), IMAGE, false, "0"));
+        }
+    }
+
+    /**
+     * A fake node with two GPUs, one of them split into MIG slices
+     *
+     * @return
+     */
+    static FakeLauncher createFakeLauncher() {
+        return new FakeLauncher(TaskListener.NULL, FilePath.localChannel)
+                .respond("nvidia-smi -L",
+                         "GPU 0: NVIDIA A100-SXM4-40GB (UUID: GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77)\n"
+                                 + "  MIG 3g.20gb     Device  0: (UUID: MIG-GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77/1/0)\n"
+                                 + "  MIG 3g.20gb     Device  1: (UUID: MIG-GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77/2/0)\n"
+                                 + "GPU 1: Tesla V100-SXM2-16GB (UUID: GPU-3b8a2a8c-8a1e-4c7c-9d8a-0c6e1b5f3e21)\n")
+                .respond("nvidia-smi --query-gpu=uuid,memory",
+                         "GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77, 40536\n"
+                                 + "GPU-3b8a2a8c-8a1e-4c7c-9d8a-0c6e1b5f3e21, 16160\n");
+    }
+
+    static ConfigItem createItem(String name) {
+        switch (name) {
+            case "cache":
+                return new CacheVolumeConfigItem(Collections.singletonList(
+                        new CacheVolume("maven", "/home/builder/.m2")),
+                                                 "branch", "master");
+            case "cpus":
+                return new CpuPinningConfigItem("0-3", null);
+            case "cuda":
+                return new CudaVersionConfigItem("${CUDA_VERSION}");
+            case "driverAbility":
+                return new NvidiaDriverAbilityConfigItem(true, false, false,
+                                                         true, false);
+            case "environment":
+                return new EnvironmentVariableConfigItem(
+                        "BUILD_TAG=${JOB_NAME}-${BUILD_NUMBER}\nCCACHE_DIR=/cache\nLANG=C.UTF-8");
+            case "extraArgs":
+                return new ExtraDockerArgsConfigItem(
+                        "--shm-size=1g --ulimit memlock=-1 --label build=${BUILD_NUMBER}");
+            case "gpus":
+                NvidiaGpuDevicesConfigItem gpus = new NvidiaGpuDevicesConfigItem(
+                        "lease", null);
+                gpus.setGpuCount("1");
+                return gpus;
+            case "memory":
+                return new MemoryConfigItem("4g");
+            case "resourceUsage":
+                return new ResourceUsageConfigItem("10");
+            case "runtime":
+                return new DockerRuntimeConfigItem("nvidia", null);
+            case "user":
+                return new UserConfigItem(false, "builder", null, null);
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    @Benchmark
+    public ArgumentListBuilder addCreateArgs(ItemState state) {
+        LeaseOwner owner = state.launcher.newLeaseOwner();
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        try {
+            state.configItem.addCreateArgs(state.launcher, args,
+                                           Utils.resolveVariables(
+                                                   state.launcher, IMAGE));
+        } finally {
+            CacheVolumeManager.get().takeUsages(owner);
+            NodeResourceManager.releaseAll(owner);
+        }
+        return args;
+    }
+
+    @Benchmark
+    public ArgumentListBuilder addRunArgs(ItemState state) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        state.configItem.addRunArgs(state.launcher, args);
+        return args;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.gpuopenanalytics.jenkins.remotedocker.job.AbstractDockerConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerImageConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.job.SideDockerConfiguration;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.Run;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.tasks.Shell;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many freestyle and Pipeline builds against {@link FakeDocker} on
+ * concurrent executors and reports builds per minute, container set up
+ * percentiles and docker invocations per build. Not part of the regular
+ * build, run it with
+ * <pre>
+ * mvn -Pbenchmark test -Dtest=ContainerStartupLoadHarness -Dload.executors=8
+ * </pre>
+ * <p>Latencies of the fake docker are set with <code>load.pullMillis</code>,
+ * <code>load.runMillis</code>, <code>load.execMillis</code>,
+ * <code>load.rmMillis</code> and <code>load.otherMillis</code>.
+ */
+public class ContainerStartupLoadHarness {
+
+    private static final int EXECUTORS = Integer.getInteger("load.executors", 4);
+    private static final int BUILDS = Integer.getInteger("load.builds", 40);
+
+    private static final Set<PhaseTimings.Phase> SETUP_PHASES = EnumSet.of(
+            PhaseTimings.Phase.LOGIN, PhaseTimings.Phase.NETWORK,
+            PhaseTimings.Phase.IMAGE, PhaseTimings.Phase.RESOURCES,
+            PhaseTimings.Phase.RUN, PhaseTimings.Phase.POST_CREATE);
+
+    private static final FakeDocker DOCKER;
+
+    static {
+        //Before Jenkins starts, so the launchers pick up the stand-in
+        try {
+            DOCKER = FakeDocker.install(
+                    Files.createTempDirectory("fake-docker").toFile(),
+                    Long.getLong("load.pullMillis", 500L),
+                    Long.getLong("load.runMillis", 300L),
+                    Long.getLong("load.execMillis", 20L),
+                    Long.getLong("load.rmMillis", 200L),
+                    Long.getLong("load.otherMillis", 10L));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        DOCKER.useForDocker();
+    }
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    {
+        //Large runs take longer than the default timeout
+        j.timeout = 0;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        j.jenkins.setNumExecutors(EXECUTORS);
+        DOCKER.clearInvocations();
+    }
+
+    @Test
+    public void freestyle() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("freestyle");
+        project.addProperty(createParameters());
+        project.setConcurrentBuild(true);
+        project.getBuildWrappersList().add(new RemoteDockerBuildWrapper(
+                false, null, createImage("ubuntu:18.04", true),
+                Collections.singletonList(new SideDockerConfiguration(
+                        "db", createImage("postgres:11", false))),
+                null, null));
+        project.getBuildersList().add(new Shell("true"));
+        List<Future<? extends Run<?, ?>>> builds = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < BUILDS; i++) {
+            builds.add(project.scheduleBuild2(0, null, createParameters(i)));
+        }
+        report("freestyle", builds, start);
+    }
+
+    @Test
+    public void pipeline() throws Exception {
+        WorkflowJob job = j.createProject(WorkflowJob.class, "pipeline");
+        job.addProperty(createParameters());
+        job.setDefinition(new CpsFlowDefinition(
+                "node {\n"
+                        + "  withRemoteDocker(main: image(image: 'ubuntu:18.04', forcePull: true, maxRetries: '0', configItemList: [], volumes: []),\n"
+                        + "                   sideContainers: [side(name: 'db', dockerConfiguration: image(image: 'postgres:11', forcePull: false, maxRetries: '0', configItemList: [], volumes: []))]) {\n"
+                        + "    sh 'true'\n"
+                        + "  }\n"
+                        + "}", true));
+        List<Future<? extends Run<?, ?>>> builds = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < BUILDS; i++) {
+            builds.add(job.scheduleBuild2(0, createParameters(i)));
+        }
+        report("pipeline", builds, start);
+    }
+
+    private static AbstractDockerConfiguration createImage(String image,
+                                                           boolean forcePull) {
+        return new DockerImageConfiguration(Collections.emptyList(),
+                                            Collections.emptyList(), image,
+                                            forcePull, "0");
+    }
+
+    /**
+     * Identical queue items are merged, so each build gets its own parameter
+     */
+    private static ParametersDefinitionProperty createParameters() {
+        return new ParametersDefinitionProperty(
+                new StringParameterDefinition("N", "0", null));
+    }
+
+    private static ParametersAction createParameters(int n) {
+        return new ParametersAction(
+                new StringParameterValue("N", Integer.toString(n)));
+    }
+
+    private void report(String name,
+                        List<Future<? extends Run<?, ?>>> builds,
+                        long start) throws Exception {
+        List<Long> setupMillis = new ArrayList<>();
+        for (Future<? extends Run<?, ?>> future : builds) {
+            Run<?, ?> run = future.get();
+            j.assertBuildStatusSuccess(run);
+            long total = 0;
+            DockerAction action = run.getAction(DockerAction.class);
+            if (action != null) {
+                for (PhaseTimings.PhaseSummary phase : action.getPhaseTimings()) {
+                    if (SETUP_PHASES.contains(
+                            PhaseTimings.Phase.valueOf(phase.getPhase()))) {
+                        total += phase.getTotalMillis();
+                    }
+                }
+            }
+            setupMillis.add(total);
+        }
+        double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        Collections.sort(setupMillis);
+        System.out.println(String.format(
+                "%s: %d builds on %d executors in %.1f s, %.1f builds/min, "
+                        + "set up p50 %d ms p95 %d ms, %.1f docker invocations per build",
+                name, builds.size(), EXECUTORS, seconds,
+                builds.size() * 60 / seconds,
+                percentile(setupMillis, 50), percentile(setupMillis, 95),
+                DOCKER.getInvocations().size() / (double) builds.size()));
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.google.common.collect.ImmutableList;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.LeaseOwner;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerImageConfiguration;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead the plugin adds to every <code>sh</code> step: from a {@link
+ * Launcher.ProcStarter} to the <code>docker exec</code> process being started,
+ * and from the process exiting to join returning. The process is a stub that
+ * exits immediately, so only the plugin's own work is measured.
+ * <p>Results are compared to a stored baseline by {@link ExecOverheadGate}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecOverheadBenchmark {
+
+    public static class ExecState extends JmhBenchmarkState {
+
+        @Param({"0", "32", "256"})
+        public int environmentSize;
+
+        @Param({"false", "true"})
+        public boolean masked;
+
+        @Param({"false", "true"})
+        public boolean workspaceOverride;
+
+        BenchmarkDockerLauncher launcher;
+        FilePath workspace;
+        String[] envs;
+
+        @Override
+        public void setup() throws Exception {
+            launcher = new BenchmarkDockerLauncher(
+                    new FakeLauncher(TaskListener.NULL, null),
+                    BenchmarkDockerLauncher.createEnvironment(16),
+                    new DockerImageConfiguration(
+                            Collections.singletonList(
+                                    ConfigItemBenchmark.createItem("user")),
+                            Collections.emptyList(), "ubuntu:18.04", false,
+                            "0"));
+            String containerId = "4f66ad9a0b2e4f1d8c0b8a6b1c2d3e4f5a6b7c8d9e0f1a2b3c4d5e6f7a8b9c0d";
+            launcher.configure(new DockerState(
+                    false, containerId, ImmutableList.of(containerId),
+                    Optional.empty(), true, null,
+                    LeaseOwner.create("master", null), null));
+            if (workspaceOverride) {
+                launcher.setWorkspaceOverride("/workspace");
+            }
+            workspace = new FilePath(new File("/var/lib/jenkins/workspace/team_project_master"));
+            envs = new String[environmentSize];
+            for (int i = 0; i < environmentSize; i++) {
+                envs[i] = "STEP_VARIABLE_" + i + "=value-of-step-variable-" + i;
+            }
+        }
+
+        Launcher.ProcStarter newStarter() {
+            ArgumentListBuilder cmds = new ArgumentListBuilder(
+                    "sh", "-xe", "/var/lib/jenkins/workspace/team_project_master@tmp/durable-1234/script.sh");
+            if (masked) {
+                cmds.add("--token").addMasked("s3cr3t-t0k3n");
+            }
+            return launcher.launch()
+                    .cmds(cmds)
+                    .envs(envs)
+                    .pwd(workspace)
+                    .stdout(TaskListener.NULL);
+        }
+    }
+
+    /**
+     * A started exec, joined after the measurement
+     */
+    public static class StartedExec extends ExecState {
+
+        Proc proc;
+
+        @TearDown(Level.Invocation)
+        public void join() throws Exception {
+            proc.join();
+        }
+    }
+
+    /**
+     * An exec whose process already exited, started before the measurement
+     */
+    public static class ExitedExec extends ExecState {
+
+        Proc proc;
+
+        @Setup(Level.Invocation)
+        public void start() throws Exception {
+            proc = launcher.dockerExec(newStarter(), true);
+        }
+    }
+
+    @Benchmark
+    public Proc starterToStart(StartedExec state) throws Exception {
+        state.proc = state.launcher.dockerExec(state.newStarter(), true);
+        return state.proc;
+    }
+
+    @Benchmark
+    public int exitToJoin(ExitedExec state) throws Exception {
+        return state.proc.join();
+    }
+}
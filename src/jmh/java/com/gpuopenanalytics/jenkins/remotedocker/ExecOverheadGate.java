@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fails the build if {@link ExecOverheadBenchmark} got slower, or allocates
+ * more, than the stored baseline by more than a threshold. Both files are
+ * JMH JSON results. It also fails without a baseline and for benchmarks
+ * missing from it, unless <code>updateBaseline</code> is set, which stores
+ * the results as the new baseline instead. No baseline is committed, the
+ * first run on a machine has to record one.
+ * <pre>
+ * ExecOverheadGate &lt;results&gt; &lt;baseline&gt; &lt;threshold %&gt; [updateBaseline]
+ * </pre>
+ */
+public class ExecOverheadGate {
+
+    /**
+     * Allocations per operation may vary by a few bytes between runs
+     */
+    private static final double ALLOCATION_SLACK_BYTES = 16;
+
+    /**
+     * Bytes allocated per operation as reported by <code>-prof gc</code>
+     */
+    private static final String ALLOCATION_METRIC = "\u00b7gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        File results = new File(args[0]);
+        File baseline = new File(args[1]);
+        double threshold = Double.parseDouble(args[2]) / 100;
+        boolean update = args.length > 3 && Boolean.parseBoolean(args[3]);
+        if (update) {
+            FileUtils.copyFile(results, baseline);
+            System.out.println("Stored the results as the baseline in " + baseline);
+            return;
+        }
+        Map<String, JSONObject> expected = baseline.exists()
+                ? read(baseline)
+                : new TreeMap<>();
+        if (expected.isEmpty()) {
+            //Nothing is committed, the numbers depend on the machine
+            System.err.println(String.format(
+                    "No baseline in %s, record one on this machine with -Dexec.overhead.updateBaseline=true",
+                    baseline));
+            System.exit(1);
+        }
+        Map<String, JSONObject> current = read(results);
+        int regressions = 0;
+        int missing = 0;
+        for (Map.Entry<String, JSONObject> e : current.entrySet()) {
+            JSONObject base = expected.get(e.getKey());
+            if (base == null) {
+                System.out.println("MISS " + e.getKey() + ": not in the baseline");
+                missing++;
+                continue;
+            }
+            double time = getScore(e.getValue(), null);
+            double baseTime = getScore(base, null);
+            double alloc = getScore(e.getValue(), ALLOCATION_METRIC);
+            double baseAlloc = getScore(base, ALLOCATION_METRIC);
+            boolean slower = time > baseTime * (1 + threshold);
+            boolean allocates = alloc >= 0 && baseAlloc >= 0
+                    && alloc > baseAlloc * (1 + threshold) + ALLOCATION_SLACK_BYTES;
+            if (slower || allocates) {
+                regressions++;
+            }
+            System.out.println(String.format(
+                    "%s %s: %.3f us/op (baseline %.3f), %.0f B/op (baseline %.0f)",
+                    slower || allocates ? "FAIL" : "OK  ", e.getKey(), time,
+                    baseTime, alloc, baseAlloc));
+        }
+        if (regressions > 0) {
+            System.err.println(String.format(
+                    "%d exec overhead benchmarks regressed by more than %.0f%%",
+                    regressions, threshold * 100));
+        }
+        if (missing > 0) {
+            System.err.println(String.format(
+                    "%d exec overhead benchmarks are not in the baseline, record them with -Dexec.overhead.updateBaseline=true",
+                    missing));
+        }
+        if (regressions > 0 || missing > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read JMH results keyed by benchmark and parameters
+     */
+    private static Map<String, JSONObject> read(File file) throws IOException {
+        JSONArray array = JSONArray.fromObject(
+                FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+        Map<String, JSONObject> results = new TreeMap<>();
+        for (Object o : array) {
+            JSONObject result = (JSONObject) o;
+            String name = result.getString("benchmark");
+            JSONObject params = result.optJSONObject("params");
+            if (params != null) {
+                name += new TreeMap<>(params).toString();
+            }
+            results.put(name, result);
+        }
+        return results;
+    }
+
+    /**
+     * @param result
+     * @param metric a secondary metric or null for the primary one
+     * @return the score or -1 if the metric is missing
+     */
+    private static double getScore(JSONObject result, String metric) {
+        JSONObject m;
+        if (metric == null) {
+            m = result.getJSONObject("primaryMetric");
+        } else {
+            JSONObject secondary = result.optJSONObject("secondaryMetrics");
+            m = secondary != null ? secondary.optJSONObject(metric) : null;
+        }
+        return m != null && !m.isNullObject() ? m.getDouble("score") : -1;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.gpuopenanalytics.jenkins.remotedocker.agent.LeaseOwner;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.NodeResourceManager;
+import com.gpuopenanalytics.jenkins.remotedocker.config.ConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.VolumeConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerImageConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.job.SideDockerConfiguration;
+import hudson.FilePath;
+import hudson.util.ArgumentListBuilder;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Cost of building the <code>docker run</code> arguments of the main
+ * container, {@link DockerState#getlaunchArgs}, for a typical GPU build
+ * configuration
+ */
+public class LaunchArgsBenchmark {
+
+    public static class LaunchState extends JmhBenchmarkState {
+
+        @Param({"16", "128", "1024"})
+        public int environmentSize;
+
+        RemoteDockerBuildWrapper buildWrapper;
+        DockerImageConfiguration main;
+        BenchmarkDockerLauncher launcher;
+        FilePath workspace;
+        Optional<DockerNetwork> network;
+        List<String> labels;
+
+        @Override
+        public void setup() throws Exception {
+            List<ConfigItem> items = new ArrayList<>();
+            for (String item : Arrays.asList("cuda", "driverAbility", "environment",
+                                             "extraArgs", "gpus", "memory",
+                                             "runtime", "user")) {
+                items.add(ConfigItemBenchmark.createItem(item));
+            }
+            main = new DockerImageConfiguration(
+                    items,
+                    Collections.singletonList(new VolumeConfiguration(
+                            "/datasets", "/datasets", true)),
+                    ConfigItemBenchmark.IMAGE, false, "0");
+            SideDockerConfiguration side = new SideDockerConfiguration(
+                    "db", new DockerImageConfiguration(
+                    Collections.emptyList(), Collections.emptyList(),
+                    "postgres:11", false, "0"));
+            buildWrapper = new RemoteDockerBuildWrapper(
+                    false, null, main, Collections.singletonList(side), null,
+                    null);
+            launcher = new BenchmarkDockerLauncher(
+                    ConfigItemBenchmark.createFakeLauncher(),
+                    BenchmarkDockerLauncher.createEnvironment(environmentSize),
+                    main);
+            File dir = new File(System.getProperty("java.io.tmpdir"),
+                                "remote-docker-benchmark");
+            workspace = new FilePath(dir);
+            workspace.mkdirs();
+            network = Optional.of(DockerNetwork.newNamed());
+            labels = DockerState.getLabels(null, "benchmark", false);
+        }
+    }
+
+    @Benchmark
+    public ArgumentListBuilder getlaunchArgs(LaunchState state) throws Exception {
+        LeaseOwner owner = state.launcher.newLeaseOwner();
+        try {
+            return DockerState.getlaunchArgs(state.buildWrapper, state.main,
+                                             true, state.launcher,
+                                             state.workspace, state.network,
+                                             state.labels);
+        } finally {
+            NodeResourceManager.releaseAll(owner);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import hudson.model.TaskListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of {@link Utils#resolveVariables(AbstractDockerLauncher, String)} with
+ * environments from a small freestyle build to a large Pipeline one
+ */
+@State(Scope.Benchmark)
+public class ResolveVariablesBenchmark {
+
+    @Param({"16", "128", "1024"})
+    public int environmentSize;
+
+    @Param({"plain", "one", "several", "unresolved"})
+    public String input;
+
+    private BenchmarkDockerLauncher launcher;
+    private String value;
+
+    @Setup
+    public void setup() {
+        launcher = new BenchmarkDockerLauncher(
+                new FakeLauncher(TaskListener.NULL, null),
+                BenchmarkDockerLauncher.createEnvironment(environmentSize),
+                null);
+        switch (input) {
+            case "plain":
+                value = "nvidia/cuda:10.1-base-ubuntu18.04";
+                break;
+            case "one":
+                value = "nvidia/cuda:${IMAGE_TAG}";
+                break;
+            case "several":
+                value = "${WORKSPACE}/build/${JOB_NAME}-$BUILD_NUMBER/${BRANCH_NAME}";
+                break;
+            case "unresolved":
+                value = "${NOT_SET}/$ALSO_NOT_SET";
+                break;
+            default:
+                throw new IllegalArgumentException(input);
+        }
+    }
+
+    @Benchmark
+    public String resolveVariables() {
+        return Utils.resolveVariables(launcher, value);
+    }
+}
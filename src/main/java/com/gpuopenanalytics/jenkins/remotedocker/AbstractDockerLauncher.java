@@ -24,19 +24,32 @@
 
 package com.gpuopenanalytics.jenkins.remotedocker;
 
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ExecLatencyTracker;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.LeaseOwner;
 import com.gpuopenanalytics.jenkins.remotedocker.job.DockerConfiguration;
 import hudson.EnvVars;
-import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Proc;
+import hudson.model.Run;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
 import hudson.util.ArgumentListBuilder;
+import jenkins.util.SystemProperties;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Root class for {@link Launcher}s that delegate commands into a docker
@@ -44,9 +57,23 @@ import java.util.Optional;
  */
 public abstract class AbstractDockerLauncher extends Launcher.DecoratedLauncher {
 
+    /**
+     * System property with the docker CLI to run. Can be pointed at a
+     * stand-in script for testing.
+     */
+    private static final String DOCKER_PROPERTY = AbstractDockerLauncher.class.getName() + ".docker";
+
     private DockerState dockerState;
     private DockerVersion version;
-    private FilePath loginTempDir;
+    private String loginTempDir;
+    private LeaseOwner leaseOwner;
+    private AgentUser agentUser;
+    private Run<?, ?> run;
+    private DockerAction dockerAction;
+    private ExecLatencyTracker.NodeLatency nodeLatency;
+    private Consumer<String> progressListener;
+    private final Set<Proc> inFlightProcs = ConcurrentHashMap.newKeySet();
+    private final Set<Future<?>> inFlightCalls = ConcurrentHashMap.newKeySet();
 
     protected AbstractDockerLauncher(@Nonnull Launcher launcher) {
         super(launcher);
@@ -110,6 +137,29 @@ public abstract class AbstractDockerLauncher extends Launcher.DecoratedLauncher
                               boolean addRunArgs,
                               String workspaceOverride,
                               DockerConfiguration dockerConfiguration) throws IOException {
+        ArgumentListBuilder runArgs = new ArgumentListBuilder();
+        if (addRunArgs) {
+            dockerConfiguration.addRunArgs(this, runArgs);
+        }
+        return dockerExec(starter, runArgs.toList(), workspaceOverride);
+    }
+
+    /**
+     * Invoke <code>docker exec</code> on the already created container with
+     * run arguments resolved ahead of time by {@link
+     * DockerConfiguration#addRunArgs(AbstractDockerLauncher,
+     * ArgumentListBuilder)}
+     *
+     * @param starter
+     * @param runArgs
+     * @param workspaceOverride
+     * @return
+     * @throws IOException
+     */
+    protected Proc dockerExec(Launcher.ProcStarter starter,
+                              List<String> runArgs,
+                              String workspaceOverride) throws IOException {
+        long start = System.nanoTime();
         if (dockerState == null || dockerState.getMainContainerId() == null) {
             throw new IllegalStateException("Container is not started.");
         }
@@ -120,9 +170,7 @@ public abstract class AbstractDockerLauncher extends Launcher.DecoratedLauncher
                     .orElse(starter.pwd().getRemote());
             args.add("--workdir", path);
         }
-        if (addRunArgs) {
-            dockerConfiguration.addRunArgs(this, args);
-        }
+        args.add(runArgs);
 
         args.add(dockerState.getMainContainerId());
 
@@ -151,7 +199,25 @@ public abstract class AbstractDockerLauncher extends Launcher.DecoratedLauncher
             procStarter.stderr(listener.getLogger());
         }
 
-        return procStarter.start();
+        Proc proc = procStarter.start();
+        //Only the time to get the command running, not the command itself
+        recordPhase(PhaseTimings.Phase.EXEC, start);
+        long startNanos = System.nanoTime() - start;
+        DockerAction action = getDockerAction();
+        if (action != null) {
+            action.getExecStartLatency().recordNanos(startNanos);
+        }
+        getNodeLatency().recordStart(startNanos);
+        return proc;
+    }
+
+    private ExecLatencyTracker.NodeLatency getNodeLatency() {
+        if (nodeLatency == null) {
+            nodeLatency = ExecLatencyTracker.get().getNode(
+                    leaseOwner != null ? leaseOwner.getNodeName() : Utils.getNodeName(
+                            this));
+        }
+        return nodeLatency;
     }
 
     /**
@@ -163,20 +229,116 @@ public abstract class AbstractDockerLauncher extends Launcher.DecoratedLauncher
      * @return
      */
     public Launcher.ProcStarter executeCommand(ArgumentListBuilder args) {
+        return new TrackingLauncher().launch()
+                //TODO I think we should pass something here
+                //.envs()
+                .cmds(toDockerCommand(args))
+                .quiet(!isDebug());
+    }
+
+    /**
+     * Complete the arguments of a docker command as {@link
+     * #executeCommand(ArgumentListBuilder)} would run it: prefixed with
+     * <code>docker</code> and the <code>HOME</code> holding the login
+     * credentials, if any
+     *
+     * @param args may be modified in place
+     * @return the complete args
+     */
+    ArgumentListBuilder toDockerCommand(ArgumentListBuilder args) {
         if (args.toList().isEmpty()) {
             throw new IllegalArgumentException("No args given");
         }
-        if (!"docker".equals(args.toList().get(0))) {
-            args.prepend("docker");
-        }
+        args = withDockerExecutable(args);
         if (loginTempDir != null) {
-            args.prepend("env", "HOME=" + loginTempDir.getRemote());
+            args.prepend("env", "HOME=" + loginTempDir);
+        }
+        return args;
+    }
+
+    /**
+     * Get the docker CLI that commands are run with
+     *
+     * @return
+     */
+    public static String getDockerExecutable() {
+        //Read every time so tests can switch to a stand-in at any point
+        return SystemProperties.getString(DOCKER_PROPERTY, "docker");
+    }
+
+    /**
+     * Prefix the arguments with the docker CLI, replacing a leading
+     * <code>docker</code>
+     *
+     * @param args may be modified in place
+     * @return the prefixed args
+     */
+    static ArgumentListBuilder withDockerExecutable(ArgumentListBuilder args) {
+        String docker = getDockerExecutable();
+        List<String> list = args.toList();
+        if (list.isEmpty() || !"docker".equals(list.get(0))) {
+            return args.prepend(docker);
+        }
+        if ("docker".equals(docker)) {
+            return args;
+        }
+        boolean[] masks = args.toMaskArray();
+        ArgumentListBuilder replaced = new ArgumentListBuilder(docker);
+        for (int i = 1; i < list.size(); i++) {
+            replaced.add(list.get(i), masks[i]);
+        }
+        return replaced;
+    }
+
+    /**
+     * Run a callable on the node, tracking it so {@link #killInFlight()} can
+     * cancel it
+     *
+     * @param callable
+     * @param <V>
+     * @param <T>
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public <V, T extends Throwable> V call(Callable<V, T> callable) throws IOException, InterruptedException {
+        VirtualChannel channel = getChannel();
+        if (channel == null) {
+            throw new IOException("Node is not online");
+        }
+        Future<V> future = channel.callAsync(callable);
+        inFlightCalls.add(future);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            inFlightCalls.remove(future);
+        }
+    }
+
+    /**
+     * Kill the docker processes and cancel the agent calls that this Launcher
+     * started and that are still running, such as a pull when the build is
+     * aborted
+     */
+    public void killInFlight() {
+        for (Future<?> future : inFlightCalls) {
+            future.cancel(true);
+        }
+        for (Proc proc : inFlightProcs) {
+            try {
+                proc.kill();
+            } catch (IOException | InterruptedException e) {
+                getListener().error("Failed to kill docker process: " + e);
+            }
         }
-        return getInner().launch()
-                //TODO I think we should pass something here
-                //.envs()
-                .cmds(args)
-                .quiet(!isDebug());
     }
 
     public DockerVersion getVersion() {
@@ -221,6 +383,82 @@ public abstract class AbstractDockerLauncher extends Launcher.DecoratedLauncher
      */
     public abstract boolean isDebug();
 
+    /**
+     * Get the build this Launcher is running for, if it is known. By default
+     * it is looked up from the {@link LeaseOwner}.
+     *
+     * @return
+     */
+    @CheckForNull
+    public Run<?, ?> getRun() {
+        if (run == null && leaseOwner != null && leaseOwner.getRunId() != null) {
+            run = Run.fromExternalizableId(leaseOwner.getRunId());
+        }
+        return run;
+    }
+
+    /**
+     * Get the {@link DockerAction} of the build, if the build is known
+     *
+     * @return
+     */
+    @CheckForNull
+    public DockerAction getDockerAction() {
+        if (dockerAction == null) {
+            Run<?, ?> r = getRun();
+            if (r != null) {
+                dockerAction = DockerAction.getOrCreate(r);
+            }
+        }
+        return dockerAction;
+    }
+
+    /**
+     * Record the time since <code>startNanos</code> as one occurrence of the
+     * phase on the build's {@link DockerAction}
+     *
+     * @param phase
+     * @param startNanos a {@link System#nanoTime()}
+     */
+    public void recordPhase(PhaseTimings.Phase phase, long startNanos) {
+        recordPhaseDuration(phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record a duration measured elsewhere, such as on the agent, as one
+     * occurrence of the phase on the build's {@link DockerAction}
+     *
+     * @param phase
+     * @param nanos
+     */
+    public void recordPhaseDuration(PhaseTimings.Phase phase, long nanos) {
+        DockerAction action = getDockerAction();
+        if (action != null) {
+            action.recordPhase(phase, nanos);
+        }
+    }
+
+    /**
+     * Set who is told what the launch is currently doing, such as a pipeline
+     * step reporting its status
+     *
+     * @param progressListener
+     */
+    public void setProgressListener(@CheckForNull Consumer<String> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Report what the launch is currently doing
+     *
+     * @param progress
+     */
+    public void reportProgress(String progress) {
+        if (progressListener != null) {
+            progressListener.accept(progress);
+        }
+    }
+
     /**
      * Make this Launcher aware of a set up {@link DockerState}
      *
@@ -229,6 +467,12 @@ public abstract class AbstractDockerLauncher extends Launcher.DecoratedLauncher
     void configure(DockerState dockerState) {
         this.dockerState = dockerState;
         configureTempDir(dockerState.getLoginTempDir());
+        if (dockerState.getLeaseOwner() != null) {
+            this.leaseOwner = dockerState.getLeaseOwner();
+        }
+        if (dockerState.getAgentUser() != null) {
+            this.agentUser = dockerState.getAgentUser();
+        }
     }
 
     /**
@@ -240,7 +484,123 @@ public abstract class AbstractDockerLauncher extends Launcher.DecoratedLauncher
         return dockerState;
     }
 
-    public void configureTempDir(FilePath loginTempDir) {
+    /**
+     * Get the ID of the main container, or while launching, of the container
+     * that was just started
+     *
+     * @return the ID or null if no container is started
+     */
+    @CheckForNull
+    public String getMainContainerId() {
+        return dockerState != null ? dockerState.getMainContainerId() : null;
+    }
+
+    /**
+     * Set the <code>HOME</code> holding the login credentials that docker
+     * commands are run with
+     *
+     * @param loginTempDir the path on the node or null to not set it
+     */
+    public void configureTempDir(@CheckForNull String loginTempDir) {
         this.loginTempDir = loginTempDir;
     }
+
+    /**
+     * Get the owner that node resources (cache volumes, etc) are leased to
+     * while launching the containers
+     *
+     * @return
+     */
+    public LeaseOwner getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    void configureLeaseOwner(LeaseOwner leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    /**
+     * Get the user running the agent. This is only looked up once per
+     * Launcher and is passed on to the exec Launchers through the {@link
+     * DockerState}.
+     *
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public AgentUser getAgentUser() throws IOException, InterruptedException {
+        if (agentUser == null) {
+            agentUser = call(new AgentUser.Resolver());
+            if (isDebug()) {
+                getListener().getLogger().println("Agent user: " + agentUser);
+            }
+        }
+        return agentUser;
+    }
+
+    /**
+     * Get the agent user only if it was already looked up
+     *
+     * @return
+     */
+    @CheckForNull
+    AgentUser getResolvedAgentUser() {
+        return agentUser;
+    }
+
+    /**
+     * Launches on the inner Launcher, keeping track of the processes until
+     * they are joined
+     */
+    private class TrackingLauncher extends Launcher.DecoratedLauncher {
+
+        private TrackingLauncher() {
+            super(AbstractDockerLauncher.this.getInner());
+        }
+
+        @Override
+        public Proc launch(ProcStarter starter) throws IOException {
+            Proc proc = getInner().launch(starter);
+            inFlightProcs.add(proc);
+            return new Proc() {
+                @Override
+                public boolean isAlive() throws IOException, InterruptedException {
+                    return proc.isAlive();
+                }
+
+                @Override
+                public void kill() throws IOException, InterruptedException {
+                    try {
+                        proc.kill();
+                    } finally {
+                        inFlightProcs.remove(proc);
+                    }
+                }
+
+                @Override
+                public int join() throws IOException, InterruptedException {
+                    try {
+                        return proc.join();
+                    } finally {
+                        inFlightProcs.remove(proc);
+                    }
+                }
+
+                @Override
+                public InputStream getStdout() {
+                    return proc.getStdout();
+                }
+
+                @Override
+                public InputStream getStderr() {
+                    return proc.getStderr();
+                }
+
+                @Override
+                public OutputStream getStdin() {
+                    return proc.getStdin();
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.sun.security.auth.module.UnixSystem;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * The user running the Jenkins agent process
+ */
+public class AgentUser implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String username;
+    private final long uid;
+    private final long gid;
+
+    public AgentUser(String username, long uid, long gid) {
+        this.username = username;
+        this.uid = uid;
+        this.gid = gid;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getUid() {
+        return Long.toString(uid);
+    }
+
+    public String getGid() {
+        return Long.toString(gid);
+    }
+
+    @Override
+    public String toString() {
+        return username + "(" + uid + ":" + gid + ")";
+    }
+
+    /**
+     * Looks up the user in the agent's JVM so no process needs to be forked
+     */
+    static class Resolver extends MasterToSlaveCallable<AgentUser, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public AgentUser call() throws IOException {
+            UnixSystem system = new UnixSystem();
+            return new AgentUser(system.getUsername(), system.getUid(),
+                                 system.getGid());
+        }
+    }
+}
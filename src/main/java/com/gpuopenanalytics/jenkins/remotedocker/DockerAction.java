@@ -24,12 +24,45 @@
 
 package com.gpuopenanalytics.jenkins.remotedocker;
 
+import com.gpuopenanalytics.jenkins.remotedocker.agent.CacheVolumeUsage;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ContainerUsage;
 import hudson.model.BuildBadgeAction;
+import hudson.model.Run;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
 import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
+@ExportedBean(defaultVisibility = 2)
 public class DockerAction implements BuildBadgeAction {
 
+    private List<CacheVolumeUsage> cacheVolumeUsages;
+    private PhaseTimings phaseTimings;
+    private List<ContainerUsage> containerUsages;
+    private LatencyHistogram execStartLatency = new LatencyHistogram();
+    private PullStats pullStats;
+    private transient ImagePrefetch imagePrefetch;
+
+    /**
+     * Get the {@link DockerAction} of the build, adding one if needed
+     *
+     * @param run
+     * @return
+     */
+    public static DockerAction getOrCreate(Run<?, ?> run) {
+        synchronized (run) {
+            DockerAction action = run.getAction(DockerAction.class);
+            if (action == null) {
+                action = new DockerAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
     @CheckForNull
     @Override
     public String getIconFileName() {
@@ -48,5 +81,119 @@ public class DockerAction implements BuildBadgeAction {
         return null;
     }
 
+    /**
+     * Get the images being set up ahead of launching the containers
+     *
+     * @return
+     */
+    public synchronized ImagePrefetch getImagePrefetch() {
+        if (imagePrefetch == null) {
+            imagePrefetch = new ImagePrefetch();
+        }
+        return imagePrefetch;
+    }
+
+    public synchronized void addCacheVolumeUsage(CacheVolumeUsage usage) {
+        if (cacheVolumeUsages == null) {
+            cacheVolumeUsages = new ArrayList<>();
+        }
+        cacheVolumeUsages.add(usage);
+    }
+
+    public synchronized List<CacheVolumeUsage> getCacheVolumeUsages() {
+        if (cacheVolumeUsages == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(cacheVolumeUsages);
+    }
+
+    public synchronized void addContainerUsage(ContainerUsage usage) {
+        if (containerUsages == null) {
+            containerUsages = new ArrayList<>();
+        }
+        containerUsages.add(usage);
+    }
+
+    /**
+     * Get the resource usage of the sampled containers
+     *
+     * @return
+     */
+    public synchronized List<ContainerUsage> getContainerUsages() {
+        if (containerUsages == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(containerUsages);
+    }
+
+    /**
+     * Record the wall-clock time of one occurrence of a phase
+     *
+     * @param phase
+     * @param nanos
+     */
+    public void recordPhase(PhaseTimings.Phase phase, long nanos) {
+        PhaseTimings timings;
+        synchronized (this) {
+            if (phaseTimings == null) {
+                phaseTimings = new PhaseTimings();
+            }
+            timings = phaseTimings;
+        }
+        timings.record(phase, nanos);
+    }
+
+    /**
+     * Get the time spent in each phase, exported through the remote API so
+     * it can be charted across builds
+     *
+     * @return
+     */
+    @Exported
+    public synchronized List<PhaseTimings.PhaseSummary> getPhaseTimings() {
+        if (phaseTimings == null) {
+            return Collections.emptyList();
+        }
+        return phaseTimings.getPhases();
+    }
+
+    /**
+     * Get the image pull statistics to record into, creating them if needed
+     *
+     * @return
+     */
+    public synchronized PullStats getOrCreatePullStats() {
+        if (pullStats == null) {
+            pullStats = new PullStats();
+        }
+        return pullStats;
+    }
+
+    /**
+     * Get the image pull statistics
+     *
+     * @return the statistics or null if no image was pulled
+     */
+    @CheckForNull
+    @Exported
+    public synchronized PullStats getPullStats() {
+        return pullStats;
+    }
+
+    /**
+     * Time from launching a <code>docker exec</code> to the process being
+     * started
+     *
+     * @return
+     */
+    public LatencyHistogram getExecStartLatency() {
+        return execStartLatency;
+    }
 
+    private Object readResolve() {
+        if (execStartLatency == null) {
+            execStartLatency = new LatencyHistogram();
+        }
+        return this;
+    }
 }
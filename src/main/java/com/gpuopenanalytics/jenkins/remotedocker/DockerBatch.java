@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ArgumentListBuilder;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A sequence of <code>docker</code> commands run on the agent in a single
+ * remoting call instead of a round trip per command. Output that is not
+ * captured is streamed to the build log while the commands run.
+ */
+public class DockerBatch {
+
+    private final List<Command> commands = new ArrayList<>();
+
+    /**
+     * Add a command to the batch
+     *
+     * @param args          the docker command, with or without the leading
+     *                      <code>docker</code>
+     * @param captureStdout whether to return stdout in the {@link Result}
+     *                      instead of printing it to the build log
+     * @param stopOnFailure whether to skip the remaining commands if this one
+     *                      fails
+     * @return this batch
+     */
+    public DockerBatch add(ArgumentListBuilder args,
+                           boolean captureStdout,
+                           boolean stopOnFailure) {
+        commands.add(new Command(args, captureStdout, stopOnFailure));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    /**
+     * Run the commands in order on the launcher's node
+     *
+     * @param launcher
+     * @return a result per command that was run, in order. Shorter than the
+     * batch if a command that stops on failure failed.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<Result> execute(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+        if (commands.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Command> resolved = new ArrayList<>();
+        for (Command command : commands) {
+            resolved.add(new Command(
+                    launcher.toDockerCommand(command.args.clone()),
+                    command.captureStdout, command.stopOnFailure));
+        }
+        return launcher.call(new Runner(resolved, launcher.getListener(),
+                                        !launcher.isDebug()));
+    }
+
+    /**
+     * Run the commands in order on a node without a build, such as for
+     * maintenance. The commands are only prefixed with <code>docker</code>.
+     *
+     * @param channel
+     * @param listener
+     * @return a result per command that was run, in order
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<Result> execute(VirtualChannel channel,
+                                TaskListener listener) throws IOException, InterruptedException {
+        if (commands.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Command> resolved = new ArrayList<>();
+        for (Command command : commands) {
+            resolved.add(new Command(
+                    AbstractDockerLauncher.withDockerExecutable(
+                            command.args.clone()),
+                    command.captureStdout, command.stopOnFailure));
+        }
+        return channel.call(new Runner(resolved, listener, true));
+    }
+
+    /**
+     * The outcome of one command of the batch
+     */
+    public static class Result implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+        private final String stdout;
+        private final long durationNanos;
+
+        private Result(int status, String stdout, long durationNanos) {
+            this.status = status;
+            this.stdout = stdout;
+            this.durationNanos = durationNanos;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public boolean isSuccess() {
+            return status == 0;
+        }
+
+        /**
+         * The trimmed stdout if it was captured, otherwise empty
+         *
+         * @return
+         */
+        public String getStdout() {
+            return stdout;
+        }
+
+        /**
+         * How long the command took on the agent
+         *
+         * @return
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+    }
+
+    private static class Command implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ArgumentListBuilder args;
+        private final boolean captureStdout;
+        private final boolean stopOnFailure;
+
+        private Command(ArgumentListBuilder args,
+                        boolean captureStdout,
+                        boolean stopOnFailure) {
+            this.args = args;
+            this.captureStdout = captureStdout;
+            this.stopOnFailure = stopOnFailure;
+        }
+    }
+
+    private static class Runner extends MasterToSlaveCallable<List<Result>, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Command> commands;
+        private final TaskListener listener;
+        private final boolean quiet;
+
+        private Runner(List<Command> commands,
+                       TaskListener listener,
+                       boolean quiet) {
+            this.commands = commands;
+            this.listener = listener;
+            this.quiet = quiet;
+        }
+
+        @Override
+        public List<Result> call() throws IOException {
+            Launcher launcher = new Launcher.LocalLauncher(listener);
+            List<Result> results = new ArrayList<>();
+            for (Command command : commands) {
+                long start = System.nanoTime();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int status;
+                try {
+                    status = launcher.launch()
+                            .cmds(command.args)
+                            .stdout(command.captureStdout ? out : listener.getLogger())
+                            .stderr(listener.getLogger())
+                            .quiet(quiet)
+                            .join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw (IOException) new InterruptedIOException(
+                            "Interrupted running " + command.args).initCause(e);
+                }
+                results.add(new Result(status,
+                                       out.toString(StandardCharsets.UTF_8.name()).trim(),
+                                       System.nanoTime() - start));
+                if (status != 0 && command.stopOnFailure) {
+                    break;
+                }
+            }
+            return results;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import hudson.EnvVars;
 import hudson.Launcher;
 import hudson.Proc;
 import hudson.model.AbstractBuild;
+import hudson.model.Run;
 
 import java.io.IOException;
 
@@ -85,4 +86,9 @@ public class DockerLauncher extends AbstractDockerLauncher {
     public boolean isDebug() {
         return debug;
     }
+
+    @Override
+    public Run<?, ?> getRun() {
+        return build;
+    }
 }
@@ -29,6 +29,8 @@ import hudson.util.ArgumentListBuilder;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -51,12 +53,9 @@ public class DockerNetwork {
      * @throws InterruptedException
      */
     public static DockerNetwork create(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
-        ArgumentListBuilder args = new ArgumentListBuilder();
-        args.add("docker", "network", "create", "-d", "bridge",
-                 UUID.randomUUID().toString());
-
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int status = launcher.executeCommand(args)
+        int status = launcher.executeCommand(
+                newNamed().getCreateArgs(Collections.emptyList()))
                 .stdout(baos)
                 .stderr(launcher.getListener().getLogger())
                 .join();
@@ -69,6 +68,34 @@ public class DockerNetwork {
         return new DockerNetwork(id);
     }
 
+    /**
+     * A network with a random name that is not created yet. The name can be
+     * used in place of the ID, so containers can be attached to it before
+     * {@link #getCreateArgs(List)} has run.
+     *
+     * @return
+     */
+    public static DockerNetwork newNamed() {
+        return new DockerNetwork(UUID.randomUUID().toString());
+    }
+
+    /**
+     * The arguments to create this network, if it was made with {@link
+     * #newNamed()}
+     *
+     * @param labels <code>key=value</code> labels to put on the network
+     * @return
+     */
+    public ArgumentListBuilder getCreateArgs(List<String> labels) {
+        ArgumentListBuilder args = new ArgumentListBuilder("docker", "network",
+                                                           "create", "-d",
+                                                           "bridge");
+        for (String label : labels) {
+            args.add("--label", label);
+        }
+        return args.add(id);
+    }
+
     /**
      * Create a {@link DockerNetwork} if you already have an ID
      *
@@ -26,105 +26,273 @@ package com.gpuopenanalytics.jenkins.remotedocker;
 
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.google.common.collect.ImmutableList;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.CacheVolumeManager;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.CacheVolumeUsage;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ContainerEventWatcher;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.LeaseOwner;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.NodeResourceManager;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ResourceSampler;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ResourcesBusyException;
 import com.gpuopenanalytics.jenkins.remotedocker.job.DockerConfiguration;
 import com.gpuopenanalytics.jenkins.remotedocker.job.SideDockerConfiguration;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Computer;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.slaves.WorkspaceList;
 import hudson.util.ArgumentListBuilder;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 
+import javax.annotation.CheckForNull;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tracks what containers
  */
 public class DockerState implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Prefix of the labels put on the containers
+     */
+    public static final String LABEL_PREFIX = "com.gpuopenanalytics.remote-docker.";
+    /**
+     * Label with an ID unique to each launch, to find the containers of a
+     * launch that did not complete
+     */
+    static final String LAUNCH_LABEL = LABEL_PREFIX + "launch";
+    /**
+     * Label with the ID of the controller that created the container or
+     * network
+     */
+    public static final String CONTROLLER_LABEL = LABEL_PREFIX + "controller";
+    public static final String JOB_LABEL = LABEL_PREFIX + "job";
+    public static final String BUILD_LABEL = LABEL_PREFIX + "build";
+    /**
+     * Label with the creation time in ms since the epoch
+     */
+    public static final String CREATED_LABEL = LABEL_PREFIX + "created";
+    /**
+     * Label on the containers and network of builds configured to keep them,
+     * so they are not removed as orphans
+     */
+    public static final String KEEP_LABEL = LABEL_PREFIX + "keep";
+
     private boolean debug;
     private String mainContainerId;
     private ImmutableList<String> containerIds;
     private String networkId;
     private boolean removeContainers;
-    private FilePath loginTempDir;
+    private String loginTempDir;
+    private LeaseOwner leaseOwner;
+    /**
+     * What the managers leased to {@link #leaseOwner}, to lease it again
+     * after a restart
+     */
+    private HashMap<String, Serializable> leases;
+    private AgentUser agentUser;
+    private transient boolean usageCollected;
+    /**
+     * The containers, network and login already removed, so a retried
+     * teardown only runs the commands that failed
+     */
+    private transient Set<String> removed;
 
     public DockerState(boolean debug,
                        String mainContainerId,
                        Collection<String> containerIds,
                        Optional<DockerNetwork> network,
                        boolean removeContainers,
-                       FilePath loginTempDir) {
+                       FilePath loginTempDir,
+                       LeaseOwner leaseOwner,
+                       AgentUser agentUser) {
         this.debug = debug;
         this.mainContainerId = mainContainerId;
         this.containerIds = ImmutableList.copyOf(containerIds);
         this.networkId = network.map(DockerNetwork::getId).orElse(null);
         this.removeContainers = removeContainers;
-        this.loginTempDir = loginTempDir;
+        this.loginTempDir = loginTempDir != null ? loginTempDir.getRemote() : null;
+        this.leaseOwner = leaseOwner;
+        this.agentUser = agentUser;
     }
 
-    private int execute(Launcher launcher,
-                        ArgumentListBuilder args) throws IOException, InterruptedException {
-        TaskListener listener = launcher.getListener();
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        int status = launcher.launch()
-                .cmds(args)
-                .quiet(!debug)
-                .stdout(out)
-                .stderr(listener.getLogger())
-                .join();
-        return status;
+    /**
+     * Collect the resource usage, remove the containers and network, if
+     * configured, log out and release the node resources
+     *
+     * @param launcher
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void tearDown(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        collectUsage(launcher);
+        removeResources(launcher);
+        releaseResources();
+        launcher.recordPhase(PhaseTimings.Phase.TEARDOWN, start);
     }
 
-    public void tearDown(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+    /**
+     * Stop sampling the containers' resource usage and attach it to the
+     * build. Only the first call does anything.
+     *
+     * @param launcher
+     */
+    public synchronized void collectUsage(AbstractDockerLauncher launcher) {
+        if (!usageCollected) {
+            usageCollected = true;
+            ResourceSampler.collect(launcher, containerIds, mainContainerId);
+        }
+    }
+
+    /**
+     * Remove the containers and network, if configured, and log out. The
+     * docker commands run on the agent in a single remoting call. Calling
+     * this again only runs the commands that did not succeed before.
+     *
+     * @param launcher
+     * @return whether every command succeeded
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public synchronized boolean removeResources(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+        //Removing the containers must not be reported as them dying
+        ContainerEventWatcher.get().unwatch(this);
+        if (removed == null) {
+            removed = new HashSet<>();
+        }
+        TaskListener listener = launcher.getListener();
+        List<String> keys = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        DockerBatch batch = new DockerBatch();
         if (removeContainers) {
-            TaskListener listener = launcher.getListener();
             for (String containerId : containerIds) {
-                ArgumentListBuilder args = new ArgumentListBuilder()
-                        .add("docker", "rm", "-f", containerId);
-                int status = execute(launcher.getInner(), args);
-                if (status != 0) {
-                    listener.error("Failed to remove container %s",
-                                   containerId);
+                if (!removed.contains(containerId)) {
+                    batch.add(new ArgumentListBuilder("docker", "rm", "-f",
+                                                      containerId), true, false);
+                    keys.add(containerId);
+                    failures.add(String.format("Failed to remove container %s",
+                                               containerId));
                 }
             }
-            if (networkId != null) {
-                ArgumentListBuilder args = new ArgumentListBuilder()
-                        .add("docker", "network", "rm", networkId);
-                int status = execute(launcher.getInner(), args);
-                if (status != 0) {
-                    listener.error("Failed to remove network %s", networkId);
-                }
+            if (networkId != null && !removed.contains(networkId)) {
+                batch.add(new ArgumentListBuilder("docker", "network", "rm",
+                                                  networkId), true, false);
+                keys.add(networkId);
+                failures.add(String.format("Failed to remove network %s",
+                                           networkId));
             }
         }
-        logout(launcher.getInner());
+        if (loginTempDir != null && !removed.contains(loginTempDir)) {
+            //Logs out of the HOME used to log in
+            launcher.configureTempDir(loginTempDir);
+            batch.add(new ArgumentListBuilder("docker", "logout"), true,
+                      false);
+            keys.add(loginTempDir);
+            failures.add("Failed to docker logout");
+        }
+        List<DockerBatch.Result> results = batch.execute(launcher);
+        boolean success = true;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).isSuccess()) {
+                removed.add(keys.get(i));
+            } else {
+                listener.error(failures.get(i));
+                success = false;
+            }
+        }
+        return success;
     }
 
-    private void logout(Launcher launcher) throws IOException, InterruptedException {
-        if (loginTempDir != null) {
-            ArgumentListBuilder args = new ArgumentListBuilder("env",
-                                                               "HOME=" + loginTempDir
-                                                                       .getRemote(),
-                                                               "docker",
-                                                               "logout");
-            int status = execute(launcher, args);
-            if (status != 0) {
-                launcher.getListener().error("Failed to docker logout");
+    /**
+     * Check which of the containers and network no longer exist or, for
+     * containers, are not running anymore, for example after the controller
+     * restarted
+     *
+     * @param launcher
+     * @return the IDs of what is gone, empty if everything is still up
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<String> findMissingResources(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+        DockerBatch batch = new DockerBatch();
+        ArgumentListBuilder inspect = new ArgumentListBuilder("docker",
+                                                              "inspect",
+                                                              "--format",
+                                                              "{{.Id}} {{.State.Running}}");
+        containerIds.forEach(inspect::add);
+        batch.add(inspect, true, false);
+        if (networkId != null) {
+            batch.add(new ArgumentListBuilder("docker", "network", "inspect",
+                                              "--format", "{{.Id}}",
+                                              networkId), true, false);
+        }
+        List<DockerBatch.Result> results = batch.execute(launcher);
+        List<String> running = new ArrayList<>();
+        for (String line : results.get(0).getStdout().split("\\r?\\n")) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length == 2 && "true".equals(parts[1])) {
+                running.add(parts[0]);
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        for (String containerId : containerIds) {
+            if (running.stream().noneMatch(id -> id.startsWith(containerId))) {
+                missing.add(containerId);
             }
         }
+        if (networkId != null && !results.get(1).isSuccess()) {
+            missing.add(networkId);
+        }
+        return missing;
+    }
+
+    /**
+     * Remember what the node resource managers leased to the containers, so
+     * {@link #restoreResources()} can lease it again after a restart
+     */
+    public void recordResources() {
+        if (leaseOwner != null) {
+            leases = NodeResourceManager.getAllLeases(leaseOwner);
+        }
+    }
+
+    /**
+     * Lease the GPUs, memory, CPUs, etc of the containers again after the
+     * controller restarted, so other builds do not get them while the
+     * containers still run
+     */
+    public void restoreResources() {
+        if (leaseOwner != null && leases != null) {
+            NodeResourceManager.restoreAll(leaseOwner, leases);
+        }
+    }
+
+    /**
+     * Release the GPUs, memory, cache volumes, etc leased to the containers
+     */
+    public void releaseResources() {
+        if (leaseOwner != null) {
+            NodeResourceManager.releaseAll(leaseOwner);
+        }
     }
 
     /**
@@ -144,7 +312,7 @@ public class DockerState implements Serializable {
         if (buildWrapper.getCredentialsId() != null) {
             UsernamePasswordCredentials creds = buildWrapper.getCredentials();
             FilePath tempDir = WorkspaceList.tempDir(workspace);
-            launcher.configureTempDir(tempDir);
+            launcher.configureTempDir(tempDir.getRemote());
             ArgumentListBuilder args = new ArgumentListBuilder("docker",
                                                                "login");
             args.add("-u", creds.getUsername());
@@ -178,52 +346,250 @@ public class DockerState implements Serializable {
     public static DockerState launchContainers(RemoteDockerBuildWrapper buildWrapper,
                                                AbstractDockerLauncher launcher,
                                                FilePath workspace) throws IOException, InterruptedException {
+        Run<?, ?> run = launcher.getRun();
+        LeaseOwner leaseOwner = LeaseOwner.create(
+                Utils.getNodeName(launcher),
+                run != null ? run.getExternalizableId() : null);
+        launcher.configureLeaseOwner(leaseOwner);
+        long start = System.nanoTime();
+        if (buildWrapper.getCredentialsId() != null) {
+            launcher.reportProgress("Logging in to the registry");
+        }
         FilePath loginTempDir = login(buildWrapper, launcher, workspace);
+        if (loginTempDir != null) {
+            launcher.recordPhase(PhaseTimings.Phase.LOGIN, start);
+        }
 
         Optional<DockerNetwork> network = Optional.empty();
         if (!buildWrapper.getSideDockerConfigurations().isEmpty()) {
-            //There are side container, so create a network
-            network = Optional.of(DockerNetwork.create(launcher));
+            //There are side container, so create a network. It is named up
+            // front so it can be created in the same batch as the containers
+            network = Optional.of(DockerNetwork.newNamed());
         }
-        List<String> containerIds = new ArrayList<>();
-        //Launch side containers first
-        for (SideDockerConfiguration side : buildWrapper.getSideDockerConfigurations()) {
-            String id = launchContainer(buildWrapper, side, false, launcher,
-                                        workspace,
-                                        network);
-            containerIds.add(id);
+        String launchId = UUID.randomUUID().toString();
+        try {
+            return launch(buildWrapper, launcher, workspace, network,
+                          getLabels(run, launchId,
+                                    !buildWrapper.isRemoveContainers()),
+                          loginTempDir,
+                          leaseOwner);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            cleanUpPartialLaunch(buildWrapper, launcher, network, launchId,
+                                 loginTempDir, leaseOwner);
+            throw e;
         }
+    }
 
-        //Launch main container
+    private static DockerState launch(RemoteDockerBuildWrapper buildWrapper,
+                                      AbstractDockerLauncher launcher,
+                                      FilePath workspace,
+                                      Optional<DockerNetwork> network,
+                                      List<String> labels,
+                                      FilePath loginTempDir,
+                                      LeaseOwner leaseOwner) throws IOException, InterruptedException {
+        //Launch side containers first
+        List<DockerConfiguration> configs = new ArrayList<>(
+                buildWrapper.getSideDockerConfigurations());
         DockerConfiguration main = buildWrapper.getDockerConfiguration();
-        String mainId = launchContainer(buildWrapper, main, true, launcher,
-                                        workspace,
-                                        network);
-        containerIds.add(mainId);
+        configs.add(main);
+
+        //Set up the images, then the resources of all containers at once,
+        // then create the network and run all of the containers in one call
+        // to the agent
+        for (int i = 0; i < configs.size(); i++) {
+            launcher.reportProgress(String.format(
+                    "Setting up image %d of %d", i + 1, configs.size()));
+            setupImage(configs.get(i), launcher, workspace);
+        }
+        launcher.reportProgress("Waiting for node resources");
+        long start = System.nanoTime();
+        List<ArgumentListBuilder> launchArgs;
+        try {
+            launchArgs = NodeResourceManager.acquireAll(
+                    leaseOwner, launcher.getListener(), () -> {
+                        List<ArgumentListBuilder> all = new ArrayList<>();
+                        for (DockerConfiguration config : configs) {
+                            all.add(getlaunchArgs(buildWrapper, config,
+                                                  config == main, launcher,
+                                                  workspace, network, labels));
+                        }
+                        return all;
+                    });
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            CacheVolumeManager.get().takeUsages(leaseOwner);
+            throw e;
+        }
+        //Only now, a launch that waited leased the caches on every attempt
+        List<CacheVolumeUsage> cacheUsages = CacheVolumeManager.get()
+                .takeUsages(leaseOwner);
+        Run<?, ?> run = launcher.getRun();
+        if (run != null && !cacheUsages.isEmpty()) {
+            DockerAction action = DockerAction.getOrCreate(run);
+            cacheUsages.forEach(action::addCacheVolumeUsage);
+        }
+        launcher.recordPhase(PhaseTimings.Phase.RESOURCES, start);
+        DockerBatch batch = new DockerBatch();
+        network.ifPresent(
+                n -> batch.add(n.getCreateArgs(labels), true, true));
+        launchArgs.forEach(args -> batch.add(args, true, true));
+        launcher.reportProgress("Starting containers");
+        List<DockerBatch.Result> results = batch.execute(launcher);
+        int offset = 0;
+        if (network.isPresent()) {
+            DockerBatch.Result result = results.get(0);
+            launcher.recordPhaseDuration(PhaseTimings.Phase.NETWORK,
+                                         result.getDurationNanos());
+            if (!result.isSuccess()) {
+                throw new IOException("Could not create network");
+            }
+            offset = 1;
+        }
+        List<String> containerIds = new ArrayList<>();
+        for (int i = 0; i < configs.size(); i++) {
+            DockerBatch.Result result = results.get(offset + i);
+            launcher.recordPhaseDuration(PhaseTimings.Phase.RUN,
+                                         result.getDurationNanos());
+            if (!result.isSuccess()) {
+                throw new IOException("Failed to start docker image");
+            }
+            containerIds.add(result.getStdout());
+        }
+        launcher.reportProgress("Running post-create steps");
+        for (int i = 0; i < configs.size(); i++) {
+            postCreate(configs.get(i), containerIds.get(i), launcher);
+        }
+        String mainId = containerIds.get(containerIds.size() - 1);
         Collections.reverse(containerIds);
 
         DockerState dockerState = new DockerState(buildWrapper.isDebug(),
                                                   mainId, containerIds,
                                                   network,
                                                   buildWrapper.isRemoveContainers(),
-                                                  loginTempDir);
+                                                  loginTempDir,
+                                                  leaseOwner,
+                                                  launcher.getResolvedAgentUser());
+        dockerState.recordResources();
         launcher.configure(dockerState);
         return dockerState;
     }
 
     /**
-     * Spin up the container mounting the specified path as a volume mount. This
-     * method blocks until the container is started.
+     * The labels for the containers and network of a launch, so that they can
+     * be found again if the launch fails or they are orphaned
+     *
+     * @param run      the build, if known
+     * @param launchId
+     * @return the labels as <code>key=value</code>
+     */
+    static List<String> getLabels(@CheckForNull Run<?, ?> run,
+                                  String launchId,
+                                  boolean keep) {
+        List<String> labels = new ArrayList<>();
+        labels.add(LAUNCH_LABEL + "=" + launchId);
+        labels.add(CONTROLLER_LABEL + "=" + Jenkins.get().getLegacyInstanceId());
+        if (run != null) {
+            labels.add(JOB_LABEL + "=" + run.getParent().getFullName());
+            labels.add(BUILD_LABEL + "=" + run.getNumber());
+        }
+        labels.add(CREATED_LABEL + "=" + System.currentTimeMillis());
+        if (keep) {
+            labels.add(KEEP_LABEL + "=true");
+        }
+        return labels;
+    }
+
+    /**
+     * Remove whatever a failed or aborted launch left behind: the containers
+     * labelled with its launch ID, the network and the login, and release the
+     * node resources
+     */
+    private static void cleanUpPartialLaunch(RemoteDockerBuildWrapper buildWrapper,
+                                             AbstractDockerLauncher launcher,
+                                             Optional<DockerNetwork> network,
+                                             String launchId,
+                                             FilePath loginTempDir,
+                                             LeaseOwner leaseOwner) {
+        long start = System.nanoTime();
+        //Clear the interrupt of an abort so the clean up can run
+        boolean interrupted = Thread.interrupted();
+        TaskListener listener = launcher.getListener();
+        try {
+            DockerBatch cleanup = new DockerBatch();
+            if (buildWrapper.isRemoveContainers()) {
+                List<DockerBatch.Result> found = new DockerBatch()
+                        .add(new ArgumentListBuilder("docker", "ps", "-aq",
+                                                     "--filter",
+                                                     "label=" + LAUNCH_LABEL + "=" + launchId),
+                             true, false)
+                        .execute(launcher);
+                for (String id : found.get(0).getStdout().split("\\s+")) {
+                    if (!id.isEmpty()) {
+                        cleanup.add(new ArgumentListBuilder("docker", "rm",
+                                                            "-f", id),
+                                    true, false);
+                    }
+                }
+                network.ifPresent(n -> cleanup.add(
+                        new ArgumentListBuilder("docker", "network", "rm",
+                                                n.getId()), true, false));
+            }
+            if (loginTempDir != null) {
+                launcher.configureTempDir(loginTempDir.getRemote());
+                cleanup.add(new ArgumentListBuilder("docker", "logout"), true,
+                            false);
+            }
+            cleanup.execute(launcher);
+            listener.getLogger().println(String.format(
+                    "Cleaned up partially started containers in %d ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (IOException | InterruptedException e) {
+            listener.error("Failed to clean up partially started containers: " + e);
+        } finally {
+            NodeResourceManager.releaseAll(leaseOwner);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Pull or build the image of the container, unless it was prefetched
      *
      * @throws IOException
      * @throws InterruptedException
      */
-    private static ArgumentListBuilder getlaunchArgs(RemoteDockerBuildWrapper buildWrapper,
-                                                     DockerConfiguration config,
-                                                     boolean isMain,
-                                                     AbstractDockerLauncher launcher,
-                                                     FilePath workspace,
-                                                     Optional<DockerNetwork> network) throws IOException, InterruptedException {
+    private static void setupImage(DockerConfiguration config,
+                                   AbstractDockerLauncher launcher,
+                                   FilePath workspace) throws IOException, InterruptedException {
+        //Fully resolve the source workspace
+        String workspaceSrc = Paths.get(workspace.getRemote())
+                .toAbsolutePath()
+                .toString();
+        long start = System.nanoTime();
+        DockerAction action = launcher.getDockerAction();
+        if (action == null || !action.getImagePrefetch().await(launcher,
+                                                              config)) {
+            config.setupImage(launcher, workspaceSrc);
+        }
+        launcher.recordPhase(PhaseTimings.Phase.IMAGE, start);
+    }
+
+    /**
+     * Get the arguments to <code>docker run</code> the container mounting the
+     * specified path as a volume mount, leasing its node resources. The image
+     * must be set up already.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ResourcesBusyException if a node resource is not free
+     */
+    static ArgumentListBuilder getlaunchArgs(RemoteDockerBuildWrapper buildWrapper,
+                                             DockerConfiguration config,
+                                             boolean isMain,
+                                             AbstractDockerLauncher launcher,
+                                             FilePath workspace,
+                                             Optional<DockerNetwork> network,
+                                             List<String> labels) throws IOException, InterruptedException {
         String workspacePath = workspace.getRemote();
         String workspaceTarget = Optional.ofNullable(
                 buildWrapper.getWorkspaceOverride())
@@ -233,7 +599,6 @@ public class DockerState implements Serializable {
                 .toAbsolutePath()
                 .toString();
 
-        config.setupImage(launcher, workspaceSrc);
         Computer node = workspace.toComputer();
         String tmpDest = node.getSystemProperties().get("java.io.tmpdir")
                 .toString();
@@ -250,6 +615,9 @@ public class DockerState implements Serializable {
         //TODO Set name? Maybe with build.toString().replaceAll("^\\w", "_")
         ArgumentListBuilder args = new ArgumentListBuilder()
                 .add("run", "-t", "-d");
+        for (String label : labels) {
+            args.add("--label", label);
+        }
         if (network.isPresent()) {
             //Add inter-container network
             network.get().addArgs(args);
@@ -272,41 +640,26 @@ public class DockerState implements Serializable {
                     .add("-v", tmpSrc + ":" + tmpDest)
                     .add("-v", secondaryTempSrc + ":" + secondaryTempPath);
         }
+        //Leases GPUs, memory, cache volumes, etc
         config.addCreateArgs(launcher, args);
         return args;
     }
 
-    private static String launchContainer(RemoteDockerBuildWrapper buildWrapper,
-                                          DockerConfiguration config,
-                                          boolean isMain,
-                                          AbstractDockerLauncher launcher,
-                                          FilePath workspace,
-                                          Optional<DockerNetwork> network) throws IOException, InterruptedException {
-        ArgumentListBuilder args = getlaunchArgs(buildWrapper, config, isMain,
-                                                 launcher,
-                                                 workspace, network);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int status = launcher.executeCommand(args)
-                .stdout(baos)
-                .stderr(launcher.getListener().getLogger())
-                .join();
-
-        String containerId = baos.toString(StandardCharsets.UTF_8.name())
-                .trim();
-
-        if (status != 0) {
-            throw new IOException("Failed to start docker image");
-        }
-
+    private static void postCreate(DockerConfiguration config,
+                                   String containerId,
+                                   AbstractDockerLauncher launcher) throws IOException, InterruptedException {
         DockerState tempState = new DockerState(launcher.isDebug(),
                                                 containerId,
                                                 ImmutableList.of(containerId),
                                                 Optional.empty(),
                                                 false,
-                                                null);
+                                                null,
+                                                launcher.getLeaseOwner(),
+                                                launcher.getResolvedAgentUser());
         launcher.configure(tempState);
+        long start = System.nanoTime();
         config.postCreate(launcher);
-        return containerId;
+        launcher.recordPhase(PhaseTimings.Phase.POST_CREATE, start);
     }
 
     public String getMainContainerId() {
@@ -330,7 +683,27 @@ public class DockerState implements Serializable {
         return Optional.ofNullable(networkId);
     }
 
-    public FilePath getLoginTempDir() {
+    /**
+     * Get the path on the node of the <code>HOME</code> holding the login
+     * credentials
+     *
+     * @return the path or null if not logged in
+     */
+    @CheckForNull
+    public String getLoginTempDir() {
         return loginTempDir;
     }
+
+    public LeaseOwner getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    /**
+     * Get the user running the agent if it was looked up while launching
+     *
+     * @return
+     */
+    public AgentUser getAgentUser() {
+        return agentUser;
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerConfiguration;
+import hudson.Extension;
+import hudson.model.Items;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Images of a build being set up in the background ahead of launching the
+ * containers, so that pulls and builds overlap with checkout or earlier
+ * stages. A prefetch is matched to a later launch by the node and an
+ * identical configuration. Whatever is still being set up when the build
+ * completes is cancelled.
+ */
+public class ImagePrefetch {
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(),
+                                    "ImagePrefetch"));
+
+    private final Map<String, Prefetch> prefetches = new HashMap<>();
+
+    /**
+     * Creates the launcher to set up the image with, on the prefetch thread
+     * since that already runs a docker command
+     */
+    @FunctionalInterface
+    public interface LauncherFactory {
+
+        AbstractDockerLauncher create() throws IOException, InterruptedException;
+    }
+
+    private static String key(String nodeName, DockerConfiguration config) {
+        return nodeName + "\n" + Items.XSTREAM2.toXML(config);
+    }
+
+    /**
+     * Start setting up the image of the configuration in the background
+     *
+     * @param nodeName        node the containers will run on
+     * @param config
+     * @param localWorkspace
+     * @param launcherFactory
+     * @return false if the image is already being set up
+     */
+    public synchronized boolean start(String nodeName,
+                                      DockerConfiguration config,
+                                      String localWorkspace,
+                                      LauncherFactory launcherFactory) {
+        String key = key(nodeName, config);
+        if (prefetches.containsKey(key)) {
+            return false;
+        }
+        Prefetch prefetch = new Prefetch(config);
+        prefetch.future = EXECUTOR.submit(() -> {
+            try {
+                config.prefetchImage(launcherFactory.create(), localWorkspace);
+                return null;
+            } finally {
+                prefetch.finished = System.nanoTime();
+            }
+        });
+        prefetches.put(key, prefetch);
+        return true;
+    }
+
+    /**
+     * Wait for the image of the configuration if it is being set up in the
+     * background, logging how much of the set up overlapped with other work
+     *
+     * @param launcher
+     * @param config
+     * @return true if the image was set up ahead, false if nothing was started
+     * for it or it failed, so it still needs to be set up
+     * @throws InterruptedException
+     */
+    public boolean await(AbstractDockerLauncher launcher,
+                         DockerConfiguration config) throws InterruptedException {
+        String key = key(Utils.getNodeName(launcher), config);
+        Prefetch prefetch;
+        synchronized (this) {
+            prefetch = prefetches.get(key);
+        }
+        if (prefetch == null) {
+            return false;
+        }
+        long waitStart = System.nanoTime();
+        try {
+            prefetch.future.get();
+        } catch (ExecutionException | CancellationException e) {
+            launcher.getListener().getLogger().println(
+                    "Setting up the image ahead failed, trying again: "
+                            + (e.getCause() != null ? e.getCause() : e));
+            synchronized (this) {
+                prefetches.remove(key);
+            }
+            return false;
+        }
+        config.copyImageSetup(prefetch.config);
+        long waited = System.nanoTime() - waitStart;
+        long total = prefetch.finished - prefetch.started;
+        long overlapped = Math.max(0, Math.min(prefetch.finished,
+                                               waitStart) - prefetch.started);
+        launcher.getListener().getLogger().println(String.format(
+                "Image was set up ahead: %d of %d ms overlapped with other work, waited %d ms",
+                TimeUnit.NANOSECONDS.toMillis(overlapped),
+                TimeUnit.NANOSECONDS.toMillis(total),
+                TimeUnit.NANOSECONDS.toMillis(waited)));
+        return true;
+    }
+
+    /**
+     * Stop setting up the images that are still in progress, killing their
+     * docker commands
+     */
+    public void cancel() {
+        List<Prefetch> all;
+        synchronized (this) {
+            all = new ArrayList<>(prefetches.values());
+            prefetches.clear();
+        }
+        for (Prefetch prefetch : all) {
+            prefetch.future.cancel(true);
+        }
+    }
+
+    /**
+     * Cancels the prefetches of builds that were aborted or failed before
+     * their containers were launched
+     */
+    @Extension
+    public static class CancelOnCompletion extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            DockerAction action = run.getAction(DockerAction.class);
+            if (action != null) {
+                action.getImagePrefetch().cancel();
+            }
+        }
+    }
+
+    private static class Prefetch {
+
+        private final DockerConfiguration config;
+        private final long started = System.nanoTime();
+        private volatile long finished;
+        private Future<?> future;
+
+        private Prefetch(DockerConfiguration config) {
+            this.config = config;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size log-linear latency histogram in the style of HdrHistogram.
+ * Values are bucketed in microseconds with 32 linear sub-buckets per power of
+ * two, so percentiles are accurate to about 3%, from 1 microsecond up to about
+ * 19 hours. Recording is lock-free and does not allocate.
+ * <p>Only the non-empty buckets are persisted.
+ */
+public class LatencyHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 31;
+    static final int BUCKETS = (MAX_SHIFT + 2) * SUB_BUCKETS;
+    static final long MAX_VALUE = (2L * SUB_BUCKETS << MAX_SHIFT) - 1;
+
+    private transient AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /**
+     * Persisted form of the counts: <code>index:count</code> pairs separated
+     * by commas
+     */
+    private String buckets;
+
+    /**
+     * Record a latency
+     *
+     * @param nanos
+     */
+    public void recordNanos(long nanos) {
+        counts.incrementAndGet(indexOf(
+                Math.min(Math.max(0, nanos / 1000), MAX_VALUE)));
+    }
+
+    static int indexOf(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * The middle of the range of values counted in the bucket
+     */
+    static long valueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return (subBucket << shift) + (1L << shift) / 2;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Get the latency at or below which the given percentage of recorded
+     * values fall
+     *
+     * @param percentile between 0 and 100
+     * @return microseconds or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return valueOf(i);
+            }
+        }
+        return valueOf(BUCKETS - 1);
+    }
+
+    /**
+     * Format a percentile for display, such as <code>1.4 ms</code>
+     *
+     * @param percentile
+     * @return
+     */
+    public String formatPercentile(double percentile) {
+        long micros = getValueAtPercentile(percentile);
+        return micros < 1000 ? micros + " \u00b5s"
+                : String.format("%.1f ms",
+                                micros / (double) TimeUnit.MILLISECONDS.toMicros(1));
+    }
+
+    public String getP50() {
+        return formatPercentile(50);
+    }
+
+    public String getP95() {
+        return formatPercentile(95);
+    }
+
+    public String getP99() {
+        return formatPercentile(99);
+    }
+
+    /**
+     * Add the counts of another histogram to this one
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    /**
+     * Clear the histogram
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Get the persisted form of the counts
+     */
+    String toBuckets() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(i).append(':').append(count);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Add counts in their persisted form. Indices beyond the last bucket are
+     * counted in it, the same as values beyond the maximum are when recorded.
+     */
+    void addBuckets(String buckets) {
+        if (buckets == null || buckets.isEmpty()) {
+            return;
+        }
+        for (String bucket : buckets.split(",")) {
+            int colon = bucket.indexOf(':');
+            int index = Integer.parseInt(bucket.substring(0, colon));
+            counts.addAndGet(Math.min(Math.max(0, index), BUCKETS - 1),
+                             Long.parseLong(bucket.substring(colon + 1)));
+        }
+    }
+
+    private Object writeReplace() {
+        buckets = toBuckets();
+        return this;
+    }
+
+    private Object readResolve() {
+        counts = new AtomicLongArray(BUCKETS);
+        addBuckets(buckets);
+        return this;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ContainerUsage;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The peak memory of a job's main container over its last builds, kept in a
+ * small file in the job directory, and the <code>-m</code> value recommended
+ * from it: the 99th percentile of the peaks plus headroom. Below 100 builds
+ * that percentile is the highest peak.
+ */
+public class MemoryHistory {
+
+    private static final Logger LOGGER = Logger.getLogger(
+            MemoryHistory.class.getName());
+
+    static final String FILE_NAME = "remote-docker-memory.csv";
+    private static final int MAX_ENTRIES = SystemProperties.getInteger(
+            MemoryHistory.class.getName() + ".maxEntries", 30);
+    private static final int MIN_ENTRIES = SystemProperties.getInteger(
+            MemoryHistory.class.getName() + ".minEntries", 5);
+    private static final int HEADROOM_PERCENT = SystemProperties.getInteger(
+            MemoryHistory.class.getName() + ".headroomPercent", 20);
+    /**
+     * Jobs whose limit is at least this many times the recommendation are
+     * flagged
+     */
+    private static final int OVER_PROVISIONED_FACTOR = SystemProperties.getInteger(
+            MemoryHistory.class.getName() + ".overProvisionedFactor", 2);
+    private static final long ROUNDING = 64L * 1024 * 1024;
+    /**
+     * Guards the history files, rather than locking the jobs themselves
+     */
+    private static final Object LOCK = new Object();
+
+    private MemoryHistory() {
+    }
+
+    /**
+     * Peak memory and limit of one build
+     */
+    public static class Entry {
+
+        private final int build;
+        private final long peakBytes;
+        private final long limitBytes;
+
+        public Entry(int build, long peakBytes, long limitBytes) {
+            this.build = build;
+            this.peakBytes = peakBytes;
+            this.limitBytes = limitBytes;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        public long getPeakBytes() {
+            return peakBytes;
+        }
+
+        public long getLimitBytes() {
+            return limitBytes;
+        }
+
+        @Override
+        public String toString() {
+            return build + "," + peakBytes + "," + limitBytes;
+        }
+
+        @CheckForNull
+        static Entry parse(String line) {
+            String[] parts = line.trim().split(",");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Entry(Integer.parseInt(parts[0]),
+                                 Long.parseLong(parts[1]),
+                                 Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Load the history of the job, oldest first
+     *
+     * @param job
+     * @return
+     */
+    public static List<Entry> load(Job<?, ?> job) {
+        return load(job.getRootDir());
+    }
+
+    static List<Entry> load(File dir) {
+        File file = new File(dir, FILE_NAME);
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Entry> entries = new ArrayList<>();
+            for (String line : Files.readAllLines(file.toPath(),
+                                                  StandardCharsets.UTF_8)) {
+                Entry entry = Entry.parse(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Add a build to the job's history, dropping the oldest entries beyond
+     * the maximum. A build that launched containers more than once keeps a
+     * single entry with the largest peak and limit.
+     *
+     * @param job
+     * @param entry
+     * @return the updated history
+     * @throws IOException
+     */
+    public static List<Entry> append(Job<?, ?> job,
+                                     Entry entry) throws IOException {
+        return append(job.getRootDir(), entry);
+    }
+
+    static List<Entry> append(File dir, Entry entry) throws IOException {
+        synchronized (LOCK) {
+            List<Entry> entries = new ArrayList<>(load(dir));
+            Entry last = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+            if (last != null && last.getBuild() == entry.getBuild()) {
+                entries.set(entries.size() - 1, new Entry(
+                        entry.getBuild(),
+                        Math.max(last.getPeakBytes(), entry.getPeakBytes()),
+                        Math.max(last.getLimitBytes(), entry.getLimitBytes())));
+            } else {
+                entries.add(entry);
+            }
+            if (entries.size() > MAX_ENTRIES) {
+                entries = new ArrayList<>(
+                        entries.subList(entries.size() - MAX_ENTRIES,
+                                        entries.size()));
+            }
+            List<String> lines = new ArrayList<>();
+            for (Entry e : entries) {
+                lines.add(e.toString());
+            }
+            File file = new File(dir, FILE_NAME);
+            File tmp = new File(dir, FILE_NAME + ".tmp");
+            Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            return entries;
+        }
+    }
+
+    /**
+     * Recommend a memory limit from the history
+     *
+     * @param entries
+     * @return the recommendation or null if there are too few builds
+     */
+    @CheckForNull
+    public static Recommendation recommend(List<Entry> entries) {
+        if (entries.size() < MIN_ENTRIES) {
+            return null;
+        }
+        List<Long> peaks = new ArrayList<>();
+        for (Entry entry : entries) {
+            peaks.add(entry.getPeakBytes());
+        }
+        Collections.sort(peaks);
+        int index = (int) Math.ceil(0.99 * peaks.size()) - 1;
+        long p99 = peaks.get(Math.max(0, index));
+        long withHeadroom = p99 + p99 * HEADROOM_PERCENT / 100;
+        long recommended = Math.max(ROUNDING,
+                                    (withHeadroom + ROUNDING - 1) / ROUNDING * ROUNDING);
+        long limit = entries.get(entries.size() - 1).getLimitBytes();
+        return new Recommendation(entries.size(), p99, recommended, limit);
+    }
+
+    /**
+     * A recommended memory limit for a job
+     */
+    public static class Recommendation {
+
+        private final int builds;
+        private final long peakBytes;
+        private final long recommendedBytes;
+        private final long currentLimitBytes;
+
+        Recommendation(int builds,
+                       long peakBytes,
+                       long recommendedBytes,
+                       long currentLimitBytes) {
+            this.builds = builds;
+            this.peakBytes = peakBytes;
+            this.recommendedBytes = recommendedBytes;
+            this.currentLimitBytes = currentLimitBytes;
+        }
+
+        public int getBuilds() {
+            return builds;
+        }
+
+        /**
+         * The peak the recommendation is based on
+         *
+         * @return bytes
+         */
+        public long getPeakBytes() {
+            return peakBytes;
+        }
+
+        public String getPeak() {
+            return Utils.formatByteSize(peakBytes);
+        }
+
+        /**
+         * What the peak is of the builds: <code>p99</code>, or
+         * <code>max</code> while there are too few builds for the 99th
+         * percentile to differ from the highest peak
+         *
+         * @return
+         */
+        public String getPeakStatistic() {
+            return builds >= 100 ? "p99" : "max";
+        }
+
+        public long getRecommendedBytes() {
+            return recommendedBytes;
+        }
+
+        /**
+         * The recommendation in the format of the Memory option such as
+         * <code>4g</code> or <code>1536m</code>
+         *
+         * @return
+         */
+        public String getRecommendedValue() {
+            long mib = recommendedBytes / (1024 * 1024);
+            return mib % 1024 == 0 ? (mib / 1024) + "g" : mib + "m";
+        }
+
+        /**
+         * @return the formatted current limit or null if unlimited
+         */
+        @CheckForNull
+        public String getCurrentLimit() {
+            return currentLimitBytes > 0 ? Utils.formatByteSize(
+                    currentLimitBytes) : null;
+        }
+
+        /**
+         * Whether the job's limit is far above what it uses
+         *
+         * @return
+         */
+        public boolean isOverProvisioned() {
+            return currentLimitBytes > 0
+                    && currentLimitBytes >= recommendedBytes * OVER_PROVISIONED_FACTOR;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Recommended memory %s (%s peak %s of the last %d builds plus %d%%)",
+                    getRecommendedValue(), getPeakStatistic(), getPeak(),
+                    builds, HEADROOM_PERCENT);
+        }
+    }
+
+    /**
+     * Add the peak memory of a build's main container to the job's history,
+     * when its usage is collected. That may be after the build completed if
+     * its containers were removed in the background.
+     *
+     * @param run
+     * @param usage
+     * @param listener the build's listener, only written to while the build
+     *                 is running
+     */
+    public static void record(Run<?, ?> run,
+                              ContainerUsage usage,
+                              TaskListener listener) {
+        if (!usage.isMain() || usage.getSamples() == 0) {
+            return;
+        }
+        try {
+            List<Entry> entries = append(run.getParent(),
+                                         new Entry(run.getNumber(),
+                                                   usage.getPeakMemoryBytes(),
+                                                   usage.getMemoryLimitBytes()));
+            Recommendation recommendation = recommend(entries);
+            if (recommendation != null && recommendation.isOverProvisioned()) {
+                String message = String.format(
+                        "Memory limit %s is over-provisioned. %s",
+                        recommendation.getCurrentLimit(), recommendation);
+                if (run.isLogUpdated()) {
+                    listener.getLogger().println(message);
+                } else {
+                    LOGGER.log(Level.INFO, "{0}: {1}",
+                               new Object[]{run, message});
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING,
+                       "Failed to record memory history of " + run, e);
+        }
+    }
+}
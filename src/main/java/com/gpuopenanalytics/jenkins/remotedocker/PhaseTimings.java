@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall-clock time spent in each phase of setting up, using and tearing down
+ * the containers of a build. Only a total, count and maximum are kept per
+ * phase so recording is cheap and the build.xml stays small.
+ */
+public class PhaseTimings {
+
+    public enum Phase {
+        LOGIN("docker login"),
+        NETWORK("Network create"),
+        IMAGE("Image pull/build"),
+        RESOURCES("Resource allocation"),
+        RUN("docker run"),
+        POST_CREATE("Post create"),
+        EXEC("docker exec overhead"),
+        TEARDOWN("Teardown");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final long[] totalNanos = new long[Phase.values().length];
+    private final long[] maxNanos = new long[Phase.values().length];
+    private final int[] counts = new int[Phase.values().length];
+
+    /**
+     * Record one occurrence of the phase
+     *
+     * @param phase
+     * @param nanos
+     */
+    public synchronized void record(Phase phase, long nanos) {
+        int i = phase.ordinal();
+        totalNanos[i] += nanos;
+        maxNanos[i] = Math.max(maxNanos[i], nanos);
+        counts[i]++;
+    }
+
+    /**
+     * Get the phases that occurred, in order
+     *
+     * @return
+     */
+    public synchronized List<PhaseSummary> getPhases() {
+        List<PhaseSummary> phases = new ArrayList<>();
+        //Arrays may be shorter than the enum if loaded from an older build
+        for (Phase phase : Phase.values()) {
+            int i = phase.ordinal();
+            if (i < counts.length && counts[i] > 0) {
+                phases.add(new PhaseSummary(phase, counts[i], totalNanos[i],
+                                            maxNanos[i]));
+            }
+        }
+        return phases;
+    }
+
+    /**
+     * Exported summary of one phase
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static class PhaseSummary {
+
+        private final Phase phase;
+        private final int count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private PhaseSummary(Phase phase,
+                             int count,
+                             long totalNanos,
+                             long maxNanos) {
+            this.phase = phase;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        @Exported
+        public String getPhase() {
+            return phase.name();
+        }
+
+        public String getDisplayName() {
+            return phase.getDisplayName();
+        }
+
+        @Exported
+        public int getCount() {
+            return count;
+        }
+
+        @Exported
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+        }
+
+        @Exported
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+        }
+
+        /**
+         * Average with sub-millisecond precision, since exec overhead is
+         * usually only a few milliseconds
+         *
+         * @return
+         */
+        @Exported
+        public double getAverageMillis() {
+            return totalNanos / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public String getAverage() {
+            return String.format("%.1f", getAverageMillis());
+        }
+    }
+}
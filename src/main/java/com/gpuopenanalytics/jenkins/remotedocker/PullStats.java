@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * How much pulling images of a build was held back by retries and registry
+ * rate limits
+ */
+@ExportedBean(defaultVisibility = 3)
+public class PullStats {
+
+    private int attempts;
+    private int throttled;
+    private long backoffMillis;
+    private long rateLimitWaitMillis;
+
+    public synchronized void recordAttempt(long rateLimitWaitMillis) {
+        attempts++;
+        this.rateLimitWaitMillis += rateLimitWaitMillis;
+    }
+
+    public synchronized void recordThrottled() {
+        throttled++;
+    }
+
+    public synchronized void recordBackoff(long millis) {
+        backoffMillis += millis;
+    }
+
+    /**
+     * Number of times <code>docker pull</code> was run
+     *
+     * @return
+     */
+    @Exported
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Number of pulls the registry refused with a rate limit
+     *
+     * @return
+     */
+    @Exported
+    public synchronized int getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * Time slept between failed pulls
+     *
+     * @return
+     */
+    @Exported
+    public synchronized long getBackoffMillis() {
+        return backoffMillis;
+    }
+
+    /**
+     * Time waited for the node's per-registry rate limit before pulling
+     *
+     * @return
+     */
+    @Exported
+    public synchronized long getRateLimitWaitMillis() {
+        return rateLimitWaitMillis;
+    }
+}
@@ -30,17 +30,24 @@ import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ContainerEventWatcher;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ContainerReaper;
 import com.gpuopenanalytics.jenkins.remotedocker.job.AbstractDockerConfiguration;
 import com.gpuopenanalytics.jenkins.remotedocker.job.AbstractDockerConfigurationDescriptor;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerConfiguration;
 import com.gpuopenanalytics.jenkins.remotedocker.job.DockerImageConfiguration;
 import com.gpuopenanalytics.jenkins.remotedocker.job.SideDockerConfiguration;
+import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Descriptor;
+import hudson.model.Executor;
 import hudson.model.Item;
+import hudson.model.Result;
 import hudson.model.Run;
 import hudson.security.ACL;
 import hudson.tasks.BuildWrapper;
@@ -56,6 +63,7 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -78,6 +86,7 @@ public class RemoteDockerBuildWrapper extends BuildWrapper {
     private boolean debug;
     private String workspaceOverride;
     private Boolean removeContainers = true;
+    private boolean reapInBackground;
     private AbstractDockerConfiguration dockerConfiguration;
     private List<SideDockerConfiguration> sideDockerConfigurations;
 
@@ -119,6 +128,21 @@ public class RemoteDockerBuildWrapper extends BuildWrapper {
         return removeContainers != null ? removeContainers : true;
     }
 
+    /**
+     * Whether to remove the containers in the background after the build so
+     * the executor is freed right away
+     *
+     * @param reapInBackground
+     */
+    @DataBoundSetter
+    public void setReapInBackground(boolean reapInBackground) {
+        this.reapInBackground = reapInBackground;
+    }
+
+    public boolean isReapInBackground() {
+        return reapInBackground;
+    }
+
     public AbstractDockerConfiguration getDockerConfiguration() {
         return dockerConfiguration;
     }
@@ -167,14 +191,80 @@ public class RemoteDockerBuildWrapper extends BuildWrapper {
                                   this);
     }
 
+    /**
+     * Start pulling or building the images that do not depend on the
+     * workspace, so it overlaps with the checkout
+     */
+    @Override
+    public void preCheckout(AbstractBuild build,
+                            Launcher launcher,
+                            BuildListener listener) throws IOException, InterruptedException {
+        FilePath workspace = build.getWorkspace();
+        if (!(launcher instanceof AbstractDockerLauncher) || workspace == null) {
+            return;
+        }
+        if (credentialsId != null) {
+            //Pulls need the registry login which happens in setUp
+            return;
+        }
+        AbstractDockerLauncher dockerLauncher = (AbstractDockerLauncher) launcher;
+        String localWorkspace = Paths.get(workspace.getRemote())
+                .toAbsolutePath()
+                .toString();
+        ImagePrefetch prefetch = DockerAction.getOrCreate(build)
+                .getImagePrefetch();
+        String nodeName = Utils.getNodeName(dockerLauncher);
+        List<DockerConfiguration> configs = new ArrayList<>(
+                sideDockerConfigurations);
+        configs.add(dockerConfiguration);
+        for (DockerConfiguration config : configs) {
+            if (config.canPrefetchImage(dockerLauncher, localWorkspace)
+                    && prefetch.start(nodeName, config, localWorkspace,
+                                      () -> dockerLauncher)) {
+                listener.getLogger().println(
+                        "Setting up image in the background during checkout");
+            }
+        }
+    }
+
     @Override
     public Environment setUp(AbstractBuild build,
                              Launcher launcher,
                              BuildListener listener) throws IOException, InterruptedException {
-        build.addAction(new DockerAction());
-        DockerState state = DockerState.launchContainers(this,
-                                                         (AbstractDockerLauncher) launcher,
-                                                         build.getWorkspace());
+        DockerAction action = DockerAction.getOrCreate(build);
+        long start = System.currentTimeMillis();
+        DockerState state;
+        try {
+            state = DockerState.launchContainers(this,
+                                                 (AbstractDockerLauncher) launcher,
+                                                 build.getWorkspace());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            //Stop pulls or builds the failed launch did not wait for
+            action.getImagePrefetch().cancel();
+            throw e;
+        }
+        try {
+            //Fail the build as soon as one of its containers dies
+            ContainerEventWatcher.get().watch(state, start, death -> {
+                Executor executor = build.getExecutor();
+                if (executor != null) {
+                    executor.interrupt(Result.FAILURE, death);
+                }
+            });
+        } catch (IOException e) {
+            listener.error("Cannot watch the containers: " + e.getMessage());
+        } catch (InterruptedException e) {
+            //Aborted before the build got its environment, so no tear down
+            // would remove the containers
+            try {
+                state.removeResources((AbstractDockerLauncher) launcher);
+            } catch (IOException | InterruptedException | RuntimeException removeFailure) {
+                listener.error("Failed to remove the containers: " + removeFailure.getMessage());
+            } finally {
+                state.releaseResources();
+            }
+            throw e;
+        }
         return new DockerEnvironment((DockerLauncher) launcher, state);
     }
 
@@ -195,7 +285,26 @@ public class RemoteDockerBuildWrapper extends BuildWrapper {
         @Override
         public boolean tearDown(AbstractBuild build,
                                 BuildListener listener) throws IOException, InterruptedException {
-            dockerState.tearDown(launcher);
+            ContainerEventWatcher.get().unwatch(dockerState);
+            if (reapInBackground) {
+                //Attach the resource usage while the build is still running
+                dockerState.collectUsage(launcher);
+                String nodeName = dockerState.getLeaseOwner() != null
+                        ? dockerState.getLeaseOwner().getNodeName()
+                        : Utils.getNodeName(launcher);
+                //The build's log is closed by the time the containers are
+                // removed
+                EnvVars environment = launcher.getEnvironment();
+                ContainerReaper.get().submit(nodeName, dockerState, () -> {
+                    SimpleDockerLauncher reaperLauncher = new SimpleDockerLauncher(
+                            ContainerReaper.logToController(nodeName), isDebug(),
+                            environment, RemoteDockerBuildWrapper.this, build);
+                    reaperLauncher.configure(dockerState);
+                    return reaperLauncher;
+                });
+            } else {
+                dockerState.tearDown(launcher);
+            }
             return true;
         }
     }
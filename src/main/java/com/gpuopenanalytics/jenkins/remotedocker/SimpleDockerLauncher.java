@@ -27,6 +27,7 @@ package com.gpuopenanalytics.jenkins.remotedocker;
 import hudson.EnvVars;
 import hudson.Launcher;
 import hudson.Proc;
+import hudson.model.Run;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
@@ -39,15 +40,18 @@ public class SimpleDockerLauncher extends AbstractDockerLauncher {
     private boolean debug;
     private EnvVars environment;
     private RemoteDockerBuildWrapper buildWrapper;
+    private Run<?, ?> run;
 
     public SimpleDockerLauncher(@Nonnull Launcher launcher,
                                 boolean debug,
                                 EnvVars environment,
-                                RemoteDockerBuildWrapper buildWrapper) {
+                                RemoteDockerBuildWrapper buildWrapper,
+                                Run<?, ?> run) {
         super(launcher);
         this.debug = debug;
         this.environment = environment;
         this.buildWrapper=buildWrapper;
+        this.run = run;
     }
 
     @Override
@@ -67,4 +71,9 @@ public class SimpleDockerLauncher extends AbstractDockerLauncher {
     public boolean isDebug() {
         return debug;
     }
+
+    @Override
+    public Run<?, ?> getRun() {
+        return run;
+    }
 }
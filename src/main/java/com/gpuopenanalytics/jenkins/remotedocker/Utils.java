@@ -24,8 +24,16 @@
 
 package com.gpuopenanalytics.jenkins.remotedocker;
 
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.Locale;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -34,6 +42,11 @@ public class Utils {
 
     private static final Pattern VAR_REGEX = Pattern.compile(
             "\\$(\\w+)|\\$\\{([^}]+)}");
+    private static final Pattern BYTE_SIZE_REGEX = Pattern.compile(
+            "(\\d+)([bkmgt])?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HUMAN_SIZE_REGEX = Pattern.compile(
+            "([\\d.]+)\\s*([kmgtp]?)(i?)b", Pattern.CASE_INSENSITIVE);
+    private static final String UNITS = "bkmgtp";
 
     private Utils() {
 
@@ -81,4 +94,129 @@ public class Utils {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Name of the node the launcher runs on, based on <code>NODE_NAME</code>
+     *
+     * @param launcher
+     * @return
+     */
+    public static String getNodeName(AbstractDockerLauncher launcher) {
+        return getNodeName(launcher.getEnvironment());
+    }
+
+    /**
+     * Name of the node from the <code>NODE_NAME</code> of the environment
+     *
+     * @param environment
+     * @return
+     */
+    public static String getNodeName(EnvVars environment) {
+        String nodeName = environment.get("NODE_NAME");
+        return nodeName != null ? nodeName : "master";
+    }
+
+    /**
+     * Name of the node, matching {@link #getNodeName(AbstractDockerLauncher)}
+     *
+     * @param computer
+     * @return
+     */
+    public static String getNodeName(Computer computer) {
+        return computer instanceof Jenkins.MasterComputer ? "master" : computer
+                .getName();
+    }
+
+    /**
+     * Name of the node, matching {@link #getNodeName(AbstractDockerLauncher)}
+     *
+     * @param node
+     * @return
+     */
+    public static String getNodeName(Node node) {
+        return node instanceof Jenkins ? "master" : node.getNodeName();
+    }
+
+    /**
+     * Root directory of the node the launcher runs on, for storing files the
+     * plugin generates on the node
+     *
+     * @param launcher
+     * @return the root path or null if the node is offline or unknown
+     */
+    @CheckForNull
+    public static FilePath getNodeRootPath(AbstractDockerLauncher launcher) {
+        Node node = getNode(launcher);
+        return node != null ? node.getRootPath() : null;
+    }
+
+    /**
+     * Gets the node the launcher runs on
+     *
+     * @param launcher
+     * @return the node or null if it no longer exists
+     */
+    @CheckForNull
+    public static Node getNode(AbstractDockerLauncher launcher) {
+        String nodeName = getNodeName(launcher);
+        Jenkins jenkins = Jenkins.get();
+        return "master".equals(nodeName) ? jenkins : jenkins.getNode(nodeName);
+    }
+
+    /**
+     * Parses a size in the format docker accepts for <code>-m</code> such as
+     * <code>512m</code> or <code>4g</code>. Units are binary and the unit is
+     * optional.
+     *
+     * @param s
+     * @return the number of bytes
+     * @throws IllegalArgumentException if the string is not a valid size
+     */
+    public static long parseByteSize(String s) {
+        Matcher m = BYTE_SIZE_REGEX.matcher(s.trim());
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Invalid size: " + s);
+        }
+        long value = Long.parseLong(m.group(1));
+        String unit = m.group(2) == null ? "b" : m.group(2)
+                .toLowerCase(Locale.ENGLISH);
+        return value << (10 * UNITS.indexOf(unit));
+    }
+
+    /**
+     * Parses a size printed by docker such as <code>1.5GB</code>,
+     * <code>12kB</code> or <code>3MiB</code>. Returns -1 if the size cannot be
+     * parsed.
+     *
+     * @param s
+     * @return the number of bytes or -1
+     */
+    public static long parseHumanSize(String s) {
+        Matcher m = HUMAN_SIZE_REGEX.matcher(s.trim());
+        if (!m.matches()) {
+            return -1;
+        }
+        double value = Double.parseDouble(m.group(1));
+        int exponent = UNITS.indexOf(
+                m.group(2).isEmpty() ? "b" : m.group(2)
+                        .toLowerCase(Locale.ENGLISH));
+        double base = m.group(3).isEmpty() ? 1000 : 1024;
+        return (long) (value * Math.pow(base, exponent));
+    }
+
+    /**
+     * Formats a number of bytes for display, such as <code>1.5 GiB</code>
+     *
+     * @param bytes
+     * @return
+     */
+    public static String formatByteSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        int exponent = (int) (Math.log(bytes) / Math.log(1024));
+        return String.format("%.1f %siB", bytes / Math.pow(1024, exponent),
+                             UNITS.substring(exponent, exponent + 1)
+                                     .toUpperCase(Locale.ENGLISH));
+    }
 }
@@ -0,0 +1,460 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Hands out named cache volumes on each node. A logical cache is backed by one
+ * or more slot volumes (<code>base</code>, <code>base.1</code>, ...). Each
+ * slot is used by at most one launch at a time so concurrent builds never
+ * write to the same cache. When every slot is busy a new one is created,
+ * seeded from the parent's cache if possible. Idle volumes are evicted least
+ * recently used first to stay under the budget of the node's {@link
+ * CacheBudgetNodeProperty}.
+ */
+@Extension
+public class CacheVolumeManager extends NodeResourceManager {
+
+    public static final String VOLUME_PREFIX = "rdp-cache-";
+    public static final String CACHE_LABEL = "com.gpuopenanalytics.remotedocker.cache";
+
+    private static final String SEED_IMAGE = SystemProperties.getString(
+            CacheVolumeManager.class.getName() + ".seedImage", "busybox");
+
+    private final Map<String, NodeCaches> nodes = new HashMap<>();
+    private final Map<LeaseOwner, Map<String, CacheVolumeUsage>> usages = new HashMap<>();
+
+    public static CacheVolumeManager get() {
+        return ExtensionList.lookupSingleton(CacheVolumeManager.class);
+    }
+
+    /**
+     * Maximum bytes of cache volumes on the node
+     *
+     * @param node
+     * @return the budget or 0 if unlimited
+     */
+    public static long getBudget(@CheckForNull Node node) {
+        if (node == null) {
+            return 0;
+        }
+        CacheBudgetNodeProperty property = node.getNodeProperties()
+                .get(CacheBudgetNodeProperty.class);
+        return property != null ? property.getCacheBudgetBytes() : 0;
+    }
+
+    /**
+     * Lease a volume for the cache to the launcher's {@link LeaseOwner},
+     * creating it if needed. The usage is kept until {@link
+     * #takeUsages(LeaseOwner)}.
+     *
+     * @param launcher
+     * @param cacheName    logical name of the cache
+     * @param baseVolume   name of the volume for the cache's scope
+     * @param parentVolume name of the volume to seed from if the cache does
+     *                     not exist yet
+     * @param budget       maximum bytes of cache volumes on the node, or 0 for
+     *                     no limit
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public CacheVolumeUsage acquire(AbstractDockerLauncher launcher,
+                                    String cacheName,
+                                    String baseVolume,
+                                    @CheckForNull String parentVolume,
+                                    long budget) throws IOException, InterruptedException {
+        LeaseOwner owner = launcher.getLeaseOwner();
+        NodeCaches caches = getNodeCaches(owner.getNodeName());
+        //Docker is only called outside of the lock so a slow daemon does not
+        // hold up other builds. Volumes being created, seeded or evicted are
+        // leased meanwhile so no other build picks them.
+        Map<String, VolumeInfo> existing = listVolumes(launcher);
+        String volume = null;
+        String seed = null;
+        boolean create;
+        CacheVolumeUsage.Status status;
+        long size;
+        List<String> toEvict = new ArrayList<>();
+        synchronized (caches) {
+            Predicate<String> isIdle = name -> !caches.leases.containsKey(name)
+                    && (!existing.containsKey(name) || existing.get(
+                    name).links == 0);
+
+            //Prefer an existing idle slot
+            for (String name : getSlots(existing, baseVolume)) {
+                if (isIdle.test(name)) {
+                    volume = name;
+                    break;
+                }
+            }
+            create = volume == null;
+            if (!create) {
+                status = CacheVolumeUsage.Status.HIT;
+                size = existing.get(volume).size;
+            } else {
+                for (int slot = 0; volume == null; slot++) {
+                    String name = slot == 0 ? baseVolume : baseVolume + "." + slot;
+                    if (!existing.containsKey(name) && isIdle.test(name)) {
+                        volume = name;
+                    }
+                }
+                //Every existing slot is busy, so only the parent can seed
+                if (parentVolume != null) {
+                    seed = getSlots(existing, parentVolume).stream()
+                            .filter(isIdle)
+                            .max(Comparator.comparingLong(caches::getLastUsed))
+                            .orElse(null);
+                }
+                status = seed != null ? CacheVolumeUsage.Status.SEEDED : CacheVolumeUsage.Status.MISS;
+                size = seed != null ? existing.get(seed).size : 0;
+            }
+            caches.leases.put(volume, owner);
+            if (seed != null) {
+                caches.leases.put(seed, owner);
+            }
+            if (budget > 0) {
+                toEvict = chooseEvictions(caches, existing, isIdle, budget);
+                toEvict.forEach(name -> caches.leases.put(name, owner));
+            }
+        }
+
+        int evicted;
+        try {
+            if (create) {
+                createVolume(launcher, cacheName, volume);
+            }
+            evicted = evict(launcher, caches, existing, toEvict, budget);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            synchronized (caches) {
+                caches.leases.remove(volume);
+                if (seed != null) {
+                    caches.leases.remove(seed);
+                }
+                toEvict.forEach(caches.leases::remove);
+            }
+            throw e;
+        }
+
+        if (seed != null) {
+            try {
+                seedVolume(launcher, seed, volume);
+            } finally {
+                synchronized (caches) {
+                    caches.leases.remove(seed);
+                }
+            }
+        }
+        CacheVolumeUsage usage = new CacheVolumeUsage(cacheName, volume,
+                                                      status, size, evicted);
+        synchronized (usages) {
+            //A retried attempt finds the volume the first one created
+            usages.computeIfAbsent(owner, o -> new LinkedHashMap<>())
+                    .merge(cacheName, usage, (first, retry) -> new CacheVolumeUsage(
+                            cacheName, retry.getVolume(), first.getStatus(),
+                            first.getSizeBytes(),
+                            first.getEvicted() + retry.getEvicted()));
+        }
+        return usage;
+    }
+
+    /**
+     * Take the usages of the caches leased to the owner. Call this once
+     * {@link NodeResourceManager#acquireAll} is done so a launch that waited
+     * for resources reports each cache once, as its first attempt found it.
+     *
+     * @param owner
+     * @return
+     */
+    public List<CacheVolumeUsage> takeUsages(LeaseOwner owner) {
+        Map<String, CacheVolumeUsage> taken;
+        synchronized (usages) {
+            taken = usages.remove(owner);
+        }
+        return taken == null ? Collections.emptyList() : new ArrayList<>(
+                taken.values());
+    }
+
+    @Override
+    public void release(LeaseOwner owner) {
+        release(o -> o.equals(owner));
+    }
+
+    @Override
+    public void releaseRun(String runId) {
+        release(o -> runId.equals(o.getRunId()));
+        synchronized (usages) {
+            usages.keySet().removeIf(o -> runId.equals(o.getRunId()));
+        }
+    }
+
+    private void release(Predicate<LeaseOwner> predicate) {
+        List<NodeCaches> all;
+        synchronized (nodes) {
+            all = new ArrayList<>(nodes.values());
+        }
+        for (NodeCaches caches : all) {
+            synchronized (caches) {
+                Iterator<Map.Entry<String, LeaseOwner>> it = caches.leases.entrySet()
+                        .iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, LeaseOwner> entry = it.next();
+                    if (predicate.test(entry.getValue())) {
+                        caches.lastUsed.put(entry.getKey(), ++caches.releases);
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    private NodeCaches getNodeCaches(String nodeName) {
+        synchronized (nodes) {
+            return nodes.computeIfAbsent(nodeName, n -> new NodeCaches());
+        }
+    }
+
+    /**
+     * Choose idle volumes, least recently used first, to remove until the
+     * total size is under the budget
+     */
+    private static List<String> chooseEvictions(NodeCaches caches,
+                                                Map<String, VolumeInfo> existing,
+                                                Predicate<String> isIdle,
+                                                long budget) {
+        long total = getTotalSize(existing);
+        List<String> candidates = existing.keySet().stream()
+                .filter(isIdle)
+                .sorted(Comparator.comparingLong(caches::getLastUsed))
+                .collect(Collectors.toList());
+        List<String> chosen = new ArrayList<>();
+        for (String name : candidates) {
+            if (total <= budget) {
+                break;
+            }
+            chosen.add(name);
+            total -= Math.max(existing.get(name).size, 0);
+        }
+        return chosen;
+    }
+
+    /**
+     * Remove the volumes chosen for eviction and end their leases
+     *
+     * @return the number of volumes removed
+     */
+    private int evict(AbstractDockerLauncher launcher,
+                      NodeCaches caches,
+                      Map<String, VolumeInfo> existing,
+                      List<String> toEvict,
+                      long budget) throws IOException, InterruptedException {
+        long total = getTotalSize(existing);
+        int evicted = 0;
+        for (String name : toEvict) {
+            ArgumentListBuilder args = new ArgumentListBuilder("docker",
+                                                               "volume", "rm",
+                                                               name);
+            boolean removed = execute(launcher, args, null) == 0;
+            synchronized (caches) {
+                caches.leases.remove(name);
+                if (removed) {
+                    caches.lastUsed.remove(name);
+                }
+            }
+            if (removed) {
+                total -= Math.max(existing.get(name).size, 0);
+                evicted++;
+            } else {
+                launcher.getListener().error("Failed to evict cache volume %s",
+                                             name);
+            }
+        }
+        if (budget > 0 && total > budget) {
+            launcher.getListener().getLogger().println(
+                    "WARN Cache volumes use " + Utils.formatByteSize(
+                            total) + " which is over the budget of " + Utils.formatByteSize(
+                            budget) + ", but the rest are in use");
+        }
+        return evicted;
+    }
+
+    private static long getTotalSize(Map<String, VolumeInfo> existing) {
+        return existing.values().stream()
+                .mapToLong(info -> Math.max(info.size, 0))
+                .sum();
+    }
+
+    private void createVolume(AbstractDockerLauncher launcher,
+                              String cacheName,
+                              String volume) throws IOException, InterruptedException {
+        ArgumentListBuilder args = new ArgumentListBuilder("docker", "volume",
+                                                           "create");
+        args.add("--label");
+        args.addKeyValuePair("", CACHE_LABEL, cacheName, false);
+        args.add(volume);
+        if (execute(launcher, args, null) != 0) {
+            throw new IOException("Could not create cache volume " + volume);
+        }
+    }
+
+    private void seedVolume(AbstractDockerLauncher launcher,
+                            String from,
+                            String to) throws IOException, InterruptedException {
+        launcher.getListener().getLogger().println(
+                "Seeding cache volume " + to + " from " + from);
+        ArgumentListBuilder args = new ArgumentListBuilder("docker", "run",
+                                                           "--rm");
+        args.add("-v", from + ":/from:ro");
+        args.add("-v", to + ":/to");
+        args.add(SEED_IMAGE, "cp", "-a", "/from/.", "/to/");
+        if (execute(launcher, args, null) != 0) {
+            //An empty cache is still usable
+            launcher.getListener().error("Failed to seed cache volume %s", to);
+        }
+    }
+
+    private Map<String, VolumeInfo> listVolumes(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+        ArgumentListBuilder args = new ArgumentListBuilder("docker", "system",
+                                                           "df", "-v");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (execute(launcher, args, baos) != 0) {
+            throw new IOException("Could not list docker volumes");
+        }
+        return parseSystemDf(baos.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    private int execute(AbstractDockerLauncher launcher,
+                        ArgumentListBuilder args,
+                        @CheckForNull ByteArrayOutputStream out) throws IOException, InterruptedException {
+        TaskListener listener = launcher.getListener();
+        return launcher.executeCommand(args)
+                .stdout(out != null ? out : listener.getLogger())
+                .stderr(listener.getLogger())
+                .join();
+    }
+
+    private static List<String> getSlots(Map<String, VolumeInfo> existing,
+                                         String baseVolume) {
+        return existing.keySet().stream()
+                .filter(name -> name.equals(baseVolume)
+                        || name.matches(Pattern.quote(baseVolume) + "\\.\\d+"))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Parse the volumes section of <code>docker system df -v</code>, keeping
+     * only cache volumes
+     *
+     * @param output
+     * @return
+     */
+    static Map<String, VolumeInfo> parseSystemDf(String output) {
+        Map<String, VolumeInfo> volumes = new HashMap<>();
+        boolean inVolumes = false;
+        for (String line : output.split("\\r?\\n")) {
+            if (line.startsWith("VOLUME NAME")) {
+                inVolumes = true;
+            } else if (inVolumes) {
+                if (line.trim().isEmpty()) {
+                    break;
+                }
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length >= 3 && parts[0].startsWith(VOLUME_PREFIX)) {
+                    int links;
+                    try {
+                        links = Integer.parseInt(parts[1]);
+                    } catch (NumberFormatException e) {
+                        links = 0;
+                    }
+                    volumes.put(parts[0], new VolumeInfo(links,
+                                                         Utils.parseHumanSize(
+                                                                 parts[2])));
+                }
+            }
+        }
+        return volumes;
+    }
+
+    static class VolumeInfo {
+
+        private final int links;
+        private final long size;
+
+        VolumeInfo(int links, long size) {
+            this.links = links;
+            this.size = size;
+        }
+
+        int getLinks() {
+            return links;
+        }
+
+        /**
+         * @return the size in bytes or -1 if unknown
+         */
+        long getSize() {
+            return size;
+        }
+    }
+
+    private static class NodeCaches {
+
+        private final Map<String, LeaseOwner> leases = new HashMap<>();
+        /**
+         * When each volume was last released, counted in releases on the node
+         */
+        private final Map<String, Long> lastUsed = new HashMap<>();
+        private long releases;
+
+        private long getLastUsed(String volume) {
+            return lastUsed.getOrDefault(volume, 0L);
+        }
+    }
+}
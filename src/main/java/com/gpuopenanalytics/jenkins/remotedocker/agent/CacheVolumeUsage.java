@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+
+import java.io.Serializable;
+
+/**
+ * Records how a cache volume was used by a build
+ */
+public class CacheVolumeUsage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        /**
+         * The volume already existed
+         */
+        HIT,
+        /**
+         * The volume was created empty
+         */
+        MISS,
+        /**
+         * The volume was created and seeded from another volume
+         */
+        SEEDED
+    }
+
+    private final String cacheName;
+    private final String volume;
+    private final Status status;
+    private final long sizeBytes;
+    private final int evicted;
+
+    public CacheVolumeUsage(String cacheName,
+                            String volume,
+                            Status status,
+                            long sizeBytes,
+                            int evicted) {
+        this.cacheName = cacheName;
+        this.volume = volume;
+        this.status = status;
+        this.sizeBytes = sizeBytes;
+        this.evicted = evicted;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public String getVolume() {
+        return volume;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Size of the volume when it was mounted, or -1 if unknown
+     *
+     * @return
+     */
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public String getSize() {
+        return sizeBytes < 0 ? "unknown" : Utils.formatByteSize(sizeBytes);
+    }
+
+    /**
+     * Number of volumes evicted to stay under the agent's budget
+     *
+     * @return
+     */
+    public int getEvicted() {
+        return evicted;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import hudson.model.TaskListener;
+import jenkins.model.CauseOfInterruption;
+
+/**
+ * A container of a build that exited or was killed while the build was still
+ * using it
+ */
+public class ContainerDeath extends CauseOfInterruption {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String containerId;
+    private final boolean main;
+    private final int exitCode;
+    private final boolean oomKilled;
+    /**
+     * Only printed to the build log, not kept with the build
+     */
+    private final transient String logTail;
+
+    /**
+     * @param containerId
+     * @param main
+     * @param exitCode    the exit code or -1 if unknown
+     * @param oomKilled
+     * @param logTail     the last lines of the container's log
+     */
+    public ContainerDeath(String containerId,
+                          boolean main,
+                          int exitCode,
+                          boolean oomKilled,
+                          String logTail) {
+        this.containerId = containerId.substring(0,
+                                                 Math.min(12, containerId.length()));
+        this.main = main;
+        this.exitCode = exitCode;
+        this.oomKilled = oomKilled;
+        this.logTail = logTail;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public boolean isMain() {
+        return main;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isOomKilled() {
+        return oomKilled;
+    }
+
+    @Override
+    public String getShortDescription() {
+        return String.format("%s container %s died%s%s",
+                             main ? "Main" : "Side", containerId,
+                             exitCode >= 0 ? " with exit code " + exitCode : "",
+                             oomKilled ? " (OOM killed)" : "");
+    }
+
+    @Override
+    public void print(TaskListener listener) {
+        super.print(listener);
+        if (logTail != null && !logTail.isEmpty()) {
+            listener.getLogger().println("Last lines of its log:");
+            listener.getLogger().println(logTail);
+        }
+    }
+}
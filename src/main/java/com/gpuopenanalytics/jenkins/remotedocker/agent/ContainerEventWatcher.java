@@ -0,0 +1,374 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.DockerState;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Notices when a container of a running build dies, for example a crashed
+ * database side container or an OOM kill, so the build can fail right away
+ * instead of running into its timeout. Each node has a single
+ * <code>docker events</code> subscription, filtered to the containers of this
+ * controller, serving every build on the node. It runs while any build on the
+ * node is watched.
+ */
+@Extension
+public class ContainerEventWatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(
+            ContainerEventWatcher.class.getName());
+
+    private static final boolean ENABLED = SystemProperties.getBoolean(
+            ContainerEventWatcher.class.getName() + ".enabled", true);
+
+    /**
+     * Number of log lines of a dead container to print
+     */
+    private static final int LOG_LINES = SystemProperties.getInteger(
+            ContainerEventWatcher.class.getName() + ".logLines", 50);
+
+    /**
+     * Deaths of containers not watched yet are kept this long, in case their
+     * build registers them just after
+     */
+    private static final long RECENT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String FORMAT = "{{.Status}}\t{{.ID}}\t{{index .Actor.Attributes \"exitCode\"}}";
+
+    private final Map<String, NodeEvents> nodes = new HashMap<>();
+
+    public static ContainerEventWatcher get() {
+        return ExtensionList.lookupSingleton(ContainerEventWatcher.class);
+    }
+
+    /**
+     * Watch the containers of a build. The handler is called at most once,
+     * for the first of the containers that dies, on a remoting thread. Does
+     * nothing if disabled with the <code>enabled</code> system property.
+     *
+     * @param state
+     * @param sinceMillis when the containers were started, to catch those
+     *                    that died before they were watched
+     * @param handler
+     * @throws IOException if the node is offline or docker events cannot be
+     *                     started
+     * @throws InterruptedException
+     */
+    public void watch(DockerState state,
+                      long sinceMillis,
+                      Consumer<ContainerDeath> handler) throws IOException, InterruptedException {
+        if (!ENABLED) {
+            return;
+        }
+        String nodeName = getNodeName(state);
+        NodeEvents events;
+        synchronized (nodes) {
+            events = nodes.computeIfAbsent(nodeName, NodeEvents::new);
+        }
+        synchronized (events) {
+            Watch watch = new Watch(state, handler);
+            for (String id : state.getContainerIds()) {
+                Exit exit = events.takeRecent(id);
+                if (exit != null) {
+                    events.report(watch, id, exit);
+                    return;
+                }
+            }
+            events.watches.put(state.getMainContainerId(), watch);
+        }
+        events.subscribe(sinceMillis);
+    }
+
+    /**
+     * Stop watching the containers of a build, before they are removed
+     *
+     * @param state
+     */
+    public void unwatch(DockerState state) {
+        NodeEvents events;
+        synchronized (nodes) {
+            events = nodes.get(getNodeName(state));
+        }
+        if (events != null) {
+            synchronized (events) {
+                events.watches.remove(state.getMainContainerId());
+            }
+            events.unsubscribeIfIdle();
+        }
+    }
+
+    private static String getNodeName(DockerState state) {
+        return state.getLeaseOwner() != null
+                ? state.getLeaseOwner().getNodeName() : "master";
+    }
+
+    /**
+     * Parse a line of <code>docker events</code> in {@link #FORMAT}
+     *
+     * @param line
+     * @return the status, container ID and exit code or -1, or null if the
+     * line cannot be parsed
+     */
+    static String[] parseEvent(String line) {
+        String[] parts = line.trim().split("\t", -1);
+        if (parts.length < 2 || parts[1].isEmpty()) {
+            return null;
+        }
+        String exitCode = parts.length > 2 ? parts[2].trim() : "";
+        return new String[]{parts[0], parts[1],
+                exitCode.matches("\\d+") ? exitCode : "-1"};
+    }
+
+    /**
+     * The containers of one build
+     */
+    private static class Watch {
+
+        private final List<String> containerIds;
+        private final String mainContainerId;
+        private final Consumer<ContainerDeath> handler;
+
+        private Watch(DockerState state, Consumer<ContainerDeath> handler) {
+            this.containerIds = state.getContainerIds();
+            this.mainContainerId = state.getMainContainerId();
+            this.handler = handler;
+        }
+
+        private boolean contains(String id) {
+            return containerIds.stream().anyMatch(
+                    c -> c.startsWith(id) || id.startsWith(c));
+        }
+    }
+
+    private static class Exit {
+
+        private final int exitCode;
+        private final boolean oomKilled;
+        private final long time = System.currentTimeMillis();
+
+        private Exit(int exitCode, boolean oomKilled) {
+            this.exitCode = exitCode;
+            this.oomKilled = oomKilled;
+        }
+    }
+
+    /**
+     * The subscription of a node and the builds watching it. Starting and
+     * stopping the subscription call the agent, so they hold their own lock
+     * rather than blocking the events being read.
+     */
+    private static class NodeEvents {
+
+        private final String nodeName;
+        private final Map<String, Watch> watches = new HashMap<>();
+        private final Map<String, Long> oomKilled = new HashMap<>();
+        private final Map<String, Exit> recent = new HashMap<>();
+        private final Object subscriptionLock = new Object();
+        private Proc proc;
+
+        private NodeEvents(String nodeName) {
+            this.nodeName = nodeName;
+        }
+
+        private void subscribe(long sinceMillis) throws IOException, InterruptedException {
+            synchronized (subscriptionLock) {
+                if (proc != null && proc.isAlive()) {
+                    return;
+                }
+                ArgumentListBuilder args = new ArgumentListBuilder(
+                        AbstractDockerLauncher.getDockerExecutable(), "events",
+                        "--filter", "type=container",
+                        "--filter", "event=die",
+                        "--filter", "event=oom",
+                        "--filter", "label=" + DockerState.CONTROLLER_LABEL + "="
+                                + Jenkins.get().getLegacyInstanceId(),
+                        "--since", Long.toString(sinceMillis / 1000),
+                        "--format", FORMAT);
+                proc = getLauncher().launch()
+                        .cmds(args)
+                        .stdout(new Lines(this::onEvent))
+                        .stderr(new Lines(line -> LOGGER.log(
+                                Level.WARNING, "docker events on {0}: {1}",
+                                new Object[]{nodeName, line})))
+                        .quiet(true)
+                        .start();
+            }
+        }
+
+        private void unsubscribeIfIdle() {
+            synchronized (subscriptionLock) {
+                synchronized (this) {
+                    if (!watches.isEmpty()) {
+                        return;
+                    }
+                }
+                if (proc != null) {
+                    try {
+                        proc.kill();
+                    } catch (IOException | InterruptedException e) {
+                        LOGGER.log(Level.FINE,
+                                   "Failed to stop docker events on " + nodeName,
+                                   e);
+                    }
+                    proc = null;
+                }
+            }
+        }
+
+        private Launcher getLauncher() throws IOException {
+            Jenkins jenkins = Jenkins.get();
+            Node node = "master".equals(nodeName) ? jenkins : jenkins.getNode(
+                    nodeName);
+            Computer computer = node != null ? node.toComputer() : null;
+            if (computer == null || computer.getChannel() == null) {
+                throw new IOException(nodeName + " is offline");
+            }
+            return node.createLauncher(TaskListener.NULL);
+        }
+
+        private synchronized void onEvent(String line) {
+            String[] event = parseEvent(line);
+            if (event == null) {
+                return;
+            }
+            String id = event[1];
+            long now = System.currentTimeMillis();
+            if ("oom".equals(event[0])) {
+                oomKilled.put(id, now);
+                return;
+            }
+            if (!"die".equals(event[0])) {
+                return;
+            }
+            Exit exit = new Exit(Integer.parseInt(event[2]),
+                                 oomKilled.remove(id) != null);
+            Iterator<Watch> it = watches.values().iterator();
+            while (it.hasNext()) {
+                Watch watch = it.next();
+                if (watch.contains(id)) {
+                    it.remove();
+                    report(watch, id, exit);
+                    return;
+                }
+            }
+            recent.values().removeIf(e -> now - e.time > RECENT_MILLIS);
+            oomKilled.values().removeIf(t -> now - t > RECENT_MILLIS);
+            recent.put(id, exit);
+        }
+
+        private Exit takeRecent(String containerId) {
+            Iterator<Map.Entry<String, Exit>> it = recent.entrySet()
+                    .iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Exit> entry = it.next();
+                if (entry.getKey().startsWith(containerId)
+                        || containerId.startsWith(entry.getKey())) {
+                    it.remove();
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Read the container's last log lines and call the handler, off the
+         * thread reading the events
+         */
+        private void report(Watch watch, String containerId, Exit exit) {
+            Computer.threadPoolForRemoting.submit(() -> {
+                String logTail = null;
+                try {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    getLauncher().launch()
+                            .cmds(AbstractDockerLauncher.getDockerExecutable(),
+                                  "logs", "--tail",
+                                  Integer.toString(LOG_LINES), containerId)
+                            .stdout(baos)
+                            .stderr(baos)
+                            .quiet(true)
+                            .join();
+                    logTail = baos.toString(StandardCharsets.UTF_8.name())
+                            .trim();
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.log(Level.FINE,
+                               "Failed to read the log of " + containerId, e);
+                }
+                try {
+                    watch.handler.accept(new ContainerDeath(
+                            containerId,
+                            watch.mainContainerId.startsWith(containerId)
+                                    || containerId.startsWith(
+                                    watch.mainContainerId),
+                            exit.exitCode, exit.oomKilled, logTail));
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING,
+                               "Failed to handle the death of " + containerId,
+                               e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Passes each line written to it to a consumer
+     */
+    private static class Lines extends LineTransformationOutputStream {
+
+        private final Consumer<String> consumer;
+
+        private Lines(Consumer<String> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) {
+            consumer.accept(new String(b, 0, len, StandardCharsets.UTF_8));
+        }
+    }
+}
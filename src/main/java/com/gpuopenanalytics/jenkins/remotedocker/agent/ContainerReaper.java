@@ -0,0 +1,308 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.DockerState;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.LogTaskListener;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tears down containers in the background so the build can move on. A
+ * teardown that fails is logged and retried a few times instead of failing
+ * the build. Node resources are released once the containers are gone or the
+ * retries are exhausted, even if the build completed meanwhile.
+ */
+@Extension
+public class ContainerReaper {
+
+    private static final Logger LOGGER = Logger.getLogger(
+            ContainerReaper.class.getName());
+
+    private static final int MAX_ATTEMPTS = SystemProperties.getInteger(
+            ContainerReaper.class.getName() + ".maxAttempts", 3);
+    private static final int RETRY_DELAY_SECONDS = SystemProperties.getInteger(
+            ContainerReaper.class.getName() + ".retryDelaySeconds", 30);
+    private static final int THREADS = SystemProperties.getInteger(
+            ContainerReaper.class.getName() + ".threads", 4);
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(
+            THREADS, new NamingThreadFactory(new DaemonThreadFactory(),
+                                             "ContainerReaper"));
+    private final Map<String, NodeStats> nodes = new HashMap<>();
+    /**
+     * Number of queued teardowns of each build, by
+     * {@link hudson.model.Run#getExternalizableId()}
+     */
+    private final Map<String, Integer> pendingByRun = new HashMap<>();
+    /**
+     * Builds that completed while their teardowns were queued
+     */
+    private final Set<String> completedRuns = new HashSet<>();
+
+    public static ContainerReaper get() {
+        return ExtensionList.lookupSingleton(ContainerReaper.class);
+    }
+
+    /**
+     * Creates the launcher to tear down with, on the reaper's thread since
+     * that already runs a docker command
+     */
+    @FunctionalInterface
+    public interface LauncherFactory {
+
+        AbstractDockerLauncher create() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Queue the containers of the state to be torn down. Their resource usage
+     * must have been collected already, while the build can still record it.
+     *
+     * @param nodeName        node the containers run on
+     * @param dockerState
+     * @param launcherFactory
+     */
+    public void submit(String nodeName,
+                       DockerState dockerState,
+                       LauncherFactory launcherFactory) {
+        getStats(nodeName).queued();
+        String runId = getRunId(dockerState);
+        if (runId != null) {
+            synchronized (pendingByRun) {
+                pendingByRun.merge(runId, 1, Integer::sum);
+            }
+        }
+        executor.execute(new Task(nodeName, dockerState, launcherFactory));
+    }
+
+    /**
+     * Get a launcher on the node's current channel that reports to the
+     * controller's log rather than to the build's, for teardowns that outlive
+     * the build. Call it on every attempt, the agent may have reconnected.
+     *
+     * @param nodeName
+     * @return
+     * @throws IOException if the node is offline
+     */
+    public static Launcher logToController(String nodeName) throws IOException {
+        Jenkins jenkins = Jenkins.get();
+        Node node = "master".equals(nodeName) ? jenkins : jenkins.getNode(
+                nodeName);
+        Computer computer = node != null ? node.toComputer() : null;
+        if (computer == null || computer.getChannel() == null) {
+            throw new IOException(nodeName + " is offline");
+        }
+        return node.createLauncher(new LogTaskListener(LOGGER, Level.WARNING));
+    }
+
+    /**
+     * Called when a build completes. If teardowns of the build are queued,
+     * releasing what the build still leases is left to the last of them, so
+     * resources are not handed out while its containers are still being
+     * removed.
+     *
+     * @param runId
+     * @return whether the release was deferred
+     */
+    public boolean deferRelease(String runId) {
+        synchronized (pendingByRun) {
+            if (pendingByRun.containsKey(runId)) {
+                completedRuns.add(runId);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void done(DockerState dockerState) {
+        dockerState.releaseResources();
+        String runId = getRunId(dockerState);
+        if (runId == null) {
+            return;
+        }
+        boolean completed;
+        synchronized (pendingByRun) {
+            if (pendingByRun.merge(runId, -1, Integer::sum) > 0) {
+                return;
+            }
+            pendingByRun.remove(runId);
+            completed = completedRuns.remove(runId);
+        }
+        if (completed) {
+            //Leases of launches that were never torn down
+            NodeResourceManager.releaseAllOfRun(runId);
+        }
+    }
+
+    @CheckForNull
+    private static String getRunId(DockerState dockerState) {
+        LeaseOwner owner = dockerState.getLeaseOwner();
+        return owner != null ? owner.getRunId() : null;
+    }
+
+    /**
+     * Number of teardowns of the node waiting or running, including those
+     * waiting to be retried
+     *
+     * @param nodeName
+     * @return
+     */
+    public int getQueueDepth(String nodeName) {
+        return getStats(nodeName).getQueueDepth();
+    }
+
+    /**
+     * Get the teardown counters of the node
+     *
+     * @param nodeName
+     * @return
+     */
+    public NodeStats getStats(String nodeName) {
+        synchronized (nodes) {
+            return nodes.computeIfAbsent(nodeName, n -> new NodeStats());
+        }
+    }
+
+    /**
+     * Teardown counters of a node
+     */
+    public static class NodeStats {
+
+        private int queueDepth;
+        private long reaped;
+        private long failed;
+        private long totalNanos;
+
+        private synchronized void queued() {
+            queueDepth++;
+        }
+
+        private synchronized void done(boolean success, long nanos) {
+            queueDepth--;
+            if (success) {
+                reaped++;
+                totalNanos += nanos;
+            } else {
+                failed++;
+            }
+        }
+
+        public synchronized int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public synchronized long getReaped() {
+            return reaped;
+        }
+
+        /**
+         * Number of teardowns that still failed after all retries
+         *
+         * @return
+         */
+        public synchronized long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Average time from queueing to successfully removing the containers
+         *
+         * @return the time in ms or 0 if none were reaped
+         */
+        public synchronized long getAverageReapMillis() {
+            return reaped > 0 ? TimeUnit.NANOSECONDS.toMillis(
+                    totalNanos / reaped) : 0;
+        }
+    }
+
+    private class Task implements Runnable {
+
+        private final String nodeName;
+        private final DockerState dockerState;
+        private final LauncherFactory launcherFactory;
+        private final long queuedAt = System.nanoTime();
+        private int attempts;
+
+        private Task(String nodeName,
+                     DockerState dockerState,
+                     LauncherFactory launcherFactory) {
+            this.nodeName = nodeName;
+            this.dockerState = dockerState;
+            this.launcherFactory = launcherFactory;
+        }
+
+        @Override
+        public void run() {
+            attempts++;
+            boolean success = false;
+            try {
+                //A new launcher each time, the agent may have reconnected
+                success = dockerState.removeResources(launcherFactory.create());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING,
+                           "Failed to tear down containers " + dockerState.getContainerIds()
+                                   + " on " + nodeName, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!success && attempts < MAX_ATTEMPTS) {
+                LOGGER.log(Level.INFO, "Retrying teardown of {0} on {1} in {2} s",
+                           new Object[]{dockerState.getContainerIds(), nodeName,
+                                   RETRY_DELAY_SECONDS * attempts});
+                executor.schedule(this, RETRY_DELAY_SECONDS * attempts,
+                                  TimeUnit.SECONDS);
+                return;
+            }
+            if (!success) {
+                LOGGER.log(Level.WARNING,
+                           "Giving up tearing down containers {0} on {1} after {2} attempts",
+                           new Object[]{dockerState.getContainerIds(), nodeName,
+                                   attempts});
+            }
+            done(dockerState);
+            getStats(nodeName).done(success, System.nanoTime() - queuedAt);
+        }
+    }
+}
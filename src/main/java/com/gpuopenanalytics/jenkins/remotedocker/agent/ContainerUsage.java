@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+
+import java.io.Serializable;
+
+/**
+ * Peak and total resource usage of one container of a build. The full series
+ * is kept as an attachment in the build directory.
+ */
+public class ContainerUsage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String containerId;
+    private final boolean main;
+    private final int samples;
+    private final long peakCpuMillicores;
+    private final long peakMemoryBytes;
+    private final long memoryLimitBytes;
+    private final long blockReadBytes;
+    private final long blockWriteBytes;
+    private final long netRxBytes;
+    private final long netTxBytes;
+    private final String attachment;
+
+    public ContainerUsage(String containerId,
+                          boolean main,
+                          ResourceSeries series,
+                          String attachment) {
+        this.containerId = containerId;
+        this.main = main;
+        this.samples = series.size();
+        this.peakCpuMillicores = series.getPeakCpuMillicores();
+        this.peakMemoryBytes = series.getPeakMemoryBytes();
+        this.memoryLimitBytes = series.getMemoryLimitBytes();
+        this.blockReadBytes = series.getBlockReadBytes();
+        this.blockWriteBytes = series.getBlockWriteBytes();
+        this.netRxBytes = series.getNetRxBytes();
+        this.netTxBytes = series.getNetTxBytes();
+        this.attachment = attachment;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    /**
+     * Whether this is the main container rather than a side container
+     *
+     * @return
+     */
+    public boolean isMain() {
+        return main;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public long getPeakCpuMillicores() {
+        return peakCpuMillicores;
+    }
+
+    public String getPeakCpu() {
+        return String.format("%.2f cores", peakCpuMillicores / 1000.0);
+    }
+
+    public long getPeakMemoryBytes() {
+        return peakMemoryBytes;
+    }
+
+    public String getPeakMemory() {
+        return Utils.formatByteSize(peakMemoryBytes);
+    }
+
+    /**
+     * The container's memory limit, or 0 if unlimited or unknown
+     *
+     * @return
+     */
+    public long getMemoryLimitBytes() {
+        return memoryLimitBytes;
+    }
+
+    public String getBlockIo() {
+        return Utils.formatByteSize(blockReadBytes) + " / " + Utils.formatByteSize(
+                blockWriteBytes);
+    }
+
+    public String getNetIo() {
+        return Utils.formatByteSize(netRxBytes) + " / " + Utils.formatByteSize(
+                netTxBytes);
+    }
+
+    /**
+     * Path of the gzipped CSV series relative to the build directory
+     *
+     * @return
+     */
+    public String getAttachment() {
+        return attachment;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * CPUs and NUMA memory nodes assigned to a container
+ */
+public class CpuSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SortedSet<Integer> cpus;
+    private final SortedSet<Integer> mems;
+
+    public CpuSet(Collection<Integer> cpus, Collection<Integer> mems) {
+        this.cpus = new TreeSet<>(cpus);
+        this.mems = new TreeSet<>(mems);
+    }
+
+    public SortedSet<Integer> getCpus() {
+        return Collections.unmodifiableSortedSet(cpus);
+    }
+
+    public SortedSet<Integer> getMems() {
+        return Collections.unmodifiableSortedSet(mems);
+    }
+
+    /**
+     * The value for <code>--cpuset-cpus</code>
+     *
+     * @return
+     */
+    public String getCpuList() {
+        return NumaTopology.formatCpuList(cpus);
+    }
+
+    /**
+     * The value for <code>--cpuset-mems</code>
+     *
+     * @return
+     */
+    public String getMemList() {
+        return NumaTopology.formatCpuList(mems);
+    }
+
+    @Override
+    public String toString() {
+        return "CPUs " + getCpuList() + " on NUMA node(s) " + getMemList();
+    }
+}
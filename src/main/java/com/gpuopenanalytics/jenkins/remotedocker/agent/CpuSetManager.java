@@ -0,0 +1,389 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Assigns each build on a node an exclusive share of the node's CPUs, taken
+ * from the NUMA nodes closest to the build's GPUs when possible. The share is
+ * the node's CPUs divided evenly between its executors.
+ * <p>Like {@link GpuLeaseManager}, the topology of a node is read once and
+ * the assignments are tracked on the controller.
+ */
+@Extension
+public class CpuSetManager extends NodeResourceManager {
+
+    private final Map<String, NodeCpus> nodes = new HashMap<>();
+
+    public static CpuSetManager get() {
+        return ExtensionList.lookupSingleton(CpuSetManager.class);
+    }
+
+    /**
+     * Assign CPUs to the launcher's {@link LeaseOwner}. Containers of the same
+     * owner share the assignment.
+     *
+     * @param launcher
+     * @param gpus     the GPUs leased to the owner, possibly empty
+     * @return the assignment
+     * @throws IOException            if the CPUs of the node are unknown
+     * @throws ResourcesBusyException if no CPUs are free
+     * @throws InterruptedException
+     */
+    public CpuSet acquire(AbstractDockerLauncher launcher,
+                          Collection<GpuDevice> gpus) throws IOException, InterruptedException {
+        LeaseOwner owner = launcher.getLeaseOwner();
+        NodeCpus cpus = getNodeCpus(launcher, !gpus.isEmpty());
+        Node node = Utils.getNode(launcher);
+        int executors = node != null ? Math.max(1, node.getNumExecutors()) : 1;
+        synchronized (cpus) {
+            CpuSet existing = cpus.getAssigned(owner);
+            if (existing != null) {
+                return existing;
+            }
+            SortedSet<Integer> preferred = new TreeSet<>();
+            for (GpuDevice gpu : gpus) {
+                preferred.addAll(cpus.gpuNodes.getOrDefault(gpu.getGpuIndex(),
+                                                            new TreeSet<>()));
+            }
+            if (cpus.topology.getAllCpus().isEmpty()) {
+                throw new IOException(
+                        "Could not read the CPUs of node " + owner.getNodeName());
+            }
+            int share = Math.max(1,
+                                 cpus.topology.getAllCpus().size() / executors);
+            List<Integer> chosen = cpus.choose(preferred, share);
+            if (chosen.isEmpty()) {
+                throw new ResourcesBusyException(String.format(
+                        "Waiting for free CPUs on %s", owner.getNodeName()));
+            }
+            for (int cpu : chosen) {
+                cpus.leases.put(cpu, owner);
+            }
+            return new CpuSet(chosen, cpus.topology.getNodesOf(chosen));
+        }
+    }
+
+    @Override
+    public void release(LeaseOwner owner) {
+        release(o -> o.equals(owner));
+    }
+
+    @Override
+    public void releaseRun(String runId) {
+        release(o -> runId.equals(o.getRunId()));
+    }
+
+    /**
+     * @param owner
+     * @return the CPUs assigned to the owner
+     */
+    @CheckForNull
+    @Override
+    public Serializable getLeases(LeaseOwner owner) {
+        NodeCpus cpus;
+        synchronized (nodes) {
+            cpus = nodes.get(owner.getNodeName());
+        }
+        if (cpus == null) {
+            return null;
+        }
+        synchronized (cpus) {
+            ArrayList<Integer> assigned = cpus.leases.entrySet().stream()
+                    .filter(e -> owner.equals(e.getValue()))
+                    .map(Map.Entry::getKey)
+                    .sorted()
+                    .collect(Collectors.toCollection(ArrayList::new));
+            return assigned.isEmpty() ? null : assigned;
+        }
+    }
+
+    @Override
+    public boolean restore(LeaseOwner owner, Serializable leases) {
+        NodeCpus cpus;
+        synchronized (nodes) {
+            //The topology is read on the next launch on the node
+            cpus = nodes.computeIfAbsent(owner.getNodeName(), n -> {
+                NodeCpus unknown = new NodeCpus();
+                unknown.topology = NumaTopology.parse(Collections.emptyMap());
+                unknown.gpuNodes = new HashMap<>();
+                unknown.stale = true;
+                return unknown;
+            });
+        }
+        boolean restored = true;
+        synchronized (cpus) {
+            for (Object cpu : (Collection<?>) leases) {
+                LeaseOwner current = cpus.leases.putIfAbsent((Integer) cpu,
+                                                             owner);
+                restored &= current == null || current.equals(owner);
+            }
+        }
+        return restored;
+    }
+
+    private void release(Predicate<LeaseOwner> predicate) {
+        List<NodeCpus> all;
+        synchronized (nodes) {
+            all = new ArrayList<>(nodes.values());
+        }
+        for (NodeCpus cpus : all) {
+            synchronized (cpus) {
+                Iterator<LeaseOwner> it = cpus.leases.values().iterator();
+                while (it.hasNext()) {
+                    if (predicate.test(it.next())) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the CPU assignments on the node
+     *
+     * @param nodeName
+     * @return owner to assigned CPUs
+     */
+    public Map<LeaseOwner, CpuSet> getStatus(String nodeName) {
+        NodeCpus cpus;
+        synchronized (nodes) {
+            cpus = nodes.get(nodeName);
+        }
+        Map<LeaseOwner, CpuSet> status = new LinkedHashMap<>();
+        if (cpus != null) {
+            synchronized (cpus) {
+                for (LeaseOwner owner : new LinkedHashSet<>(
+                        cpus.leases.values())) {
+                    status.put(owner, cpus.getAssigned(owner));
+                }
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Forget the topology of the node so it is read again on next use
+     *
+     * @param nodeName
+     */
+    public void invalidate(String nodeName) {
+        synchronized (nodes) {
+            NodeCpus cpus = nodes.get(nodeName);
+            if (cpus != null) {
+                cpus.stale = true;
+            }
+        }
+    }
+
+    private NodeCpus getNodeCpus(AbstractDockerLauncher launcher,
+                                 boolean needGpus) throws IOException, InterruptedException {
+        String nodeName = Utils.getNodeName(launcher);
+        synchronized (nodes) {
+            NodeCpus cpus = nodes.get(nodeName);
+            if (cpus != null && !cpus.stale && (!needGpus || cpus.gpusRead)) {
+                return cpus;
+            }
+        }
+        NumaTopology topology = launcher.call(new NumaTopology.Reader());
+        Map<Integer, SortedSet<Integer>> gpuNodes = needGpus
+                ? readGpuNodes(launcher, topology) : new HashMap<>();
+        synchronized (nodes) {
+            NodeCpus cpus = nodes.get(nodeName);
+            if (cpus == null) {
+                cpus = new NodeCpus();
+                nodes.put(nodeName, cpus);
+            }
+            synchronized (cpus) {
+                cpus.topology = topology;
+                cpus.gpuNodes = gpuNodes;
+                cpus.gpusRead = needGpus;
+                cpus.stale = false;
+            }
+            return cpus;
+        }
+    }
+
+    /**
+     * Read the NUMA nodes of each GPU with <code>nvidia-smi topo -m</code>,
+     * falling back to the PCI devices in sysfs
+     */
+    private Map<Integer, SortedSet<Integer>> readGpuNodes(AbstractDockerLauncher launcher,
+                                                          NumaTopology topology) throws IOException, InterruptedException {
+        String topo = execute(launcher, GpuLeaseManager.NVIDIA_SMI, "topo", "-m");
+        if (topo != null) {
+            Map<Integer, SortedSet<Integer>> gpuNodes = topology.parseGpuAffinity(
+                    topo);
+            if (!gpuNodes.isEmpty()) {
+                return gpuNodes;
+            }
+        }
+        Map<Integer, SortedSet<Integer>> gpuNodes = new HashMap<>();
+        String busIds = execute(launcher, GpuLeaseManager.NVIDIA_SMI,
+                                "--query-gpu=index,pci.bus_id",
+                                "--format=csv,noheader");
+        if (busIds == null) {
+            return gpuNodes;
+        }
+        Map<Integer, String> busIdByIndex = parseBusIds(busIds);
+        Map<String, Integer> nodeByBusId = launcher.call(
+                new NumaTopology.PciNodeReader(busIdByIndex.values()));
+        busIdByIndex.forEach((index, busId) -> {
+            Integer numaNode = nodeByBusId.get(busId);
+            if (numaNode != null) {
+                gpuNodes.put(index, new TreeSet<>(
+                        Collections.singleton(numaNode)));
+            }
+        });
+        return gpuNodes;
+    }
+
+    /**
+     * Parse <code>nvidia-smi --query-gpu=index,pci.bus_id
+     * --format=csv,noheader</code>
+     *
+     * @param output
+     * @return GPU index to PCI bus id
+     */
+    static Map<Integer, String> parseBusIds(String output) {
+        Map<Integer, String> busIds = new HashMap<>();
+        for (String line : output.split("\\r?\\n")) {
+            String[] parts = line.split(",");
+            if (parts.length == 2) {
+                try {
+                    busIds.put(Integer.parseInt(parts[0].trim()),
+                               parts[1].trim());
+                } catch (NumberFormatException e) {
+                    //Not a GPU line
+                }
+            }
+        }
+        return busIds;
+    }
+
+    /**
+     * @return the output or null if the command failed
+     */
+    @CheckForNull
+    private static String execute(AbstractDockerLauncher launcher,
+                                  String... args) throws IOException, InterruptedException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int status = launcher.getInner().launch()
+                .cmds(args)
+                .stdout(baos)
+                .stderr(launcher.getListener().getLogger())
+                .quiet(!launcher.isDebug())
+                .join();
+        return status == 0 ? baos.toString(StandardCharsets.UTF_8.name()) : null;
+    }
+
+    private static class NodeCpus {
+
+        private NumaTopology topology;
+        private Map<Integer, SortedSet<Integer>> gpuNodes;
+        private boolean gpusRead;
+        private boolean stale;
+        private final Map<Integer, LeaseOwner> leases = new HashMap<>();
+
+        @CheckForNull
+        private CpuSet getAssigned(LeaseOwner owner) {
+            List<Integer> assigned = leases.entrySet().stream()
+                    .filter(e -> owner.equals(e.getValue()))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            return assigned.isEmpty() ? null : new CpuSet(
+                    assigned, topology.getNodesOf(assigned));
+        }
+
+        /**
+         * Choose up to <code>share</code> free CPUs: first from the preferred
+         * NUMA nodes, then from the nodes with the most free CPUs, to keep a
+         * container on as few nodes as possible
+         */
+        private List<Integer> choose(SortedSet<Integer> preferred, int share) {
+            Map<Integer, List<Integer>> freeByNode = new HashMap<>();
+            for (int node : topology.getNodes()) {
+                freeByNode.put(node, topology.getCpus(node).stream()
+                        .filter(cpu -> !leases.containsKey(cpu))
+                        .collect(Collectors.toList()));
+            }
+            List<Integer> order = new ArrayList<>(topology.getNodes());
+            order.sort(Comparator.<Integer>comparingInt(
+                    n -> preferred.contains(n) ? 0 : 1)
+                               .thenComparingInt(
+                                       n -> -freeByNode.get(n).size()));
+            List<Integer> chosen = new ArrayList<>();
+            for (int node : order) {
+                for (int cpu : freeByNode.get(node)) {
+                    if (chosen.size() == share) {
+                        return chosen;
+                    }
+                    chosen.add(cpu);
+                }
+            }
+            return chosen;
+        }
+    }
+
+    /**
+     * Re-read the topology whenever an agent (re)connects
+     */
+    @Extension
+    public static class TopologyInvalidator extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            get().invalidate(Utils.getNodeName(c));
+        }
+    }
+}
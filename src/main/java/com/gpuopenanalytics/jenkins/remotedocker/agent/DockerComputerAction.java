@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.model.Computer;
+import hudson.model.TransientComputerActionFactory;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.CheckForNull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shows what the plugin tracks for a node on its computer page
+ */
+@ExportedBean
+public class DockerComputerAction implements Action {
+
+    private final Computer computer;
+
+    public DockerComputerAction(Computer computer) {
+        this.computer = computer;
+    }
+
+    public Computer getComputer() {
+        return computer;
+    }
+
+    public String getNodeName() {
+        return Utils.getNodeName(computer);
+    }
+
+    public Map<GpuDevice, LeaseOwner> getGpus() {
+        return GpuLeaseManager.get().getStatus(getNodeName());
+    }
+
+    @CheckForNull
+    public GpuFragmentation getGpuFragmentation() {
+        return GpuLeaseManager.get().getFragmentation(getNodeName());
+    }
+
+    public Map<LeaseOwner, CpuSet> getCpuSets() {
+        return CpuSetManager.get().getStatus(getNodeName());
+    }
+
+    /**
+     * @return the formatted memory budget or null if unlimited
+     */
+    @CheckForNull
+    public String getMemoryBudget() {
+        long budget = MemoryBudgetManager.getBudget(computer.getNode());
+        return budget > 0 ? Utils.formatByteSize(budget) : null;
+    }
+
+    public String getMemoryReserved() {
+        return Utils.formatByteSize(
+                MemoryBudgetManager.get().getReserved(getNodeName()));
+    }
+
+    public Map<LeaseOwner, String> getMemoryReservations() {
+        Map<LeaseOwner, String> reservations = new LinkedHashMap<>();
+        MemoryBudgetManager.get().getReservations(getNodeName())
+                .forEach((owner, bytes) -> reservations.put(
+                        owner, Utils.formatByteSize(bytes)));
+        return reservations;
+    }
+
+    /**
+     * @return the recent exec latencies or null if none were recorded
+     */
+    @CheckForNull
+    public ExecLatencyTracker.NodeLatency getExecLatency() {
+        return ExecLatencyTracker.get().getNodeIfPresent(getNodeName());
+    }
+
+    /**
+     * Number of container teardowns of this node waiting in the background
+     *
+     * @return
+     */
+    @Exported
+    public int getReaperQueueDepth() {
+        return ContainerReaper.get().getQueueDepth(getNodeName());
+    }
+
+    public ContainerReaper.NodeStats getReaperStats() {
+        return ContainerReaper.get().getStats(getNodeName());
+    }
+
+    /**
+     * Average time to tear down the containers of a build in the background
+     *
+     * @return
+     */
+    @Exported
+    public long getAverageReapMillis() {
+        return getReaperStats().getAverageReapMillis();
+    }
+
+    @CheckForNull
+    public OrphanReaper.SweepResult getLastOrphanSweep() {
+        return OrphanReaper.get().getLastSweep(getNodeName());
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @CheckForNull
+    @Override
+    public String getIconFileName() {
+        return "/plugin/remote-docker-plugin/images/24x24/docker.png";
+    }
+
+    @CheckForNull
+    @Override
+    public String getDisplayName() {
+        return "Remote Docker";
+    }
+
+    @CheckForNull
+    @Override
+    public String getUrlName() {
+        return "remote-docker";
+    }
+
+    @Extension
+    public static class Factory extends TransientComputerActionFactory {
+
+        @Override
+        public Collection<? extends Action> createFor(Computer target) {
+            return Collections.singleton(new DockerComputerAction(target));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.LatencyHistogram;
+import hudson.Extension;
+import hudson.ExtensionList;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling <code>docker exec</code> latency histograms per node, covering
+ * between one and two windows of recent execs. A node with a slow docker
+ * daemon shows up with high percentiles here.
+ */
+@Extension
+public class ExecLatencyTracker {
+
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(
+            SystemProperties.getLong(
+                    ExecLatencyTracker.class.getName() + ".windowMinutes",
+                    15L));
+
+    private final Map<String, NodeLatency> nodes = new HashMap<>();
+
+    public static ExecLatencyTracker get() {
+        return ExtensionList.lookupSingleton(ExecLatencyTracker.class);
+    }
+
+    /**
+     * Get the histograms of the node to record into, creating them if needed.
+     * Callers should keep the result rather than looking it up for every
+     * exec.
+     *
+     * @param nodeName
+     * @return
+     */
+    public NodeLatency getNode(String nodeName) {
+        synchronized (nodes) {
+            return nodes.computeIfAbsent(nodeName, n -> new NodeLatency());
+        }
+    }
+
+    /**
+     * @param nodeName
+     * @return the node's histograms or null if nothing was recorded yet
+     */
+    @CheckForNull
+    public NodeLatency getNodeIfPresent(String nodeName) {
+        synchronized (nodes) {
+            return nodes.get(nodeName);
+        }
+    }
+
+    /**
+     * The exec latencies of one node
+     */
+    public static class NodeLatency {
+
+        private final RollingHistogram start = new RollingHistogram();
+
+        public void recordStart(long nanos) {
+            start.record(nanos);
+        }
+
+        /**
+         * Snapshot of the time from launching to the process being started
+         *
+         * @return
+         */
+        public LatencyHistogram getStart() {
+            return start.snapshot();
+        }
+    }
+
+    /**
+     * Two histograms used in turn: values go into the current one, and when
+     * the window passes the older one is cleared and becomes current
+     */
+    private static class RollingHistogram {
+
+        private final LatencyHistogram[] windows = {
+                new LatencyHistogram(), new LatencyHistogram()
+        };
+        private volatile int current;
+        private volatile long windowStart = System.nanoTime();
+
+        void record(long nanos) {
+            long now = System.nanoTime();
+            if (now - windowStart > WINDOW_NANOS) {
+                rotate(now);
+            }
+            windows[current].recordNanos(nanos);
+        }
+
+        private synchronized void rotate(long now) {
+            if (now - windowStart > WINDOW_NANOS) {
+                int next = 1 - current;
+                windows[next].reset();
+                current = next;
+                windowStart = now;
+            }
+        }
+
+        LatencyHistogram snapshot() {
+            LatencyHistogram snapshot = new LatencyHistogram();
+            snapshot.add(windows[0]);
+            snapshot.add(windows[1]);
+            return snapshot;
+        }
+    }
+}
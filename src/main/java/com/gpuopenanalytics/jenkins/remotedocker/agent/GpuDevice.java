@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import javax.annotation.CheckForNull;
+import java.io.Serializable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A unit of GPU that can be leased to a build: either a whole GPU or a single
+ * MIG slice of one
+ */
+public class GpuDevice implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern PROFILE_PATTERN = Pattern.compile(
+            "(\\d+)g\\.(\\d+)gb.*", Pattern.CASE_INSENSITIVE);
+
+    private final String uuid;
+    private final int gpuIndex;
+    private final String gpuUuid;
+    private final String name;
+    private final String migProfile;
+    private final long memoryMiB;
+
+    /**
+     * @param uuid
+     * @param gpuIndex
+     * @param gpuUuid
+     * @param name
+     * @param migProfile the MIG profile or null for a whole GPU
+     * @param memoryMiB  total memory of a whole GPU or -1 if unknown. Ignored
+     *                   for MIG slices which get it from the profile
+     */
+    public GpuDevice(String uuid,
+                     int gpuIndex,
+                     String gpuUuid,
+                     String name,
+                     @CheckForNull String migProfile,
+                     long memoryMiB) {
+        this.uuid = uuid;
+        this.gpuIndex = gpuIndex;
+        this.gpuUuid = gpuUuid;
+        this.name = name;
+        this.migProfile = migProfile;
+        this.memoryMiB = migProfile != null ? parseProfileMemoryMiB(
+                migProfile) : memoryMiB;
+    }
+
+    /**
+     * Parse the memory of a MIG profile such as <code>3g.20gb</code>
+     *
+     * @param profile
+     * @return the memory in MiB or -1 if the profile cannot be parsed
+     */
+    public static long parseProfileMemoryMiB(String profile) {
+        Matcher m = PROFILE_PATTERN.matcher(profile);
+        return m.matches() ? Long.parseLong(m.group(2)) * 1024 : -1;
+    }
+
+    /**
+     * Parse the number of compute slices of a MIG profile such as
+     * <code>3g.20gb</code>
+     *
+     * @param profile
+     * @return the number of slices or -1 if the profile cannot be parsed
+     */
+    public static int parseProfileSlices(String profile) {
+        Matcher m = PROFILE_PATTERN.matcher(profile);
+        return m.matches() ? Integer.parseInt(m.group(1)) : -1;
+    }
+
+    /**
+     * The UUID to pass to docker, either the GPU's or the MIG slice's
+     *
+     * @return
+     */
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * Index of the physical GPU
+     *
+     * @return
+     */
+    public int getGpuIndex() {
+        return gpuIndex;
+    }
+
+    /**
+     * UUID of the physical GPU
+     *
+     * @return
+     */
+    public String getGpuUuid() {
+        return gpuUuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isMig() {
+        return migProfile != null;
+    }
+
+    /**
+     * The MIG profile such as <code>1g.5gb</code>, or null for a whole GPU
+     *
+     * @return
+     */
+    @CheckForNull
+    public String getMigProfile() {
+        return migProfile;
+    }
+
+    /**
+     * Memory of the device in MiB or -1 if unknown
+     *
+     * @return
+     */
+    public long getMemoryMiB() {
+        return memoryMiB;
+    }
+
+    /**
+     * Number of MIG compute slices, or {@link Integer#MAX_VALUE} for a whole
+     * GPU
+     *
+     * @return
+     */
+    public int getComputeSlices() {
+        return migProfile != null ? parseProfileSlices(
+                migProfile) : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return isMig() ? "GPU " + gpuIndex + " MIG " + migProfile + " " + uuid
+                : "GPU " + gpuIndex + " " + uuid;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Summary of how the free GPU devices of a node are fragmented. A node with
+ * plenty of free memory spread over small MIG slices cannot serve a build that
+ * needs one large slice.
+ */
+public class GpuFragmentation {
+
+    private final int freeDevices;
+    private final long freeMemoryMiB;
+    private final long largestFreeMiB;
+    private final Map<String, Integer> freeByProfile;
+
+    private GpuFragmentation(int freeDevices,
+                             long freeMemoryMiB,
+                             long largestFreeMiB,
+                             Map<String, Integer> freeByProfile) {
+        this.freeDevices = freeDevices;
+        this.freeMemoryMiB = freeMemoryMiB;
+        this.largestFreeMiB = largestFreeMiB;
+        this.freeByProfile = freeByProfile;
+    }
+
+    /**
+     * Summarize the free devices
+     *
+     * @param free
+     * @return
+     */
+    public static GpuFragmentation of(List<GpuDevice> free) {
+        long freeMemory = 0;
+        long largest = 0;
+        for (GpuDevice device : free) {
+            if (device.getMemoryMiB() > 0) {
+                freeMemory += device.getMemoryMiB();
+                largest = Math.max(largest, device.getMemoryMiB());
+            }
+        }
+        Map<String, Integer> byProfile = free.stream()
+                .collect(Collectors.groupingBy(
+                        d -> d.isMig() ? d.getMigProfile() : "whole GPU",
+                        TreeMap::new,
+                        Collectors.summingInt(d -> 1)));
+        return new GpuFragmentation(free.size(), freeMemory, largest,
+                                    byProfile);
+    }
+
+    public int getFreeDevices() {
+        return freeDevices;
+    }
+
+    public long getFreeMemoryMiB() {
+        return freeMemoryMiB;
+    }
+
+    public long getLargestFreeMiB() {
+        return largestFreeMiB;
+    }
+
+    public Map<String, Integer> getFreeByProfile() {
+        return freeByProfile;
+    }
+
+    /**
+     * Fraction of free memory that is not in the largest free device: 0 when
+     * all free memory is in one device, approaching 1 when it is spread over
+     * many small ones
+     *
+     * @return
+     */
+    public double getFragmentation() {
+        return freeMemoryMiB == 0 ? 0 : 1 - (double) largestFreeMiB / freeMemoryMiB;
+    }
+
+    public int getFragmentationPercent() {
+        return (int) Math.round(getFragmentation() * 100);
+    }
+
+    @Override
+    public String toString() {
+        String profiles = freeByProfile.entrySet().stream()
+                .map(e -> e.getValue() + "x " + e.getKey())
+                .collect(Collectors.joining(", "));
+        return String.format(
+                "%d free device(s) [%s], largest %d MiB of %d MiB free, fragmentation %d%%",
+                freeDevices, profiles, largestFreeMiB, freeMemoryMiB,
+                getFragmentationPercent());
+    }
+}
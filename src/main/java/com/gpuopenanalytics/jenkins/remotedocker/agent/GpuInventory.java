@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The leasable GPU devices of a node, parsed from <code>nvidia-smi -L</code>.
+ * GPUs with MIG enabled contribute their slices, other GPUs are leased
+ * whole.
+ */
+public class GpuInventory {
+
+    private static final Pattern GPU_PATTERN = Pattern.compile(
+            "^GPU (\\d+): (.+?) \\(UUID: (GPU-[a-fA-F0-9\\-]+)\\)");
+    private static final Pattern MIG_PATTERN = Pattern.compile(
+            "^\\s+MIG (\\S+)\\s+Device\\s+\\d+: \\(UUID: (MIG-[a-zA-Z0-9\\-/]+)\\)");
+
+    private final List<GpuDevice> devices;
+
+    private GpuInventory(List<GpuDevice> devices) {
+        this.devices = ImmutableList.copyOf(devices);
+    }
+
+    /**
+     * Parse the output of <code>nvidia-smi -L</code> such as:
+     * <pre>
+     * GPU 0: NVIDIA A100-SXM4-40GB (UUID: GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77)
+     *   MIG 3g.20gb     Device  0: (UUID: MIG-GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77/1/0)
+     * GPU 1: Tesla V100-SXM2-16GB (UUID: GPU-3b8a2a8c-8a1e-4c7c-9d8a-0c6e1b5f3e21)
+     * </pre>
+     *
+     * @param output
+     * @return
+     */
+    public static GpuInventory parse(String output) {
+        return parse(output, null);
+    }
+
+    /**
+     * Parse the output of <code>nvidia-smi -L</code> along with the output of
+     * <code>nvidia-smi --query-gpu=uuid,memory.total
+     * --format=csv,noheader,nounits</code> for the memory of whole GPUs
+     *
+     * @param output
+     * @param memoryOutput
+     * @return
+     */
+    public static GpuInventory parse(String output,
+                                     @CheckForNull String memoryOutput) {
+        Map<String, Long> memory = memoryOutput != null
+                ? GpuLeaseManager.parseMemory(memoryOutput)
+                : Collections.emptyMap();
+        Map<String, List<GpuDevice>> migByGpu = new HashMap<>();
+        List<GpuDevice> gpus = new ArrayList<>();
+        GpuDevice currentGpu = null;
+        for (String line : output.split("\\r?\\n")) {
+            Matcher gpu = GPU_PATTERN.matcher(line);
+            if (gpu.find()) {
+                currentGpu = new GpuDevice(gpu.group(3),
+                                           Integer.parseInt(gpu.group(1)),
+                                           gpu.group(3),
+                                           gpu.group(2),
+                                           null,
+                                           memory.getOrDefault(gpu.group(3),
+                                                               -1L));
+                gpus.add(currentGpu);
+                continue;
+            }
+            Matcher mig = MIG_PATTERN.matcher(line);
+            if (mig.find() && currentGpu != null) {
+                migByGpu.computeIfAbsent(currentGpu.getUuid(),
+                                         k -> new ArrayList<>())
+                        .add(new GpuDevice(mig.group(2),
+                                           currentGpu.getGpuIndex(),
+                                           currentGpu.getUuid(),
+                                           currentGpu.getName(),
+                                           mig.group(1),
+                                           -1));
+            }
+        }
+        List<GpuDevice> devices = new ArrayList<>();
+        for (GpuDevice gpu : gpus) {
+            devices.addAll(migByGpu.getOrDefault(gpu.getUuid(),
+                                                 ImmutableList.of(gpu)));
+        }
+        return new GpuInventory(devices);
+    }
+
+    public List<GpuDevice> getDevices() {
+        return devices;
+    }
+
+    public boolean isEmpty() {
+        return devices.isEmpty();
+    }
+}
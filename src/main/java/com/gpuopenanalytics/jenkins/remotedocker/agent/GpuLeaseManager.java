@@ -0,0 +1,437 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Leases GPUs, or MIG slices, on each node exclusively to builds. The device
+ * inventory of a node is read once with <code>nvidia-smi -L</code> and kept
+ * until the node reconnects. If not enough devices are free, the launch waits
+ * in {@link NodeResourceManager#acquireAll}.
+ * <p>Leases are tracked on the controller so they can still be released when
+ * a build ends after its agent went away.
+ */
+@Extension
+public class GpuLeaseManager extends NodeResourceManager {
+
+    /**
+     * Command used to query the GPUs. Can be pointed at a stand-in script for
+     * testing.
+     */
+    static final String NVIDIA_SMI = SystemProperties.getString(
+            GpuLeaseManager.class.getName() + ".nvidiaSmi", "nvidia-smi");
+
+    private final String nvidiaSmi;
+    private final Map<String, NodeGpus> nodes = new HashMap<>();
+
+    public GpuLeaseManager() {
+        this(NVIDIA_SMI);
+    }
+
+    /**
+     * @param nvidiaSmi the command used to query the GPUs
+     */
+    GpuLeaseManager(String nvidiaSmi) {
+        this.nvidiaSmi = nvidiaSmi;
+    }
+
+    public static GpuLeaseManager get() {
+        return ExtensionList.lookupSingleton(GpuLeaseManager.class);
+    }
+
+    /**
+     * Lease devices to the launcher's {@link LeaseOwner}. Requests with a
+     * minimum size are placed best-fit, on the smallest devices that are
+     * large enough, to keep large MIG slices free for builds that need them.
+     * <p>The free memory of the GPUs is read again on every call, and so on
+     * every attempt while the launch waits, so placement follows the current
+     * usage. It is only a snapshot though: memory used by processes started
+     * after the call, even by the builds just leased to, is not accounted
+     * for.
+     *
+     * @param launcher
+     * @param request
+     * @param freeMemoryAware whether to prefer GPUs with the most free memory
+     * @return the leased devices
+     * @throws IOException              if the node does not have enough
+     *                                  devices large enough for the request
+     * @throws ResourcesBusyException   if not enough devices are free
+     * @throws InterruptedException
+     */
+    public List<GpuDevice> acquire(AbstractDockerLauncher launcher,
+                                   GpuRequest request,
+                                   boolean freeMemoryAware) throws IOException, InterruptedException {
+        LeaseOwner owner = launcher.getLeaseOwner();
+        NodeGpus gpus = getNodeGpus(launcher);
+        Map<String, Long> freeMemory = freeMemoryAware
+                ? queryFreeMemory(launcher) : Collections.emptyMap();
+        synchronized (gpus) {
+            long fitting = gpus.inventory.getDevices().stream()
+                    .filter(request::fits)
+                    .count();
+            if (request.getCount() > fitting) {
+                throw new IOException(String.format(
+                        "Requested %s, but node %s only has %d such devices",
+                        request, owner.getNodeName(), fitting));
+            }
+            List<GpuDevice> chosen = gpus.choose(request, freeMemory);
+            if (chosen == null) {
+                throw new ResourcesBusyException(String.format(
+                        "Waiting for %s on %s: %s",
+                        request, owner.getNodeName(),
+                        gpus.getFragmentation()));
+            }
+            for (GpuDevice device : chosen) {
+                gpus.leases.put(device.getUuid(), owner);
+            }
+            if (launcher.isDebug()) {
+                launcher.getListener().getLogger().println(
+                        "GPU devices after leasing: " + gpus.getFragmentation());
+            }
+            return chosen;
+        }
+    }
+
+    @Override
+    public void release(LeaseOwner owner) {
+        release(o -> o.equals(owner));
+    }
+
+    @Override
+    public void releaseRun(String runId) {
+        release(o -> runId.equals(o.getRunId()));
+    }
+
+    /**
+     * @param owner
+     * @return the UUIDs of the devices leased to the owner
+     */
+    @CheckForNull
+    @Override
+    public Serializable getLeases(LeaseOwner owner) {
+        NodeGpus gpus;
+        synchronized (nodes) {
+            gpus = nodes.get(owner.getNodeName());
+        }
+        if (gpus == null) {
+            return null;
+        }
+        synchronized (gpus) {
+            ArrayList<String> uuids = gpus.leases.entrySet().stream()
+                    .filter(e -> owner.equals(e.getValue()))
+                    .map(Map.Entry::getKey)
+                    .sorted()
+                    .collect(Collectors.toCollection(ArrayList::new));
+            return uuids.isEmpty() ? null : uuids;
+        }
+    }
+
+    @Override
+    public boolean restore(LeaseOwner owner, Serializable leases) {
+        NodeGpus gpus;
+        synchronized (nodes) {
+            //The inventory is read on the next launch on the node
+            gpus = nodes.computeIfAbsent(owner.getNodeName(), n -> {
+                NodeGpus unknown = new NodeGpus(GpuInventory.parse(""));
+                unknown.stale = true;
+                return unknown;
+            });
+        }
+        boolean restored = true;
+        synchronized (gpus) {
+            for (Object uuid : (Collection<?>) leases) {
+                LeaseOwner current = gpus.leases.putIfAbsent((String) uuid,
+                                                             owner);
+                restored &= current == null || current.equals(owner);
+            }
+        }
+        return restored;
+    }
+
+    private void release(Predicate<LeaseOwner> predicate) {
+        List<NodeGpus> all;
+        synchronized (nodes) {
+            all = new ArrayList<>(nodes.values());
+        }
+        for (NodeGpus gpus : all) {
+            synchronized (gpus) {
+                gpus.leases.values().removeIf(predicate);
+            }
+        }
+    }
+
+    /**
+     * Get the devices of the node and who, if anyone, leases them
+     *
+     * @param nodeName
+     * @return
+     */
+    public Map<GpuDevice, LeaseOwner> getStatus(String nodeName) {
+        NodeGpus gpus;
+        synchronized (nodes) {
+            gpus = nodes.get(nodeName);
+        }
+        Map<GpuDevice, LeaseOwner> status = new LinkedHashMap<>();
+        if (gpus != null) {
+            synchronized (gpus) {
+                for (GpuDevice device : gpus.inventory.getDevices()) {
+                    status.put(device, gpus.leases.get(device.getUuid()));
+                }
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Get the devices currently leased to the owner
+     *
+     * @param owner
+     * @return
+     */
+    public List<GpuDevice> getLeased(LeaseOwner owner) {
+        return getStatus(owner.getNodeName()).entrySet().stream()
+                .filter(e -> owner.equals(e.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get how fragmented the free devices of the node are
+     *
+     * @param nodeName
+     * @return the fragmentation or null if the node's inventory is unknown
+     */
+    @CheckForNull
+    public GpuFragmentation getFragmentation(String nodeName) {
+        NodeGpus gpus;
+        synchronized (nodes) {
+            gpus = nodes.get(nodeName);
+        }
+        if (gpus == null) {
+            return null;
+        }
+        synchronized (gpus) {
+            return gpus.getFragmentation();
+        }
+    }
+
+    /**
+     * Forget the inventory of the node so it is read again on next use. Leases
+     * are kept.
+     *
+     * @param nodeName
+     */
+    public void invalidate(String nodeName) {
+        synchronized (nodes) {
+            NodeGpus gpus = nodes.get(nodeName);
+            if (gpus != null) {
+                gpus.stale = true;
+            }
+        }
+    }
+
+    private NodeGpus getNodeGpus(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+        String nodeName = Utils.getNodeName(launcher);
+        synchronized (nodes) {
+            NodeGpus gpus = nodes.get(nodeName);
+            if (gpus != null && !gpus.stale) {
+                return gpus;
+            }
+        }
+        String memory;
+        try {
+            memory = execute(launcher, nvidiaSmi,
+                             "--query-gpu=uuid,memory.total",
+                             "--format=csv,noheader,nounits");
+        } catch (IOException e) {
+            //Only needed for requests with a minimum memory
+            memory = null;
+        }
+        GpuInventory inventory = GpuInventory.parse(
+                execute(launcher, nvidiaSmi, "-L"), memory);
+        if (inventory.isEmpty()) {
+            throw new IOException("No GPUs found on " + nodeName);
+        }
+        synchronized (nodes) {
+            NodeGpus gpus = nodes.get(nodeName);
+            if (gpus == null) {
+                gpus = new NodeGpus(inventory);
+                nodes.put(nodeName, gpus);
+            } else {
+                synchronized (gpus) {
+                    gpus.inventory = inventory;
+                    gpus.stale = false;
+                }
+            }
+            return gpus;
+        }
+    }
+
+    private Map<String, Long> queryFreeMemory(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+        String output = execute(launcher, nvidiaSmi,
+                                "--query-gpu=uuid,memory.free",
+                                "--format=csv,noheader,nounits");
+        return parseMemory(output);
+    }
+
+    /**
+     * Parse <code>nvidia-smi --query-gpu=uuid,memory.free
+     * --format=csv,noheader,nounits</code> (or <code>memory.total</code>)
+     * into GPU UUID to MiB
+     *
+     * @param output
+     * @return
+     */
+    static Map<String, Long> parseMemory(String output) {
+        Map<String, Long> free = new HashMap<>();
+        for (String line : output.split("\\r?\\n")) {
+            String[] parts = line.split(",");
+            if (parts.length == 2) {
+                try {
+                    free.put(parts[0].trim(), Long.parseLong(parts[1].trim()));
+                } catch (NumberFormatException e) {
+                    //[N/A] or similar
+                }
+            }
+        }
+        return free;
+    }
+
+    private static String execute(AbstractDockerLauncher launcher,
+                                  String... args) throws IOException, InterruptedException {
+        TaskListener listener = launcher.getListener();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int status = launcher.getInner().launch()
+                .cmds(args)
+                .stdout(baos)
+                .stderr(listener.getLogger())
+                .quiet(!launcher.isDebug())
+                .join();
+        if (status != 0) {
+            throw new IOException(
+                    "Non-zero status " + status + ": " + String.join(" ",
+                                                                     args));
+        }
+        return baos.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private static class NodeGpus {
+
+        private GpuInventory inventory;
+        private boolean stale;
+        private final Map<String, LeaseOwner> leases = new HashMap<>();
+
+        private NodeGpus(GpuInventory inventory) {
+            this.inventory = inventory;
+        }
+
+        private List<GpuDevice> getFree() {
+            return inventory.getDevices().stream()
+                    .filter(d -> !leases.containsKey(d.getUuid()))
+                    .collect(Collectors.toList());
+        }
+
+        private GpuFragmentation getFragmentation() {
+            return GpuFragmentation.of(getFree());
+        }
+
+        /**
+         * Choose free devices that fit the request. Requests with a minimum
+         * size are bin-packed: the smallest fitting devices on the busiest
+         * GPUs first. Otherwise the devices are spread over the physical GPUs
+         * with the most free memory, if known, and the fewest leases.
+         *
+         * @return the devices or null if not enough are free
+         */
+        @CheckForNull
+        private List<GpuDevice> choose(GpuRequest request,
+                                       Map<String, Long> freeMemory) {
+            Map<String, Long> leasesPerGpu = inventory.getDevices().stream()
+                    .filter(d -> leases.containsKey(d.getUuid()))
+                    .collect(Collectors.groupingBy(GpuDevice::getGpuUuid,
+                                                   Collectors.counting()));
+            Comparator<GpuDevice> order;
+            if (request.hasMinimum()) {
+                order = Comparator.<GpuDevice>comparingLong(
+                        d -> d.getMemoryMiB() < 0 ? Long.MAX_VALUE : d.getMemoryMiB())
+                        .thenComparingInt(GpuDevice::getComputeSlices)
+                        .thenComparingLong(
+                                d -> -leasesPerGpu.getOrDefault(
+                                        d.getGpuUuid(), 0L));
+            } else {
+                order = Comparator.<GpuDevice>comparingLong(
+                        d -> -freeMemory.getOrDefault(d.getGpuUuid(), 0L))
+                        .thenComparingLong(
+                                d -> leasesPerGpu.getOrDefault(
+                                        d.getGpuUuid(), 0L));
+            }
+            List<GpuDevice> free = getFree().stream()
+                    .filter(request::fits)
+                    .sorted(order.thenComparingInt(GpuDevice::getGpuIndex))
+                    .collect(Collectors.toList());
+            if (free.size() < request.getCount()) {
+                return null;
+            }
+            return new ArrayList<>(free.subList(0, request.getCount()));
+        }
+    }
+
+    /**
+     * Re-read the inventory whenever an agent (re)connects in case its GPUs or
+     * MIG configuration changed
+     */
+    @Extension
+    public static class InventoryInvalidator extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            get().invalidate(Utils.getNodeName(c));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import javax.annotation.CheckForNull;
+import java.io.Serializable;
+
+/**
+ * What a build asks of the {@link GpuLeaseManager}: a number of devices, each
+ * at least as large as a MIG profile and/or an amount of memory
+ */
+public class GpuRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int count;
+    private final String minProfile;
+    private final long minMemoryMiB;
+
+    /**
+     * @param count        number of devices
+     * @param minProfile   smallest acceptable MIG profile such as
+     *                     <code>2g.10gb</code>, or null
+     * @param minMemoryMiB smallest acceptable device memory in MiB, or 0
+     */
+    public GpuRequest(int count,
+                      @CheckForNull String minProfile,
+                      long minMemoryMiB) {
+        this.count = count;
+        this.minProfile = minProfile;
+        this.minMemoryMiB = minMemoryMiB;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Whether the request has a minimum size, in which case devices are
+     * chosen best-fit
+     *
+     * @return
+     */
+    public boolean hasMinimum() {
+        return minProfile != null || minMemoryMiB > 0;
+    }
+
+    /**
+     * Whether the device is large enough for this request. Whole GPUs fit any
+     * MIG profile.
+     *
+     * @param device
+     * @return
+     */
+    public boolean fits(GpuDevice device) {
+        if (minProfile != null) {
+            if (device.getComputeSlices() < GpuDevice.parseProfileSlices(
+                    minProfile)) {
+                return false;
+            }
+            if (device.isMig() && device.getMemoryMiB() < GpuDevice.parseProfileMemoryMiB(
+                    minProfile)) {
+                return false;
+            }
+        }
+        return minMemoryMiB <= 0 || device.getMemoryMiB() >= minMemoryMiB;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(" GPU device(s)");
+        if (minProfile != null) {
+            sb.append(" of at least ").append(minProfile);
+        }
+        if (minMemoryMiB > 0) {
+            sb.append(" with at least ").append(minMemoryMiB).append(" MiB");
+        }
+        return sb.toString();
+    }
+}
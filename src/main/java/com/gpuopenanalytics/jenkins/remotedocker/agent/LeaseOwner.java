@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import javax.annotation.CheckForNull;
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Identifies a single launch of containers that holds resources on a node such
+ * as cache volumes. Every {@link NodeResourceManager} keys its leases by this
+ * so they can be released when the containers are torn down or, failing that,
+ * when the build completes.
+ */
+public class LeaseOwner implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+    private final String nodeName;
+    private final String runId;
+
+    private LeaseOwner(String id, String nodeName, String runId) {
+        this.id = id;
+        this.nodeName = nodeName;
+        this.runId = runId;
+    }
+
+    /**
+     * Create a new, unique owner
+     *
+     * @param nodeName the node the containers run on
+     * @param runId    the {@link hudson.model.Run#getExternalizableId()} of
+     *                 the build, if known
+     * @return
+     */
+    public static LeaseOwner create(String nodeName, @CheckForNull String runId) {
+        return new LeaseOwner(UUID.randomUUID().toString(), nodeName, runId);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    @CheckForNull
+    public String getRunId() {
+        return runId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return id.equals(((LeaseOwner) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+
+    @Override
+    public String toString() {
+        return runId != null ? runId + " (" + id + ")" : id;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.RemoteDockerBuildWrapper;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import com.gpuopenanalytics.jenkins.remotedocker.config.ConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.MemoryConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.job.AbstractDockerConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.job.SideDockerConfiguration;
+import hudson.Extension;
+import hudson.model.BuildableItemWithBuildWrappers;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps freestyle builds off nodes whose memory budget cannot currently fit
+ * their containers, so they go to another node or wait in the queue rather
+ * than on an executor. Pipeline builds only request memory once running and
+ * wait in {@link MemoryBudgetManager#reserve} instead.
+ */
+@Extension
+public class MemoryBudgetDispatcher extends QueueTaskDispatcher {
+
+    @Override
+    public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+        if (!(item.task instanceof BuildableItemWithBuildWrappers)) {
+            return null;
+        }
+        RemoteDockerBuildWrapper wrapper = ((BuildableItemWithBuildWrappers) item.task)
+                .getBuildWrappersList()
+                .get(RemoteDockerBuildWrapper.class);
+        if (wrapper == null) {
+            return null;
+        }
+        long bytes = getRequestedBytes(wrapper);
+        if (bytes <= 0 || MemoryBudgetManager.get().canFit(node, bytes)) {
+            return null;
+        }
+        return new NotEnoughMemory(Utils.getNodeName(node), bytes);
+    }
+
+    /**
+     * Sum the memory of the main and side containers. Values with build
+     * variables cannot be known before the build and are left out.
+     *
+     * @param wrapper
+     * @return bytes
+     */
+    static long getRequestedBytes(RemoteDockerBuildWrapper wrapper) {
+        List<AbstractDockerConfiguration> configurations = new ArrayList<>();
+        configurations.add(wrapper.getDockerConfiguration());
+        if (wrapper.getSideDockerConfigurations() != null) {
+            for (SideDockerConfiguration side : wrapper.getSideDockerConfigurations()) {
+                configurations.add(side.getDockerConfiguration());
+            }
+        }
+        long bytes = 0;
+        for (AbstractDockerConfiguration configuration : configurations) {
+            if (configuration == null) {
+                continue;
+            }
+            for (ConfigItem item : configuration.getConfigItemList()) {
+                if (item instanceof MemoryConfigItem) {
+                    bytes += Math.max(0,
+                                      ((MemoryConfigItem) item).getMemoryBytes());
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static class NotEnoughMemory extends CauseOfBlockage {
+
+        private final String nodeName;
+        private final long bytes;
+
+        private NotEnoughMemory(String nodeName, long bytes) {
+            this.nodeName = nodeName;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return String.format("Waiting for %s of memory on %s",
+                                 Utils.formatByteSize(bytes), nodeName);
+        }
+    }
+}
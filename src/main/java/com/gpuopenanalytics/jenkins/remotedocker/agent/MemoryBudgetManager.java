@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Tracks the memory reserved by containers on each node against the node's
+ * {@link MemoryBudgetNodeProperty}. A build whose containers do not fit waits
+ * in {@link NodeResourceManager#acquireAll} until enough memory is released.
+ * Nodes without a budget are only tracked.
+ */
+@Extension
+public class MemoryBudgetManager extends NodeResourceManager {
+
+    private final Map<String, NodeMemory> nodes = new HashMap<>();
+
+    public static MemoryBudgetManager get() {
+        return ExtensionList.lookupSingleton(MemoryBudgetManager.class);
+    }
+
+    /**
+     * Get the memory budget of the node
+     *
+     * @param node
+     * @return the budget in bytes or 0 if unlimited
+     */
+    public static long getBudget(@CheckForNull Node node) {
+        if (node == null) {
+            return 0;
+        }
+        MemoryBudgetNodeProperty property = node.getNodeProperties()
+                .get(MemoryBudgetNodeProperty.class);
+        return property != null ? property.getMemoryBudgetBytes() : 0;
+    }
+
+    /**
+     * Reserve memory for a container of the launcher's {@link LeaseOwner}
+     *
+     * @param launcher
+     * @param bytes
+     * @throws IOException            if the request exceeds the whole budget
+     * @throws ResourcesBusyException if the memory does not fit in the budget
+     *                                right now
+     */
+    public void reserve(AbstractDockerLauncher launcher,
+                        long bytes) throws IOException {
+        reserve(launcher, bytes, getBudget(Utils.getNode(launcher)));
+    }
+
+    /**
+     * @param budget the node's budget in bytes or 0 if unlimited
+     * @see #reserve(AbstractDockerLauncher, long)
+     */
+    void reserve(AbstractDockerLauncher launcher,
+                 long bytes,
+                 long budget) throws IOException {
+        LeaseOwner owner = launcher.getLeaseOwner();
+        String nodeName = owner.getNodeName();
+        NodeMemory memory = getNodeMemory(nodeName);
+        synchronized (memory) {
+            long reserved = memory.getReserved();
+            long total = bytes + memory.reservations.getOrDefault(owner, 0L);
+            if (budget > 0 && total > budget) {
+                throw new IOException(String.format(
+                        "Requested %s of memory, but the budget of %s is %s",
+                        Utils.formatByteSize(total), nodeName,
+                        Utils.formatByteSize(budget)));
+            }
+            if (budget > 0 && reserved + bytes > budget) {
+                throw new ResourcesBusyException(String.format(
+                        "Waiting for %s of memory on %s (%s of %s reserved)",
+                        Utils.formatByteSize(bytes), nodeName,
+                        Utils.formatByteSize(reserved),
+                        Utils.formatByteSize(budget)));
+            }
+            memory.reservations.merge(owner, bytes, Long::sum);
+        }
+    }
+
+    /**
+     * Whether a build needing the memory could start on the node right now
+     *
+     * @param node
+     * @param bytes
+     * @return
+     */
+    public boolean canFit(Node node, long bytes) {
+        long budget = getBudget(node);
+        return budget <= 0 || getReserved(Utils.getNodeName(node)) + bytes <= budget;
+    }
+
+    /**
+     * Get the memory currently reserved on the node
+     *
+     * @param nodeName
+     * @return bytes
+     */
+    public long getReserved(String nodeName) {
+        NodeMemory memory;
+        synchronized (nodes) {
+            memory = nodes.get(nodeName);
+        }
+        if (memory == null) {
+            return 0;
+        }
+        synchronized (memory) {
+            return memory.getReserved();
+        }
+    }
+
+    /**
+     * Get the reservations on the node
+     *
+     * @param nodeName
+     * @return owner to reserved bytes
+     */
+    public Map<LeaseOwner, Long> getReservations(String nodeName) {
+        NodeMemory memory;
+        synchronized (nodes) {
+            memory = nodes.get(nodeName);
+        }
+        if (memory == null) {
+            return new LinkedHashMap<>();
+        }
+        synchronized (memory) {
+            return new LinkedHashMap<>(memory.reservations);
+        }
+    }
+
+    @Override
+    public void release(LeaseOwner owner) {
+        release(o -> o.equals(owner));
+    }
+
+    @Override
+    public void releaseRun(String runId) {
+        release(o -> runId.equals(o.getRunId()));
+    }
+
+    /**
+     * @param owner
+     * @return the bytes reserved for the owner
+     */
+    @CheckForNull
+    @Override
+    public Serializable getLeases(LeaseOwner owner) {
+        NodeMemory memory;
+        synchronized (nodes) {
+            memory = nodes.get(owner.getNodeName());
+        }
+        if (memory == null) {
+            return null;
+        }
+        synchronized (memory) {
+            return memory.reservations.get(owner);
+        }
+    }
+
+    @Override
+    public boolean restore(LeaseOwner owner, Serializable leases) {
+        NodeMemory memory = getNodeMemory(owner.getNodeName());
+        synchronized (memory) {
+            //The containers already run, so the reservation may exceed the budget
+            memory.reservations.putIfAbsent(owner, (Long) leases);
+        }
+        return true;
+    }
+
+    private void release(Predicate<LeaseOwner> predicate) {
+        List<NodeMemory> all;
+        synchronized (nodes) {
+            all = new ArrayList<>(nodes.values());
+        }
+        boolean released = false;
+        for (NodeMemory memory : all) {
+            synchronized (memory) {
+                if (memory.reservations.keySet().removeIf(predicate)) {
+                    released = true;
+                }
+            }
+        }
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (released && jenkins != null) {
+            //Builds held back by MemoryBudgetDispatcher may fit now
+            jenkins.getQueue().scheduleMaintenance();
+        }
+    }
+
+    private NodeMemory getNodeMemory(String nodeName) {
+        synchronized (nodes) {
+            return nodes.computeIfAbsent(nodeName, n -> new NodeMemory());
+        }
+    }
+
+    private static class NodeMemory {
+
+        private final Map<LeaseOwner, Long> reservations = new LinkedHashMap<>();
+
+        private long getReserved() {
+            return reservations.values().stream().mapToLong(Long::longValue)
+                    .sum();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * The total memory, as passed with <code>-m</code>, that containers on a node
+ * may reserve at once
+ */
+public class MemoryBudgetNodeProperty extends NodeProperty<Node> {
+
+    private final String memoryBudget;
+
+    @DataBoundConstructor
+    public MemoryBudgetNodeProperty(String memoryBudget) {
+        this.memoryBudget = StringUtils.trimToNull(memoryBudget);
+    }
+
+    public String getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the budget in bytes or 0 if unlimited
+     */
+    public long getMemoryBudgetBytes() {
+        return memoryBudget == null ? 0 : Utils.parseByteSize(memoryBudget);
+    }
+
+    private void validate() throws Descriptor.FormException {
+        if (memoryBudget != null) {
+            try {
+                Utils.parseByteSize(memoryBudget);
+            } catch (IllegalArgumentException e) {
+                throw new Descriptor.FormException("Memory budget is not valid",
+                                                   "memoryBudget");
+            }
+        }
+    }
+
+    @Symbol("remoteDockerMemoryBudget")
+    @Extension
+    public static class DescriptorImpl extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "Remote Docker memory budget";
+        }
+
+        @Override
+        public NodeProperty<?> newInstance(StaplerRequest req,
+                                           JSONObject formData) throws FormException {
+            MemoryBudgetNodeProperty property = (MemoryBudgetNodeProperty) super.newInstance(
+                    req, formData);
+            property.validate();
+            return property;
+        }
+    }
+}
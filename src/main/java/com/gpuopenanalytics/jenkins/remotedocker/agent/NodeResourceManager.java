@@ -0,0 +1,310 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.TaskListener;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks resources handed out to builds on each node. Resources are leased to
+ * a {@link LeaseOwner} and must be released when the owner's containers are
+ * torn down. If teardown never happens (aborted build, agent crash), the
+ * leases are released when the build completes.
+ * <p>Managers never wait while holding leases. A launch leases everything it
+ * needs on the node in {@link #acquireAll}: if any manager throws {@link
+ * ResourcesBusyException}, all of the launch's leases are released and it
+ * tries again once other builds released theirs. Builds that had to wait are
+ * served in order so a large request is not starved by smaller ones.
+ */
+public abstract class NodeResourceManager implements ExtensionPoint {
+
+    private static final Logger LOGGER = Logger.getLogger(
+            NodeResourceManager.class.getName());
+
+    /**
+     * How often a waiting launch tries again even if nothing was released, in
+     * case the node's capacity, such as its memory budget, changed
+     */
+    private static final long RECHECK_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Map<String, NodeWaiters> WAITERS = new HashMap<>();
+
+    /**
+     * Release everything leased to the owner
+     *
+     * @param owner
+     */
+    public abstract void release(LeaseOwner owner);
+
+    /**
+     * Release everything leased to any owner belonging to the build
+     *
+     * @param runId the {@link hudson.model.Run#getExternalizableId()}
+     */
+    public abstract void releaseRun(String runId);
+
+    /**
+     * Get what is leased to the owner in a form that can be stored with the
+     * build and given to {@link #restore(LeaseOwner, Serializable)} after the
+     * controller restarted
+     *
+     * @param owner
+     * @return the leases or null if the owner has none
+     */
+    @CheckForNull
+    public Serializable getLeases(LeaseOwner owner) {
+        return null;
+    }
+
+    /**
+     * Lease again what {@link #getLeases(LeaseOwner)} returned before the
+     * controller restarted. Anything leased to another owner in the meantime
+     * is left to that owner.
+     *
+     * @param owner
+     * @param leases
+     * @return whether everything was leased again
+     */
+    public boolean restore(LeaseOwner owner, Serializable leases) {
+        return true;
+    }
+
+    public static ExtensionList<NodeResourceManager> all() {
+        return ExtensionList.lookup(NodeResourceManager.class);
+    }
+
+    /**
+     * Release the owner's leases from every manager
+     *
+     * @param owner
+     */
+    public static void releaseAll(LeaseOwner owner) {
+        for (NodeResourceManager manager : all()) {
+            try {
+                manager.release(owner);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING,
+                           "Failed to release resources of " + owner, e);
+            }
+        }
+        NodeWaiters waiters;
+        synchronized (WAITERS) {
+            waiters = WAITERS.get(owner.getNodeName());
+        }
+        if (waiters != null) {
+            waiters.signal();
+        }
+    }
+
+    /**
+     * Release the leases of every owner belonging to the build from every
+     * manager
+     *
+     * @param runId the {@link hudson.model.Run#getExternalizableId()}
+     */
+    public static void releaseAllOfRun(String runId) {
+        for (NodeResourceManager manager : all()) {
+            try {
+                manager.releaseRun(runId);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING,
+                           "Failed to release resources of " + runId, e);
+            }
+        }
+        List<NodeWaiters> all;
+        synchronized (WAITERS) {
+            all = new ArrayList<>(WAITERS.values());
+        }
+        all.forEach(NodeWaiters::signal);
+    }
+
+    /**
+     * Get the owner's leases from every manager
+     *
+     * @param owner
+     * @return the class name of each manager to its leases
+     */
+    public static HashMap<String, Serializable> getAllLeases(LeaseOwner owner) {
+        HashMap<String, Serializable> all = new HashMap<>();
+        for (NodeResourceManager manager : all()) {
+            Serializable leases = manager.getLeases(owner);
+            if (leases != null) {
+                all.put(manager.getClass().getName(), leases);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Lease again what {@link #getAllLeases(LeaseOwner)} returned before the
+     * controller restarted, since the managers only keep their leases in
+     * memory
+     *
+     * @param owner
+     * @param leases
+     */
+    public static void restoreAll(LeaseOwner owner,
+                                  Map<String, Serializable> leases) {
+        for (NodeResourceManager manager : all()) {
+            Serializable managerLeases = leases.get(manager.getClass().getName());
+            if (managerLeases == null) {
+                continue;
+            }
+            try {
+                if (!manager.restore(owner, managerLeases)) {
+                    LOGGER.log(Level.WARNING, String.format(
+                            "Some of the resources %s of %s were leased to another build after the restart",
+                            managerLeases, owner));
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING,
+                           "Failed to restore resources of " + owner, e);
+            }
+        }
+    }
+
+    /**
+     * Lease everything a launch needs on its node, or nothing. The attempt
+     * leases from the managers one by one. If one throws {@link
+     * ResourcesBusyException}, everything leased to the owner is released and
+     * the attempt is repeated after other builds released resources.
+     *
+     * @param owner
+     * @param listener where waiting is reported
+     * @param attempt
+     * @param <T>
+     * @return the result of the successful attempt
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static <T> T acquireAll(LeaseOwner owner,
+                                   TaskListener listener,
+                                   Attempt<T> attempt) throws IOException, InterruptedException {
+        NodeWaiters waiters;
+        synchronized (WAITERS) {
+            waiters = WAITERS.computeIfAbsent(owner.getNodeName(),
+                                              n -> new NodeWaiters());
+        }
+        long start = System.currentTimeMillis();
+        String waitingFor = null;
+        try {
+            while (true) {
+                long generation = waiters.awaitTurn(owner);
+                try {
+                    return attempt.call();
+                } catch (ResourcesBusyException e) {
+                    if (!e.getMessage().equals(waitingFor)) {
+                        listener.getLogger().println(e.getMessage());
+                        waitingFor = e.getMessage();
+                    }
+                    //Hold nothing while waiting so no two builds wait on each other
+                    releaseAll(owner);
+                    waiters.awaitRelease(owner, generation);
+                }
+            }
+        } finally {
+            waiters.leave(owner);
+            if (waitingFor != null) {
+                listener.getLogger().println(String.format(
+                        "Waited %d ms for node resources",
+                        System.currentTimeMillis() - start));
+            }
+        }
+    }
+
+    /**
+     * One try at leasing what a launch needs
+     *
+     * @param <T>
+     */
+    public interface Attempt<T> {
+
+        T call() throws IOException, InterruptedException;
+    }
+
+    /**
+     * The launches waiting for resources on a node, in order
+     */
+    private static class NodeWaiters {
+
+        private final LinkedList<LeaseOwner> queue = new LinkedList<>();
+        /**
+         * Counts releases on the node
+         */
+        private long generation;
+
+        /**
+         * Wait until no launch that waited longer is ahead of the owner
+         *
+         * @return the current generation
+         */
+        private synchronized long awaitTurn(LeaseOwner owner) throws InterruptedException {
+            while (!queue.isEmpty() && !owner.equals(queue.getFirst())) {
+                if (!queue.contains(owner)) {
+                    queue.add(owner);
+                }
+                wait(RECHECK_MILLIS);
+            }
+            return generation;
+        }
+
+        /**
+         * Queue the owner and wait until something was released since the
+         * failed attempt, other than by the owner itself
+         */
+        private synchronized void awaitRelease(LeaseOwner owner,
+                                               long attemptGeneration) throws InterruptedException {
+            if (!queue.contains(owner)) {
+                queue.add(owner);
+            }
+            if (generation <= attemptGeneration + 1) {
+                wait(RECHECK_MILLIS);
+            }
+        }
+
+        private synchronized void leave(LeaseOwner owner) {
+            queue.remove(owner);
+            notifyAll();
+        }
+
+        private synchronized void signal() {
+            generation++;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.google.common.collect.ImmutableSortedMap;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The NUMA nodes of a machine and the CPUs in each, read from
+ * <code>/sys/devices/system/node</code>. Machines without NUMA information are
+ * treated as a single node 0 holding all CPUs.
+ */
+public class NumaTopology implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern NODE_DIR_PATTERN = Pattern.compile(
+            "node(\\d+)");
+    private static final Pattern GPU_ROW_PATTERN = Pattern.compile(
+            "GPU(\\d+)");
+    private static final Pattern ANSI_PATTERN = Pattern.compile(
+            "\u001B\\[[0-9;]*m");
+    private static final String SYSFS = "/sys";
+
+    private final SortedMap<Integer, SortedSet<Integer>> cpusByNode;
+
+    private NumaTopology(SortedMap<Integer, SortedSet<Integer>> cpusByNode) {
+        this.cpusByNode = ImmutableSortedMap.copyOfSorted(cpusByNode);
+    }
+
+    /**
+     * Build the topology from the <code>cpulist</code> of each NUMA node
+     *
+     * @param cpuListByNode NUMA node to CPU list such as
+     *                      <code>0-19,40-59</code>
+     * @return
+     */
+    public static NumaTopology parse(Map<Integer, String> cpuListByNode) {
+        SortedMap<Integer, SortedSet<Integer>> cpusByNode = new TreeMap<>();
+        for (Map.Entry<Integer, String> entry : cpuListByNode.entrySet()) {
+            SortedSet<Integer> cpus = parseCpuList(entry.getValue());
+            if (!cpus.isEmpty()) {
+                cpusByNode.put(entry.getKey(), cpus);
+            }
+        }
+        return new NumaTopology(cpusByNode);
+    }
+
+    /**
+     * Parse a Linux CPU list such as <code>0-3,8,10-11</code>
+     *
+     * @param cpuList
+     * @return the CPUs, empty if the list is empty or cannot be parsed
+     */
+    public static SortedSet<Integer> parseCpuList(String cpuList) {
+        SortedSet<Integer> cpus = new TreeSet<>();
+        for (String range : cpuList.trim().split(",")) {
+            String[] bounds = range.trim().split("-");
+            try {
+                if (bounds.length == 1 && !bounds[0].isEmpty()) {
+                    cpus.add(Integer.parseInt(bounds[0]));
+                } else if (bounds.length == 2) {
+                    int end = Integer.parseInt(bounds[1]);
+                    for (int i = Integer.parseInt(bounds[0]); i <= end; i++) {
+                        cpus.add(i);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return new TreeSet<>();
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * Format CPUs, or NUMA nodes, as a list such as <code>0-3,8</code> as
+     * accepted by <code>--cpuset-cpus</code> and <code>--cpuset-mems</code>
+     *
+     * @param cpus
+     * @return
+     */
+    public static String formatCpuList(Collection<Integer> cpus) {
+        List<String> ranges = new ArrayList<>();
+        Integer start = null;
+        Integer previous = null;
+        for (int cpu : new TreeSet<>(cpus)) {
+            if (previous == null || cpu != previous + 1) {
+                if (start != null) {
+                    ranges.add(formatRange(start, previous));
+                }
+                start = cpu;
+            }
+            previous = cpu;
+        }
+        if (start != null) {
+            ranges.add(formatRange(start, previous));
+        }
+        return String.join(",", ranges);
+    }
+
+    private static String formatRange(int start, int end) {
+        return start == end ? Integer.toString(start) : start + "-" + end;
+    }
+
+    /**
+     * Parse the NUMA nodes of each GPU from <code>nvidia-smi topo -m</code>
+     * such as:
+     * <pre>
+     * 	GPU0	GPU1	CPU Affinity	NUMA Affinity
+     * GPU0	 X 	NV2	0-19,40-59	0
+     * GPU1	NV2	 X 	20-39,60-79	1
+     * </pre>
+     * Older drivers lack the NUMA Affinity column, in which case the nodes
+     * holding the GPU's CPU affinity are used.
+     *
+     * @param output
+     * @return GPU index to its NUMA nodes; GPUs without known affinity are
+     * omitted
+     */
+    public Map<Integer, SortedSet<Integer>> parseGpuAffinity(String output) {
+        Map<Integer, SortedSet<Integer>> affinity = new HashMap<>();
+        int cpuColumn = -1;
+        int numaColumn = -1;
+        for (String line : output.split("\\r?\\n")) {
+            String[] cells = ANSI_PATTERN.matcher(line).replaceAll("")
+                    .split("\t");
+            if (cpuColumn < 0) {
+                for (int i = 0; i < cells.length; i++) {
+                    String header = cells[i].trim();
+                    if ("CPU Affinity".equals(header)) {
+                        cpuColumn = i;
+                    } else if ("NUMA Affinity".equals(header)) {
+                        numaColumn = i;
+                    }
+                }
+                continue;
+            }
+            Matcher m = GPU_ROW_PATTERN.matcher(cells[0].trim());
+            if (!m.matches()) {
+                continue;
+            }
+            SortedSet<Integer> nodes = new TreeSet<>();
+            if (numaColumn > 0 && numaColumn < cells.length) {
+                nodes.addAll(parseCpuList(cells[numaColumn]));
+            }
+            if (nodes.isEmpty() && cpuColumn < cells.length) {
+                nodes.addAll(getNodesOf(parseCpuList(cells[cpuColumn])));
+            }
+            nodes.retainAll(cpusByNode.keySet());
+            if (!nodes.isEmpty()) {
+                affinity.put(Integer.parseInt(m.group(1)), nodes);
+            }
+        }
+        return affinity;
+    }
+
+    public SortedSet<Integer> getNodes() {
+        return new TreeSet<>(cpusByNode.keySet());
+    }
+
+    public SortedSet<Integer> getCpus(int node) {
+        SortedSet<Integer> cpus = cpusByNode.get(node);
+        return cpus != null ? cpus : Collections.emptySortedSet();
+    }
+
+    public SortedSet<Integer> getAllCpus() {
+        SortedSet<Integer> all = new TreeSet<>();
+        cpusByNode.values().forEach(all::addAll);
+        return all;
+    }
+
+    /**
+     * Get the NUMA nodes holding any of the CPUs
+     *
+     * @param cpus
+     * @return
+     */
+    public SortedSet<Integer> getNodesOf(Collection<Integer> cpus) {
+        SortedSet<Integer> nodes = new TreeSet<>();
+        for (Map.Entry<Integer, SortedSet<Integer>> entry : cpusByNode.entrySet()) {
+            if (!Collections.disjoint(entry.getValue(), cpus)) {
+                nodes.add(entry.getKey());
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Reads the topology on the agent
+     */
+    public static class Reader extends MasterToSlaveCallable<NumaTopology, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File sysfs;
+
+        public Reader() {
+            this(new File(SYSFS));
+        }
+
+        /**
+         * @param sysfs where sysfs is mounted
+         */
+        Reader(File sysfs) {
+            this.sysfs = sysfs;
+        }
+
+        @Override
+        public NumaTopology call() throws IOException {
+            Map<Integer, String> cpuLists = new HashMap<>();
+            File[] nodeDirs = new File(sysfs, "devices/system/node").listFiles();
+            if (nodeDirs != null) {
+                for (File dir : nodeDirs) {
+                    Matcher m = NODE_DIR_PATTERN.matcher(dir.getName());
+                    File cpuList = new File(dir, "cpulist");
+                    if (m.matches() && cpuList.isFile()) {
+                        cpuLists.put(Integer.parseInt(m.group(1)),
+                                     read(cpuList));
+                    }
+                }
+            }
+            if (cpuLists.isEmpty()) {
+                File online = new File(sysfs, "devices/system/cpu/online");
+                cpuLists.put(0, online.isFile() ? read(online)
+                        : "0-" + (Runtime.getRuntime().availableProcessors() - 1));
+            }
+            return parse(cpuLists);
+        }
+    }
+
+    /**
+     * Reads the NUMA node of PCI devices from sysfs on the agent, for when
+     * <code>nvidia-smi topo -m</code> is unavailable
+     */
+    public static class PciNodeReader extends MasterToSlaveCallable<Map<String, Integer>, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File sysfs;
+        private final Collection<String> busIds;
+
+        /**
+         * @param busIds PCI bus ids as printed by nvidia-smi such as
+         *               <code>00000000:3B:00.0</code>
+         */
+        public PciNodeReader(Collection<String> busIds) {
+            this(new File(SYSFS), busIds);
+        }
+
+        /**
+         * @param sysfs  where sysfs is mounted
+         * @param busIds
+         */
+        PciNodeReader(File sysfs, Collection<String> busIds) {
+            this.sysfs = sysfs;
+            this.busIds = new ArrayList<>(busIds);
+        }
+
+        @Override
+        public Map<String, Integer> call() throws IOException {
+            Map<String, Integer> nodes = new HashMap<>();
+            for (String busId : busIds) {
+                File file = new File(sysfs, "bus/pci/devices/"
+                        + toSysfsBusId(busId) + "/numa_node");
+                if (file.isFile()) {
+                    try {
+                        int node = Integer.parseInt(read(file));
+                        if (node >= 0) {
+                            nodes.put(busId, node);
+                        }
+                    } catch (NumberFormatException e) {
+                        //Leave unknown
+                    }
+                }
+            }
+            return nodes;
+        }
+    }
+
+    /**
+     * Convert an nvidia-smi PCI bus id, which has an 8 digit domain, to the
+     * sysfs name with a 4 digit domain: <code>00000000:3B:00.0</code> becomes
+     * <code>0000:3b:00.0</code>
+     *
+     * @param busId
+     * @return
+     */
+    static String toSysfsBusId(String busId) {
+        String id = busId.trim().toLowerCase();
+        int colon = id.indexOf(':');
+        return colon > 4 ? id.substring(colon - 4) : id;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                          StandardCharsets.UTF_8).trim();
+    }
+}
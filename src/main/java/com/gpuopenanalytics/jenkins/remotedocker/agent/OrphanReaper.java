@@ -0,0 +1,296 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.DockerBatch;
+import com.gpuopenanalytics.jenkins.remotedocker.DockerState;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.slaves.ComputerListener;
+import hudson.util.ArgumentListBuilder;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes the containers and networks that this controller created, found by
+ * their labels, whose build is no longer running, for example because the
+ * agent or controller crashed before tearing them down. Every node is swept
+ * periodically and when it comes online.
+ * Those of builds configured not to remove their containers are kept.
+ */
+@Extension
+public class OrphanReaper extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(
+            OrphanReaper.class.getName());
+
+    private static final long PERIOD_MINUTES = SystemProperties.getLong(
+            OrphanReaper.class.getName() + ".periodMinutes", 30L);
+    /**
+     * Resources younger than this are left alone, their build might still be
+     * starting
+     */
+    private static final long GRACE_MINUTES = SystemProperties.getLong(
+            OrphanReaper.class.getName() + ".graceMinutes", 10L);
+
+    private static final String FORMAT = "{{.ID}}\t{{.Label \"" + DockerState.JOB_LABEL
+            + "\"}}\t{{.Label \"" + DockerState.BUILD_LABEL
+            + "\"}}\t{{.Label \"" + DockerState.CREATED_LABEL
+            + "\"}}\t{{.Label \"" + DockerState.KEEP_LABEL + "\"}}";
+
+    private final Map<String, SweepResult> results = new HashMap<>();
+
+    public OrphanReaper() {
+        super("Remote Docker orphan reaper");
+    }
+
+    public static OrphanReaper get() {
+        return ExtensionList.lookupSingleton(OrphanReaper.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(PERIOD_MINUTES);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        for (Computer computer : Jenkins.get().getComputers()) {
+            if (computer.isOnline()) {
+                sweep(computer, listener);
+            }
+        }
+    }
+
+    /**
+     * Get the result of the last sweep of the node
+     *
+     * @param nodeName
+     * @return the result or null if the node was not swept yet
+     */
+    @CheckForNull
+    public SweepResult getLastSweep(String nodeName) {
+        synchronized (results) {
+            return results.get(nodeName);
+        }
+    }
+
+    /**
+     * Remove the orphaned containers and networks of the node
+     *
+     * @param computer
+     * @param listener
+     * @throws InterruptedException
+     */
+    public void sweep(Computer computer,
+                      TaskListener listener) throws InterruptedException {
+        VirtualChannel channel = computer.getChannel();
+        if (channel == null) {
+            return;
+        }
+        String nodeName = Utils.getNodeName(computer);
+        SweepResult result = new SweepResult();
+        try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+            String filter = "label=" + DockerState.CONTROLLER_LABEL + "="
+                    + Jenkins.get().getLegacyInstanceId();
+            List<DockerBatch.Result> listed = new DockerBatch()
+                    .add(new ArgumentListBuilder("ps", "-a", "--filter",
+                                                 filter, "--format", FORMAT),
+                         true, false)
+                    .add(new ArgumentListBuilder("network", "ls", "--filter",
+                                                 filter, "--format", FORMAT),
+                         true, false)
+                    .execute(channel, listener);
+            if (!listed.get(0).isSuccess()) {
+                result.error = "docker ps failed with status " + listed.get(0)
+                        .getStatus();
+            } else {
+                long now = System.currentTimeMillis();
+                List<String> containers = findOrphans(
+                        listed.get(0).getStdout(), now);
+                List<String> networks = listed.get(1).isSuccess()
+                        ? findOrphans(listed.get(1).getStdout(), now)
+                        : Collections.emptyList();
+                //Containers first, networks cannot be removed while in use
+                DockerBatch remove = new DockerBatch();
+                containers.forEach(id -> remove.add(
+                        new ArgumentListBuilder("rm", "-f", id), true, false));
+                networks.forEach(id -> remove.add(
+                        new ArgumentListBuilder("network", "rm", id), true,
+                        false));
+                List<DockerBatch.Result> removed = remove.execute(channel,
+                                                                  listener);
+                for (int i = 0; i < removed.size(); i++) {
+                    boolean container = i < containers.size();
+                    if (!removed.get(i).isSuccess()) {
+                        result.failed++;
+                    } else if (container) {
+                        result.removedContainers.add(containers.get(i));
+                    } else {
+                        result.removedNetworks.add(
+                                networks.get(i - containers.size()));
+                    }
+                }
+                if (!containers.isEmpty() || !networks.isEmpty()) {
+                    listener.getLogger().println(String.format(
+                            "Removed orphaned containers %s and networks %s on %s",
+                            result.removedContainers, result.removedNetworks,
+                            nodeName));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to sweep " + nodeName, e);
+            result.error = e.toString();
+        }
+        synchronized (results) {
+            results.put(nodeName, result);
+        }
+    }
+
+    /**
+     * Parse the output of <code>docker ps</code> or <code>docker network
+     * ls</code> in {@link #FORMAT} and keep the IDs whose build is not
+     * running
+     */
+    private static List<String> findOrphans(String output, long now) {
+        List<String> orphans = new ArrayList<>();
+        for (String line : output.split("\\r?\\n")) {
+            String[] parts = line.split("\t", -1);
+            if (parts.length == 5 && isOrphan(parts[1], parts[2], parts[3],
+                                              parts[4], now)) {
+                orphans.add(parts[0]);
+            }
+        }
+        return orphans;
+    }
+
+    static boolean isOrphan(String job,
+                            String build,
+                            String created,
+                            String keep,
+                            long now) {
+        if (Boolean.parseBoolean(keep)) {
+            //The build was configured to keep its containers
+            return false;
+        }
+        try {
+            if (now - Long.parseLong(created) < TimeUnit.MINUTES.toMillis(
+                    GRACE_MINUTES)) {
+                return false;
+            }
+            if (job.isEmpty()) {
+                //Not created for a build, nothing to check against
+                return false;
+            }
+            Job<?, ?> item = Jenkins.get().getItemByFullName(job, Job.class);
+            if (item == null) {
+                return true;
+            }
+            Run<?, ?> run = item.getBuildByNumber(Integer.parseInt(build));
+            return run == null || !run.isBuilding();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Outcome of sweeping a node
+     */
+    public static class SweepResult {
+
+        private final long time = System.currentTimeMillis();
+        private final List<String> removedContainers = new ArrayList<>();
+        private final List<String> removedNetworks = new ArrayList<>();
+        private int failed;
+        private String error;
+
+        public String getTimeAgo() {
+            return Util.getTimeSpanString(System.currentTimeMillis() - time);
+        }
+
+        public List<String> getRemovedContainers() {
+            return removedContainers;
+        }
+
+        public List<String> getRemovedNetworks() {
+            return removedNetworks;
+        }
+
+        /**
+         * Number of orphans that could not be removed
+         *
+         * @return
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Why the node could not be swept, if it could not
+         *
+         * @return
+         */
+        @CheckForNull
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Sweep an agent when it connects, it might have come back after a crash
+     */
+    @Extension
+    public static class SweepOnConnect extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Computer.threadPoolForRemoting.submit(() -> {
+                get().sweep(c, listener);
+                return null;
+            });
+        }
+    }
+}
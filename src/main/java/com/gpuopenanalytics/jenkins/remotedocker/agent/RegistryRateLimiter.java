@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import jenkins.util.SystemProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets limiting the rate of <code>docker pull</code> per registry,
+ * shared by all executors of a node. A pull that was throttled by the
+ * registry empties the bucket so the other executors of the node back off
+ * too.
+ */
+@Extension
+public class RegistryRateLimiter {
+
+    private static final int BURST = SystemProperties.getInteger(
+            RegistryRateLimiter.class.getName() + ".burst", 5);
+    private static final int PULLS_PER_MINUTE = SystemProperties.getInteger(
+            RegistryRateLimiter.class.getName() + ".pullsPerMinute", 30);
+
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final int burst;
+    private final double perNano;
+
+    public RegistryRateLimiter() {
+        this(BURST, PULLS_PER_MINUTE);
+    }
+
+    /**
+     * @param burst          pulls that can start at once
+     * @param pullsPerMinute pulls that can start per minute after the burst
+     */
+    RegistryRateLimiter(int burst, int pullsPerMinute) {
+        this.burst = Math.max(1, burst);
+        this.perNano = Math.max(1, pullsPerMinute)
+                / (double) TimeUnit.MINUTES.toNanos(1);
+    }
+
+    public static RegistryRateLimiter get() {
+        return ExtensionList.lookupSingleton(RegistryRateLimiter.class);
+    }
+
+    /**
+     * Get the registry that an image reference such as
+     * <code>nvidia/cuda:11.0-base</code> or
+     * <code>registry.example.com:5000/team/image</code> is pulled from
+     *
+     * @param image
+     * @return the registry host, <code>docker.io</code> for Docker Hub
+     */
+    public static String getRegistry(String image) {
+        int slash = image.indexOf('/');
+        if (slash > 0) {
+            String first = image.substring(0, slash);
+            if (first.contains(".") || first.contains(":")
+                    || "localhost".equals(first)) {
+                return first;
+            }
+        }
+        return "docker.io";
+    }
+
+    /**
+     * Take a token for pulling from the registry on the node, waiting until
+     * one is available
+     *
+     * @param nodeName
+     * @param registry
+     * @return how long was waited in milliseconds
+     * @throws InterruptedException
+     */
+    public long acquire(String nodeName,
+                        String registry) throws InterruptedException {
+        return getBucket(nodeName, registry).take();
+    }
+
+    /**
+     * Tell the node's bucket for the registry that a pull was throttled
+     *
+     * @param nodeName
+     * @param registry
+     */
+    public void throttled(String nodeName, String registry) {
+        getBucket(nodeName, registry).drain();
+    }
+
+    private Bucket getBucket(String nodeName, String registry) {
+        synchronized (buckets) {
+            return buckets.computeIfAbsent(nodeName + "\u0000" + registry,
+                                           k -> new Bucket(burst, perNano));
+        }
+    }
+
+    private static class Bucket {
+
+        private final int burst;
+        private final double perNano;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        private Bucket(int burst, double perNano) {
+            this.burst = burst;
+            this.perNano = perNano;
+            this.tokens = burst;
+        }
+
+        private synchronized long take() throws InterruptedException {
+            long start = System.nanoTime();
+            refill();
+            while (tokens < 1) {
+                long nanos = (long) Math.ceil((1 - tokens) / perNano);
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+                refill();
+            }
+            tokens -= 1;
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+
+        private synchronized void drain() {
+            refill();
+            tokens = 0;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilled) * perNano);
+            refilled = now;
+        }
+    }
+}
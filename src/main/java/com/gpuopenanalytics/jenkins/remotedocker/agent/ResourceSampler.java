@@ -0,0 +1,613 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.DockerAction;
+import com.gpuopenanalytics.jenkins.remotedocker.MemoryHistory;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.model.Run;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.security.MasterToSlaveCallable;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Samples the CPU, memory, block I/O and network usage of containers while
+ * they run. Sampling happens on the agent, on a single thread shared by all
+ * containers of the agent, by reading the container's cgroup files. If those
+ * cannot be found, for example because the agent itself runs in a container,
+ * <code>docker stats</code> is used instead.
+ * <p>The controller starts sampling after a container is created and
+ * collects the series when the containers are torn down, adding the main
+ * container's peak memory to the job's {@link MemoryHistory}.
+ */
+public class ResourceSampler {
+
+    private static final Logger LOGGER = Logger.getLogger(
+            ResourceSampler.class.getName());
+
+    /**
+     * Series of containers that stopped, for example because they were
+     * removed without being collected, are dropped after this long
+     */
+    private static final long ABANDONED_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Containers sampling was started for, so tear down only calls the agent
+     * when needed
+     */
+    private static final Set<String> STARTED = new HashSet<>();
+
+    //Agent side state
+    private static ScheduledExecutorService executor;
+    private static final Map<String, Sampling> SAMPLINGS = new HashMap<>();
+
+    private ResourceSampler() {
+    }
+
+    /**
+     * Start sampling the launcher's current container on its agent
+     *
+     * @param launcher
+     * @param intervalSeconds
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void start(AbstractDockerLauncher launcher,
+                             int intervalSeconds) throws IOException, InterruptedException {
+        String containerId = launcher.getMainContainerId();
+        ArgumentListBuilder args = new ArgumentListBuilder(
+                "inspect", "-f", "{{.State.Pid}} {{.HostConfig.Memory}}",
+                containerId);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int status = launcher.executeCommand(args)
+                .stdout(baos)
+                .stderr(launcher.getListener().getLogger())
+                .join();
+        if (status != 0) {
+            throw new IOException("Could not inspect container " + containerId);
+        }
+        String[] inspected = baos.toString(StandardCharsets.UTF_8.name())
+                .trim().split(" ");
+        int pid = Integer.parseInt(inspected[0]);
+        //0 if the container has no memory limit
+        long memoryLimit = inspected.length > 1 ? Long.parseLong(
+                inspected[1]) : 0;
+        boolean cgroups = launcher.call(
+                new Start(containerId, pid, memoryLimit, intervalSeconds));
+        synchronized (STARTED) {
+            STARTED.add(containerId);
+        }
+        if (launcher.isDebug()) {
+            launcher.getListener().getLogger().println(String.format(
+                    "Sampling resource usage of %s every %ds using %s",
+                    containerId, intervalSeconds,
+                    cgroups ? "cgroups" : "docker stats"));
+        }
+    }
+
+    /**
+     * Stop sampling the containers and attach their series to the build,
+     * which is saved. Does nothing for containers that were not sampled.
+     *
+     * @param launcher
+     * @param containerIds
+     * @param mainContainerId
+     */
+    public static void collect(AbstractDockerLauncher launcher,
+                               Collection<String> containerIds,
+                               String mainContainerId) {
+        List<String> sampled = new ArrayList<>();
+        synchronized (STARTED) {
+            for (String id : containerIds) {
+                if (STARTED.remove(id)) {
+                    sampled.add(id);
+                }
+            }
+        }
+        if (sampled.isEmpty()) {
+            return;
+        }
+        try {
+            Map<String, ResourceSeries> series = launcher.call(
+                    new Stop(sampled));
+            Run<?, ?> run = launcher.getRun();
+            if (run == null) {
+                return;
+            }
+            DockerAction action = DockerAction.getOrCreate(run);
+            for (Map.Entry<String, ResourceSeries> entry : series.entrySet()) {
+                String shortId = entry.getKey().substring(0, Math.min(12, entry.getKey().length()));
+                String attachment = writeAttachment(run, shortId,
+                                                    entry.getValue());
+                ContainerUsage usage = new ContainerUsage(
+                        shortId, entry.getKey().equals(mainContainerId),
+                        entry.getValue(), attachment);
+                action.addContainerUsage(usage);
+                MemoryHistory.record(run, usage, launcher.getListener());
+            }
+            run.save();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to collect resource usage", e);
+            Run<?, ?> run = launcher.getRun();
+            if (run == null || run.isLogUpdated()) {
+                launcher.getListener().error("Failed to collect resource usage: "
+                                                     + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the series as gzipped CSV in the build directory
+     *
+     * @return the path relative to the build directory
+     */
+    private static String writeAttachment(Run<?, ?> run,
+                                          String shortId,
+                                          ResourceSeries series) throws IOException {
+        String name = "remote-docker/usage-" + shortId + ".csv.gz";
+        File file = new File(run.getRootDir(), name);
+        Files.createDirectories(file.getParentFile().toPath());
+        try (Writer writer = new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(file)),
+                StandardCharsets.UTF_8)) {
+            series.writeCsv(writer);
+        }
+        return name;
+    }
+
+    /**
+     * Paths of the cgroup files of a process, for cgroup v1 or v2
+     */
+    static class CgroupFiles {
+
+        final File memory;
+        final File cpu;
+        final boolean cpuInNanos;
+        final File blkio;
+        final boolean v2;
+
+        CgroupFiles(File memory, File cpu, boolean cpuInNanos, File blkio,
+                    boolean v2) {
+            this.memory = memory;
+            this.cpu = cpu;
+            this.cpuInNanos = cpuInNanos;
+            this.blkio = blkio;
+            this.v2 = v2;
+        }
+    }
+
+    /**
+     * Find the cgroup files from the contents of <code>/proc/PID/cgroup</code>
+     *
+     * @param procCgroup
+     * @param root       usually <code>/sys/fs/cgroup</code>
+     * @return the files or null if the controllers are not found
+     */
+    @CheckForNull
+    static CgroupFiles parseProcCgroup(String procCgroup, File root) {
+        String memory = null;
+        String cpu = null;
+        String blkio = null;
+        String unified = null;
+        for (String line : procCgroup.split("\\r?\\n")) {
+            String[] parts = line.split(":", 3);
+            if (parts.length != 3) {
+                continue;
+            }
+            if (parts[1].isEmpty()) {
+                unified = parts[2];
+            }
+            for (String controller : parts[1].split(",")) {
+                if ("memory".equals(controller)) {
+                    memory = parts[1] + parts[2];
+                } else if ("cpuacct".equals(controller)) {
+                    cpu = parts[1] + parts[2];
+                } else if ("blkio".equals(controller)) {
+                    blkio = parts[1] + parts[2];
+                }
+            }
+        }
+        if (memory != null && cpu != null) {
+            //cgroup v1: hierarchy names such as "cpu,cpuacct" are directories
+            return new CgroupFiles(
+                    new File(new File(root, memory), "memory.usage_in_bytes"),
+                    new File(new File(root, cpu), "cpuacct.usage"),
+                    true,
+                    blkio != null ? new File(new File(root, blkio),
+                                             "blkio.throttle.io_service_bytes") : null,
+                    false);
+        }
+        if (unified != null) {
+            File dir = new File(root, unified);
+            return new CgroupFiles(new File(dir, "memory.current"),
+                                   new File(dir, "cpu.stat"), false,
+                                   new File(dir, "io.stat"), true);
+        }
+        return null;
+    }
+
+    /**
+     * Parse <code>usage_usec</code> from a cgroup v2 <code>cpu.stat</code>
+     *
+     * @param cpuStat
+     * @return CPU time in nanoseconds or -1
+     */
+    static long parseCpuStat(String cpuStat) {
+        for (String line : cpuStat.split("\\r?\\n")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 2 && "usage_usec".equals(parts[0])) {
+                return Long.parseLong(parts[1]) * 1000;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sum the bytes read and written from a cgroup v2 <code>io.stat</code>
+     * such as <code>8:0 rbytes=1024 wbytes=2048 rios=1 wios=2</code>
+     *
+     * @param ioStat
+     * @return read and written bytes
+     */
+    static long[] parseIoStat(String ioStat) {
+        long[] rw = new long[2];
+        for (String line : ioStat.split("\\r?\\n")) {
+            for (String field : line.trim().split("\\s+")) {
+                if (field.startsWith("rbytes=")) {
+                    rw[0] += Long.parseLong(field.substring(7));
+                } else if (field.startsWith("wbytes=")) {
+                    rw[1] += Long.parseLong(field.substring(7));
+                }
+            }
+        }
+        return rw;
+    }
+
+    /**
+     * Sum the bytes read and written from a cgroup v1
+     * <code>blkio.throttle.io_service_bytes</code> such as
+     * <code>8:0 Read 1024</code>
+     *
+     * @param serviceBytes
+     * @return read and written bytes
+     */
+    static long[] parseBlkio(String serviceBytes) {
+        long[] rw = new long[2];
+        for (String line : serviceBytes.split("\\r?\\n")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 3) {
+                if ("Read".equals(parts[1])) {
+                    rw[0] += Long.parseLong(parts[2]);
+                } else if ("Write".equals(parts[1])) {
+                    rw[1] += Long.parseLong(parts[2]);
+                }
+            }
+        }
+        return rw;
+    }
+
+    /**
+     * Sum the received and sent bytes of all interfaces but loopback from
+     * <code>/proc/PID/net/dev</code>
+     *
+     * @param netDev
+     * @return received and sent bytes
+     */
+    static long[] parseNetDev(String netDev) {
+        long[] rxTx = new long[2];
+        for (String line : netDev.split("\\r?\\n")) {
+            int colon = line.indexOf(':');
+            if (colon < 0 || "lo".equals(line.substring(0, colon).trim())) {
+                continue;
+            }
+            String[] fields = line.substring(colon + 1).trim().split("\\s+");
+            if (fields.length >= 9) {
+                rxTx[0] += Long.parseLong(fields[0]);
+                rxTx[1] += Long.parseLong(fields[8]);
+            }
+        }
+        return rxTx;
+    }
+
+    /**
+     * Parse a line of <code>docker stats --no-stream --format
+     * "{{.CPUPerc}}|{{.MemUsage}}|{{.BlockIO}}|{{.NetIO}}"</code> such as
+     * <code>3.45%|1.2GiB / 8GiB|1.2MB / 0B|648B / 0B</code>
+     *
+     * @param line
+     * @return CPU millicores, memory, block read, block write, net rx and net
+     * tx bytes, or null if the line cannot be parsed
+     */
+    @CheckForNull
+    static long[] parseStatsLine(String line) {
+        String[] parts = line.trim().split("\\|");
+        if (parts.length != 4 || !parts[0].endsWith("%")) {
+            return null;
+        }
+        try {
+            long cpu = Math.round(Double.parseDouble(
+                    parts[0].substring(0, parts[0].length() - 1)) * 10);
+            String[] mem = parts[1].split("/");
+            String[] block = parts[2].split("/");
+            String[] net = parts[3].split("/");
+            if (block.length != 2 || net.length != 2) {
+                return null;
+            }
+            return new long[]{
+                    cpu,
+                    Utils.parseHumanSize(mem[0].trim()),
+                    Utils.parseHumanSize(block[0].trim()),
+                    Utils.parseHumanSize(block[1].trim()),
+                    Utils.parseHumanSize(net[0].trim()),
+                    Utils.parseHumanSize(net[1].trim())
+            };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                          StandardCharsets.UTF_8);
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(),
+                                            "Remote Docker resource sampler"));
+        }
+        return executor;
+    }
+
+    /**
+     * Agent side sampling of one container
+     */
+    private static class Sampling implements Runnable {
+
+        private final String containerId;
+        private final int pid;
+        @CheckForNull
+        private final CgroupFiles cgroups;
+        private final String docker;
+        private final ResourceSeries series = new ResourceSeries();
+        private final long start = System.nanoTime();
+        private volatile ScheduledFuture<?> future;
+        private long lastCpuNanos = -1;
+        private long lastSampleNanos;
+        private int failures;
+        private volatile long stoppedAt;
+
+        private Sampling(String containerId, int pid,
+                         @CheckForNull CgroupFiles cgroups,
+                         String docker) {
+            this.containerId = containerId;
+            this.pid = pid;
+            this.cgroups = cgroups;
+            this.docker = docker;
+        }
+
+        @Override
+        public void run() {
+            if (stoppedAt != 0) {
+                stop();
+                return;
+            }
+            try {
+                if (cgroups != null) {
+                    sampleCgroups();
+                } else {
+                    sampleDockerStats();
+                }
+                failures = 0;
+            } catch (IOException | RuntimeException e) {
+                //The container is most likely gone
+                if (++failures >= 3) {
+                    stop();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stop();
+            }
+        }
+
+        private void sampleCgroups() throws IOException {
+            long now = System.nanoTime();
+            long memory = Long.parseLong(read(cgroups.memory).trim());
+            String cpuText = read(cgroups.cpu).trim();
+            long cpuNanos = cgroups.cpuInNanos ? Long.parseLong(
+                    cpuText) : parseCpuStat(cpuText);
+            long[] block = new long[2];
+            if (cgroups.blkio != null && cgroups.blkio.isFile()) {
+                String text = read(cgroups.blkio);
+                block = cgroups.v2 ? parseIoStat(text) : parseBlkio(text);
+            }
+            long[] net = new long[2];
+            File netDev = new File("/proc/" + pid + "/net/dev");
+            if (netDev.isFile()) {
+                net = parseNetDev(read(netDev));
+            }
+            long millicores = 0;
+            if (lastCpuNanos >= 0 && now > lastSampleNanos) {
+                millicores = (cpuNanos - lastCpuNanos) * 1000 / (now - lastSampleNanos);
+            }
+            lastCpuNanos = cpuNanos;
+            lastSampleNanos = now;
+            series.add(TimeUnit.NANOSECONDS.toMillis(now - start), millicores,
+                       memory, block[0], block[1], net[0], net[1]);
+        }
+
+        private void sampleDockerStats() throws IOException, InterruptedException {
+            Process process = new ProcessBuilder(
+                    docker, "stats", "--no-stream", "--format",
+                    "{{.CPUPerc}}|{{.MemUsage}}|{{.BlockIO}}|{{.NetIO}}",
+                    containerId)
+                    .redirectErrorStream(true)
+                    .start();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = process.getInputStream()) {
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (process.waitFor() != 0) {
+                throw new IOException("docker stats failed: " + out);
+            }
+            long[] stats = parseStatsLine(
+                    out.toString(StandardCharsets.UTF_8.name()));
+            if (stats == null) {
+                throw new IOException("Unexpected docker stats output: " + out);
+            }
+            series.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                       stats[0], stats[1], stats[2], stats[3], stats[4],
+                       stats[5]);
+        }
+
+        private void stop() {
+            if (future != null) {
+                future.cancel(false);
+            }
+            if (stoppedAt == 0) {
+                stoppedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Start sampling a container on the agent
+     */
+    private static class Start extends MasterToSlaveCallable<Boolean, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String containerId;
+        private final int pid;
+        private final long memoryLimit;
+        private final int intervalSeconds;
+        private final String docker = AbstractDockerLauncher.getDockerExecutable();
+
+        private Start(String containerId,
+                      int pid,
+                      long memoryLimit,
+                      int intervalSeconds) {
+            this.containerId = containerId;
+            this.pid = pid;
+            this.memoryLimit = memoryLimit;
+            this.intervalSeconds = intervalSeconds;
+        }
+
+        /**
+         * @return whether cgroup files are used rather than docker stats
+         */
+        @Override
+        public Boolean call() throws IOException {
+            File procCgroup = new File("/proc/" + pid + "/cgroup");
+            CgroupFiles cgroups = null;
+            if (procCgroup.isFile()) {
+                cgroups = parseProcCgroup(read(procCgroup),
+                                          new File("/sys/fs/cgroup"));
+                if (cgroups != null && (!cgroups.memory.isFile() || !cgroups.cpu.isFile())) {
+                    cgroups = null;
+                }
+            }
+            Sampling sampling = new Sampling(containerId, pid, cgroups,
+                                             docker);
+            sampling.series.setMemoryLimitBytes(memoryLimit);
+            synchronized (SAMPLINGS) {
+                long now = System.currentTimeMillis();
+                Iterator<Sampling> it = SAMPLINGS.values().iterator();
+                while (it.hasNext()) {
+                    Sampling s = it.next();
+                    if (s.stoppedAt != 0 && now - s.stoppedAt > ABANDONED_MILLIS) {
+                        it.remove();
+                    }
+                }
+                SAMPLINGS.put(containerId, sampling);
+                sampling.future = getExecutor().scheduleAtFixedRate(
+                        sampling, 0, intervalSeconds, TimeUnit.SECONDS);
+            }
+            return cgroups != null;
+        }
+    }
+
+    /**
+     * Stop sampling containers on the agent and return their series
+     */
+    private static class Stop extends MasterToSlaveCallable<Map<String, ResourceSeries>, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> containerIds;
+
+        private Stop(List<String> containerIds) {
+            this.containerIds = containerIds;
+        }
+
+        @Override
+        public Map<String, ResourceSeries> call() throws IOException {
+            Map<String, ResourceSeries> series = new HashMap<>();
+            synchronized (SAMPLINGS) {
+                for (String id : containerIds) {
+                    Sampling sampling = SAMPLINGS.remove(id);
+                    if (sampling != null) {
+                        sampling.stop();
+                        series.put(id, sampling.series);
+                    }
+                }
+            }
+            return series;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A bounded series of resource usage samples of one container, stored as a
+ * flat array of longs. When full, every other sample is dropped and the
+ * sampling stride doubles, so long builds keep their whole timeline at a
+ * coarser resolution. The peak CPU and memory usage are tracked over every
+ * sample added, including the dropped ones.
+ */
+public class ResourceSeries implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int FIELDS = 7;
+    private static final int MAX_SAMPLES = 20000;
+
+    private long[] data = new long[FIELDS * 64];
+    private int size;
+    private int stride = 1;
+    private int skipped;
+    private long memoryLimitBytes;
+    private long peakCpuMillicores;
+    private long peakMemoryBytes;
+
+    /**
+     * Add a sample. Cumulative counters are stored as read.
+     *
+     * @param offsetMillis     time since sampling started
+     * @param cpuMillicores    CPU used since the previous sample, in
+     *                         thousandths of a core
+     * @param memoryBytes      current memory usage
+     * @param blockReadBytes   cumulative bytes read from block devices
+     * @param blockWriteBytes  cumulative bytes written to block devices
+     * @param netRxBytes       cumulative bytes received
+     * @param netTxBytes       cumulative bytes sent
+     */
+    public synchronized void add(long offsetMillis,
+                                 long cpuMillicores,
+                                 long memoryBytes,
+                                 long blockReadBytes,
+                                 long blockWriteBytes,
+                                 long netRxBytes,
+                                 long netTxBytes) {
+        peakCpuMillicores = Math.max(peakCpuMillicores, cpuMillicores);
+        peakMemoryBytes = Math.max(peakMemoryBytes, memoryBytes);
+        if (++skipped < stride) {
+            return;
+        }
+        skipped = 0;
+        if (size == MAX_SAMPLES) {
+            for (int i = 1; i < size / 2; i++) {
+                System.arraycopy(data, 2 * i * FIELDS, data, i * FIELDS,
+                                 FIELDS);
+            }
+            size /= 2;
+            stride *= 2;
+        }
+        if ((size + 1) * FIELDS > data.length) {
+            data = Arrays.copyOf(data, Math.min(data.length * 2,
+                                                MAX_SAMPLES * FIELDS));
+        }
+        int i = size * FIELDS;
+        data[i] = offsetMillis;
+        data[i + 1] = cpuMillicores;
+        data[i + 2] = memoryBytes;
+        data[i + 3] = blockReadBytes;
+        data[i + 4] = blockWriteBytes;
+        data[i + 5] = netRxBytes;
+        data[i + 6] = netTxBytes;
+        size++;
+    }
+
+    /**
+     * The container's memory limit or 0 if unlimited or unknown
+     *
+     * @return
+     */
+    public synchronized long getMemoryLimitBytes() {
+        return memoryLimitBytes;
+    }
+
+    public synchronized void setMemoryLimitBytes(long memoryLimitBytes) {
+        this.memoryLimitBytes = memoryLimitBytes;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getPeakCpuMillicores() {
+        return peakCpuMillicores;
+    }
+
+    public synchronized long getPeakMemoryBytes() {
+        return peakMemoryBytes;
+    }
+
+    /**
+     * @param field
+     * @return the last value of a cumulative field, or 0
+     */
+    synchronized long getLast(int field) {
+        return size == 0 ? 0 : data[(size - 1) * FIELDS + field];
+    }
+
+    public long getBlockReadBytes() {
+        return getLast(3);
+    }
+
+    public long getBlockWriteBytes() {
+        return getLast(4);
+    }
+
+    public long getNetRxBytes() {
+        return getLast(5);
+    }
+
+    public long getNetTxBytes() {
+        return getLast(6);
+    }
+
+    /**
+     * Write the series as CSV with a header line
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public synchronized void writeCsv(Writer writer) throws IOException {
+        writer.write("offset_ms,cpu_millicores,memory_bytes,block_read_bytes,"
+                             + "block_write_bytes,net_rx_bytes,net_tx_bytes\n");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            sb.setLength(0);
+            for (int f = 0; f < FIELDS; f++) {
+                if (f > 0) {
+                    sb.append(',');
+                }
+                sb.append(data[i * FIELDS + f]);
+            }
+            sb.append('\n');
+            writer.write(sb.toString());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.config;
+
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.Serializable;
+import java.util.regex.Pattern;
+
+/**
+ * A logical cache, such as <code>maven</code>, mounted at a path in the
+ * container. See {@link CacheVolumeConfigItem}.
+ */
+public class CacheVolume extends AbstractDescribableImpl<CacheVolume> implements Serializable {
+
+    private static final Pattern NAME_PATTERN = Pattern.compile(
+            "[a-zA-Z0-9][a-zA-Z0-9_.-]*");
+
+    private final String name;
+    private final String path;
+
+    @DataBoundConstructor
+    public CacheVolume(String name, String path) {
+        this.name = name;
+        this.path = path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void validate() throws Descriptor.FormException {
+        if (StringUtils.isEmpty(name)) {
+            throw new Descriptor.FormException("Cache name cannot be empty",
+                                               "name");
+        }
+        if (!Utils.hasVariablesToResolve(name)
+                && !NAME_PATTERN.matcher(name).matches()) {
+            throw new Descriptor.FormException(
+                    "Cache name may only contain letters, digits, '_', '.' and '-'",
+                    "name");
+        }
+        if (StringUtils.isEmpty(path)) {
+            throw new Descriptor.FormException("Must specify a container path",
+                                               "path");
+        }
+        if (!Utils.hasVariablesToResolve(path) && !path.startsWith("/")) {
+            throw new Descriptor.FormException(
+                    "Container path must be absolute", "path");
+        }
+    }
+
+    @Symbol("cacheVolume")
+    @Extension
+    public static class DescriptorImpl extends Descriptor<CacheVolume> {
+
+        @Override
+        public String getDisplayName() {
+            return "Cache";
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.config;
+
+import com.google.common.collect.ImmutableList;
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.CacheVolumeManager;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.CacheVolumeUsage;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Descriptor;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.ListBoxModel;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Mounts named docker volumes that persist dependency caches (Maven, pip,
+ * ccache, etc) across builds on the same node. Volumes are scoped per job or
+ * per branch, seeded from a parent branch on first use and evicted least
+ * recently used to stay under the node's {@link
+ * com.gpuopenanalytics.jenkins.remotedocker.agent.CacheBudgetNodeProperty}.
+ */
+public class CacheVolumeConfigItem extends ConfigItem {
+
+    public static final String SCOPE_JOB = "job";
+    public static final String SCOPE_BRANCH = "branch";
+
+    private final List<CacheVolume> caches;
+    private final String scope;
+    private final String parentBranch;
+
+    @DataBoundConstructor
+    public CacheVolumeConfigItem(List<CacheVolume> caches,
+                                 String scope,
+                                 String parentBranch) {
+        this.caches = caches == null ? Collections.emptyList() : ImmutableList.copyOf(
+                caches);
+        this.scope = StringUtils.isNotEmpty(scope) ? scope : SCOPE_BRANCH;
+        this.parentBranch = StringUtils.isNotEmpty(
+                parentBranch) ? parentBranch : null;
+    }
+
+    public List<CacheVolume> getCaches() {
+        return caches;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getParentBranch() {
+        return parentBranch;
+    }
+
+    @Override
+    public void validate() throws Descriptor.FormException {
+        if (caches.isEmpty()) {
+            throw new Descriptor.FormException("Must specify at least one cache",
+                                               "caches");
+        }
+        for (CacheVolume cache : caches) {
+            cache.validate();
+        }
+        if (!SCOPE_JOB.equals(scope) && !SCOPE_BRANCH.equals(scope)) {
+            throw new Descriptor.FormException("Invalid cache scope: " + scope,
+                                               "scope");
+        }
+    }
+
+    @Override
+    public void addCreateArgs(AbstractDockerLauncher launcher,
+                              ArgumentListBuilder args) {
+        EnvVars env = launcher.getEnvironment();
+        String jobName = Optional.ofNullable(env.get("JOB_NAME"))
+                .orElse("unknown");
+        String branch = env.get("BRANCH_NAME");
+        //Multibranch jobs are named <project>/<branch>
+        String project = branch != null && jobName.contains("/")
+                ? jobName.substring(0, jobName.lastIndexOf('/'))
+                : jobName;
+        String scopeKey = SCOPE_JOB.equals(scope) ? project : jobName;
+        String parentKey = null;
+        if (SCOPE_BRANCH.equals(scope) && branch != null && parentBranch != null) {
+            String parent = Utils.resolveVariables(launcher, parentBranch);
+            if (!parent.equals(branch)) {
+                parentKey = project + "/" + parent.replace("/", "%2F");
+            }
+        }
+        long budget = CacheVolumeManager.getBudget(Utils.getNode(launcher));
+
+        for (CacheVolume cache : caches) {
+            String name = Utils.resolveVariables(launcher, cache.getName());
+            String path = Utils.resolveVariables(launcher, cache.getPath());
+            CacheVolumeUsage usage;
+            try {
+                usage = CacheVolumeManager.get()
+                        .acquire(launcher, name, getVolumeName(scopeKey, name),
+                                 getVolumeName(parentKey, name), budget);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                //Keep the abort visible to the launch
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            launcher.getListener().getLogger().println(
+                    String.format("Cache '%s': %s %s (%s)", name,
+                                  usage.getStatus(), usage.getVolume(),
+                                  usage.getSize()));
+            args.add("-v", usage.getVolume() + ":" + path);
+        }
+    }
+
+    private static String getVolumeName(@CheckForNull String scopeKey,
+                                        String cacheName) {
+        if (scopeKey == null) {
+            return null;
+        }
+        return CacheVolumeManager.VOLUME_PREFIX
+                + Util.getDigestOf(scopeKey).substring(0, 12)
+                + "-" + cacheName;
+    }
+
+    @Symbol("cache")
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ConfigItem> {
+
+        @Override
+        public String getDisplayName() {
+            return "Dependency Cache Volumes";
+        }
+
+        public ListBoxModel doFillScopeItems() {
+            return new ListBoxModel(
+                    new ListBoxModel.Option("Branch", SCOPE_BRANCH),
+                    new ListBoxModel.Option("Job", SCOPE_JOB));
+        }
+    }
+}
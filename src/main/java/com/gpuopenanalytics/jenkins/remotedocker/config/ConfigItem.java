@@ -54,6 +54,22 @@ public abstract class ConfigItem extends AbstractDescribableImpl<ConfigItem> imp
     public abstract void addCreateArgs(AbstractDockerLauncher launcher,
                                        ArgumentListBuilder args);
 
+    /**
+     * Add the arguments to <code>docker create</code> for a container of the
+     * specified image. By default, this delegates to {@link
+     * #addCreateArgs(AbstractDockerLauncher, ArgumentListBuilder)}; override
+     * it if the arguments depend on the image's contents.
+     *
+     * @param launcher
+     * @param args
+     * @param image    the resolved image name
+     */
+    public void addCreateArgs(AbstractDockerLauncher launcher,
+                              ArgumentListBuilder args,
+                              String image) {
+        addCreateArgs(launcher, args);
+    }
+
     /**
      * Runs after the container is running, but before the build executes
      *
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.config;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.CpuSet;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.CpuSetManager;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.GpuDevice;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.GpuLeaseManager;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.NumaTopology;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.util.ArgumentListBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Pins the container to CPUs and NUMA memory nodes with
+ * <code>--cpuset-cpus</code> and <code>--cpuset-mems</code>. Unless set
+ * manually, each build gets an even share of the node's CPUs per executor,
+ * taken from the NUMA nodes of the GPUs leased to it. A build waits while
+ * no CPUs of the node are free.
+ */
+public class CpuPinningConfigItem extends ConfigItem {
+
+    private final String cpusetCpus;
+    private final String cpusetMems;
+
+    @DataBoundConstructor
+    public CpuPinningConfigItem(String cpusetCpus, String cpusetMems) {
+        this.cpusetCpus = StringUtils.trimToNull(cpusetCpus);
+        this.cpusetMems = StringUtils.trimToNull(cpusetMems);
+    }
+
+    public String getCpusetCpus() {
+        return cpusetCpus;
+    }
+
+    public String getCpusetMems() {
+        return cpusetMems;
+    }
+
+    @Override
+    public void validate() throws Descriptor.FormException {
+        validateList(cpusetCpus, "CPUs", "cpusetCpus");
+        validateList(cpusetMems, "Memory nodes", "cpusetMems");
+    }
+
+    private static void validateList(String value,
+                                     String name,
+                                     String field) throws Descriptor.FormException {
+        if (value != null && !Utils.hasVariablesToResolve(value)
+                && NumaTopology.parseCpuList(value).isEmpty()) {
+            throw new Descriptor.FormException(
+                    name + " must be a list such as 0-3,8", field);
+        }
+    }
+
+    @Override
+    public void addCreateArgs(AbstractDockerLauncher launcher,
+                              ArgumentListBuilder args) {
+        String cpus;
+        String mems;
+        if (cpusetCpus != null) {
+            cpus = Utils.resolveVariables(launcher, cpusetCpus);
+            mems = null;
+        } else {
+            List<GpuDevice> gpus = GpuLeaseManager.get()
+                    .getLeased(launcher.getLeaseOwner());
+            CpuSet cpuSet;
+            try {
+                cpuSet = CpuSetManager.get().acquire(launcher, gpus);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            launcher.getListener().getLogger().println(
+                    "Pinned to " + cpuSet + (gpus.isEmpty() ? ""
+                            : " for GPU devices " + gpus));
+            cpus = cpuSet.getCpuList();
+            mems = cpuSet.getMemList();
+        }
+        if (cpusetMems != null) {
+            mems = Utils.resolveVariables(launcher, cpusetMems);
+        }
+        args.add("--cpuset-cpus", cpus);
+        if (mems != null) {
+            args.add("--cpuset-mems", mems);
+        }
+    }
+
+    @Symbol("cpuPinning")
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ConfigItem> {
+
+        @Override
+        public String getDisplayName() {
+            return "CPU Pinning";
+        }
+    }
+}
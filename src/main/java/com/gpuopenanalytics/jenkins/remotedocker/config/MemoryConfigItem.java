@@ -26,16 +26,20 @@ package com.gpuopenanalytics.jenkins.remotedocker.config;
 
 import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
 import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.MemoryBudgetManager;
 import hudson.Extension;
 import hudson.model.Descriptor;
 import hudson.util.ArgumentListBuilder;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import java.io.IOException;
 import java.util.regex.Pattern;
 
 /**
- * Memory restriction passed as <code>-m memory</code>
+ * Memory restriction passed as <code>-m memory</code>. The memory is reserved
+ * against the node's {@link com.gpuopenanalytics.jenkins.remotedocker.agent.MemoryBudgetNodeProperty}
+ * until the build ends.
  */
 public class MemoryConfigItem extends ConfigItem {
 
@@ -54,6 +58,22 @@ public class MemoryConfigItem extends ConfigItem {
         return memory;
     }
 
+    /**
+     * The memory in bytes, if it does not depend on build variables
+     *
+     * @return the bytes or -1
+     */
+    public long getMemoryBytes() {
+        if (Utils.hasVariablesToResolve(memory)) {
+            return -1;
+        }
+        try {
+            return Utils.parseByteSize(memory);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
     @Override
     public void validate() throws Descriptor.FormException {
         if (!Utils.hasVariablesToResolve(memory)) {
@@ -68,7 +88,14 @@ public class MemoryConfigItem extends ConfigItem {
     @Override
     public void addCreateArgs(AbstractDockerLauncher launcher,
                               ArgumentListBuilder args) {
-        args.add("-m", Utils.resolveVariables(launcher, memory).toUpperCase());
+        String resolved = Utils.resolveVariables(launcher, memory);
+        try {
+            MemoryBudgetManager.get()
+                    .reserve(launcher, Utils.parseByteSize(resolved));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        args.add("-m", resolved.toUpperCase());
     }
 
     @Symbol("memory")
@@ -25,22 +25,21 @@
 package com.gpuopenanalytics.jenkins.remotedocker.config;
 
 import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.GpuDevice;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.GpuLeaseManager;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.GpuRequest;
 import hudson.Extension;
-import hudson.Launcher;
 import hudson.model.Descriptor;
 import hudson.util.ArgumentListBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Defines which GPU devices are visible in the container. Passes
@@ -49,6 +48,13 @@ import java.util.regex.Pattern;
 public class NvidiaGpuDevicesConfigItem extends CustomConfigItem {
 
     private static final String ENV_VAR_NAME = "NVIDIA_VISIBLE_DEVICES";
+    private static final String EXECUTOR_VALUE = "executor";
+    private static final String LEASE_VALUE = "lease";
+
+    private String gpuCount;
+    private boolean freeMemoryAware;
+    private String minMigProfile;
+    private String minGpuMemory;
 
     @DataBoundConstructor
     public NvidiaGpuDevicesConfigItem(String nvidiaDevices,
@@ -61,6 +67,59 @@ public class NvidiaGpuDevicesConfigItem extends CustomConfigItem {
         return "all";
     }
 
+    /**
+     * Number of devices to lease when using <code>lease</code>
+     *
+     * @return
+     */
+    public String getGpuCount() {
+        return StringUtils.isNotEmpty(gpuCount) ? gpuCount : "1";
+    }
+
+    @DataBoundSetter
+    public void setGpuCount(String gpuCount) {
+        this.gpuCount = gpuCount;
+    }
+
+    public boolean isFreeMemoryAware() {
+        return freeMemoryAware;
+    }
+
+    @DataBoundSetter
+    public void setFreeMemoryAware(boolean freeMemoryAware) {
+        this.freeMemoryAware = freeMemoryAware;
+    }
+
+    /**
+     * Smallest MIG profile, such as <code>2g.10gb</code>, a leased device may
+     * have
+     *
+     * @return
+     */
+    public String getMinMigProfile() {
+        return minMigProfile;
+    }
+
+    @DataBoundSetter
+    public void setMinMigProfile(String minMigProfile) {
+        this.minMigProfile = StringUtils.trimToNull(minMigProfile);
+    }
+
+    /**
+     * Smallest amount of memory, such as <code>16g</code>, a leased device may
+     * have
+     *
+     * @return
+     */
+    public String getMinGpuMemory() {
+        return minGpuMemory;
+    }
+
+    @DataBoundSetter
+    public void setMinGpuMemory(String minGpuMemory) {
+        this.minGpuMemory = StringUtils.trimToNull(minGpuMemory);
+    }
+
     @Override
     public void validate() throws Descriptor.FormException {
         if (isCustom() && StringUtils.isEmpty(getValue())) {
@@ -72,26 +131,62 @@ public class NvidiaGpuDevicesConfigItem extends CustomConfigItem {
                     " GPU Visibility cannot be empty",
                     "nvidiaDevices");
         }
+        if (LEASE_VALUE.equals(getValue())
+                && !Utils.hasVariablesToResolve(getGpuCount())
+                && (!StringUtils.isNumeric(getGpuCount())
+                || Integer.parseInt(getGpuCount()) < 1)) {
+            throw new Descriptor.FormException(
+                    "GPU count must be a positive integer", "gpuCount");
+        }
+        if (minMigProfile != null
+                && GpuDevice.parseProfileSlices(minMigProfile) < 0) {
+            throw new Descriptor.FormException(
+                    "Minimum MIG profile must look like 2g.10gb",
+                    "minMigProfile");
+        }
+        if (minGpuMemory != null && !Utils.hasVariablesToResolve(
+                minGpuMemory)) {
+            try {
+                Utils.parseByteSize(minGpuMemory);
+            } catch (IllegalArgumentException e) {
+                throw new Descriptor.FormException(e.getMessage(),
+                                                   "minGpuMemory");
+            }
+        }
     }
 
     @Override
     public void addCreateArgs(AbstractDockerLauncher launcher,
                               ArgumentListBuilder args) {
         String value;
-        if ("executor".equals(getValue())) {
-            String executorNum = launcher.getEnvironment().get("EXECUTOR_NUMBER");
-            String nvidiasmiOutput = executeWithOutput(launcher.getInner(), "nvidia-smi", "-L");
-            if (isMIG(nvidiasmiOutput)) {
-                value = getMIG(nvidiasmiOutput, executorNum);
-            } else {
-                value = executorNum;
+        if (EXECUTOR_VALUE.equals(getValue()) || LEASE_VALUE.equals(getValue())) {
+            int count = EXECUTOR_VALUE.equals(getValue()) ? 1 : Integer.parseInt(
+                    Utils.resolveVariables(launcher, getGpuCount()));
+            long minMemoryMiB = minGpuMemory == null ? 0 : Utils.parseByteSize(
+                    Utils.resolveVariables(launcher, minGpuMemory)) / (1024 * 1024);
+            GpuRequest request = new GpuRequest(count, minMigProfile,
+                                                minMemoryMiB);
+            List<GpuDevice> devices;
+            try {
+                devices = GpuLeaseManager.get()
+                        .acquire(launcher, request, freeMemoryAware);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
             }
+            launcher.getListener().getLogger().println(
+                    "Leased GPU devices: " + devices);
+            value = devices.stream()
+                    .map(GpuDevice::getUuid)
+                    .collect(Collectors.joining(","));
         } else {
             value = getResolvedValue(launcher);
         }
 
         if (launcher.getVersion().hasGpuFlag()) {
-            args.add("--gpus", "device=" + value);
+            //--gpus parses its value as CSV, so a list of devices must be quoted
+            String device = "device=" + value;
+            args.add("--gpus",
+                     value.contains(",") ? "\"" + device + "\"" : device);
         } else {
             args.add("-e");
             args.addKeyValuePair("", ENV_VAR_NAME, value, false);
@@ -115,45 +210,4 @@ public class NvidiaGpuDevicesConfigItem extends CustomConfigItem {
             return "NVIDIA Device Visibility";
         }
     }
-
-    private String executeWithOutput(Launcher launcher, String... args) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int status = launcher.launch()
-                    .cmds(args)
-                    .stdout(baos)
-                    .stderr(launcher.getListener().getLogger())
-                    .join();
-            if (status != 0) {
-                throw new RuntimeException(
-                        "Non-zero status " + status + ": " + Arrays
-                                .toString(args));
-            }
-            return baos.toString(StandardCharsets.UTF_8.name()).trim();
-        } catch (InterruptedException | IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private boolean isMIG(String output) {
-        Pattern pattern = Pattern.compile("(MIG-GPU-[a-f0-9\\-\\/]+)");
-        Matcher m = pattern.matcher(output);
-
-        if (m.find()) {
-            return true;
-        }
-        return false;
-    }
-
-    private String getMIG(String output, String executor) {
-        int executorNum = Integer.parseInt(executor);
-        List<String> uuids = new ArrayList<String>();
-        Pattern pattern = Pattern.compile("(MIG-GPU-[a-f0-9\\-\\/]+)");
-        Matcher m = pattern.matcher(output);
-
-        while (m.find()) {
-            uuids.add(m.group());
-        }
-        return uuids.get(executorNum);
-    }
 }
@@ -0,0 +1,308 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.config;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import hudson.FilePath;
+import hudson.util.ArgumentListBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>/etc/passwd</code> and <code>/etc/group</code> files derived from an
+ * image's own files with an additional user. They are generated once per
+ * image and user on each node and bind mounted read-only into containers, so
+ * no <code>groupadd</code> or <code>useradd</code> has to run in each one.
+ * Like <code>useradd</code>, the home directory and shell of a new user come
+ * from the image's <code>/etc/default/useradd</code>.
+ */
+class PasswdOverlay {
+
+    private static final String OVERLAY_DIR = "remote-docker/passwd";
+
+    /**
+     * Defaults of <code>useradd</code> when the image does not set them
+     */
+    private static final String DEFAULT_HOME = "/home";
+    private static final String DEFAULT_SHELL = "/bin/sh";
+
+    private final FilePath passwd;
+    private final FilePath group;
+
+    private PasswdOverlay(FilePath passwd, FilePath group) {
+        this.passwd = passwd;
+        this.group = group;
+    }
+
+    /**
+     * Get the overlay for the image and user, generating it if this node has
+     * not seen the combination yet
+     *
+     * @param launcher
+     * @param image
+     * @param username
+     * @param uid
+     * @param gid
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static PasswdOverlay getOrCreate(AbstractDockerLauncher launcher,
+                                     String image,
+                                     String username,
+                                     String uid,
+                                     String gid) throws IOException, InterruptedException {
+        FilePath root = Utils.getNodeRootPath(launcher);
+        if (root == null) {
+            throw new IOException("Node is not online");
+        }
+        String imageId = getImageId(launcher, image);
+        String key = imageId.substring(imageId.indexOf(':') + 1)
+                .substring(0, 12)
+                + "-" + username.replaceAll("[^a-zA-Z0-9_.-]", "_")
+                + "-" + uid + "-" + gid;
+        FilePath dir = root.child(OVERLAY_DIR).child(key);
+        FilePath passwd = dir.child("passwd");
+        FilePath group = dir.child("group");
+        if (!passwd.exists() || !group.exists()) {
+            launcher.getListener().getLogger().println(
+                    "Generating /etc/passwd and /etc/group for " + username + " in " + image);
+            dir.mkdirs();
+            //Builds generating the same overlay at once each use their own
+            // copies and the last rename wins
+            FilePath imagePasswd = dir.createTempFile("image-passwd", ".tmp");
+            FilePath imageGroup = dir.createTempFile("image-group", ".tmp");
+            FilePath imageDefaults = dir.createTempFile("image-useradd", ".tmp");
+            try {
+                copyFromImage(launcher, image, imagePasswd, imageGroup,
+                              imageDefaults);
+                write(group,
+                      mergeGroup(imageGroup.readToString(), username, gid));
+                write(passwd, mergePasswd(imagePasswd.readToString(),
+                                          imageDefaults.readToString(),
+                                          username, uid, gid));
+            } finally {
+                imagePasswd.delete();
+                imageGroup.delete();
+                imageDefaults.delete();
+            }
+        }
+        return new PasswdOverlay(passwd, group);
+    }
+
+    /**
+     * Add the read-only bind mounts to <code>docker create</code>
+     *
+     * @param args
+     */
+    void addArgs(ArgumentListBuilder args) {
+        args.add("-v", passwd.getRemote() + ":/etc/passwd:ro");
+        args.add("-v", group.getRemote() + ":/etc/group:ro");
+    }
+
+    /**
+     * Add the user to the contents of a passwd file. An existing user of the
+     * same name keeps its home directory and shell but gets the uid and gid.
+     * The user is put before another user with the same uid so the uid maps
+     * back to its name.
+     *
+     * @param passwd
+     * @param useraddDefaults contents of <code>/etc/default/useradd</code>
+     * @param username
+     * @param uid
+     * @param gid
+     * @return
+     */
+    static String mergePasswd(String passwd,
+                              String useraddDefaults,
+                              String username,
+                              String uid,
+                              String gid) {
+        String home = getDefault(useraddDefaults, "HOME", DEFAULT_HOME)
+                + "/" + username;
+        String shell = getDefault(useraddDefaults, "SHELL", DEFAULT_SHELL);
+        List<String> lines = new ArrayList<>();
+        int index = -1;
+        for (String line : passwd.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(":", -1);
+            if (fields.length > 6 && username.equals(fields[0])) {
+                home = fields[5];
+                shell = fields[6];
+            } else if (!line.startsWith(username + ":")) {
+                if (index < 0 && fields.length > 2 && uid.equals(fields[2])) {
+                    index = lines.size();
+                }
+                lines.add(line);
+            }
+        }
+        lines.add(index < 0 ? lines.size() : index,
+                  String.join(":", username, "x", uid, gid, "", home, shell));
+        return String.join("\n", lines) + "\n";
+    }
+
+    /**
+     * Get a setting from <code>/etc/default/useradd</code>
+     */
+    private static String getDefault(String useraddDefaults,
+                                     String name,
+                                     String defaultValue) {
+        String value = null;
+        for (String line : useraddDefaults.split("\n")) {
+            line = line.trim();
+            if (line.startsWith(name + "=")) {
+                value = line.substring(name.length() + 1).trim();
+            }
+        }
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    /**
+     * Add a group for the user to the contents of a group file unless the gid
+     * already exists
+     *
+     * @param group
+     * @param username
+     * @param gid
+     * @return
+     */
+    static String mergeGroup(String group, String username, String gid) {
+        List<String> lines = new ArrayList<>();
+        for (String line : group.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(":", -1);
+            if (fields.length > 2 && gid.equals(fields[2])) {
+                //The image already has a group with this gid
+                return group.endsWith("\n") ? group : group + "\n";
+            }
+            if (!line.startsWith(username + ":")) {
+                lines.add(line);
+            }
+        }
+        lines.add(String.join(":", username, "x", gid, ""));
+        return String.join("\n", lines) + "\n";
+    }
+
+    private static String getImageId(AbstractDockerLauncher launcher,
+                                     String image) throws IOException, InterruptedException {
+        ArgumentListBuilder args = new ArgumentListBuilder("docker", "image",
+                                                           "inspect",
+                                                           "--format",
+                                                           "{{.Id}}", image);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int status = launcher.executeCommand(args)
+                .stdout(baos)
+                .stderr(new ByteArrayOutputStream())
+                .join();
+        if (status != 0) {
+            //The image might not be pulled yet, docker run would pull it anyways
+            status = launcher.executeCommand(
+                    new ArgumentListBuilder("docker", "pull", image))
+                    .stdout(launcher.getListener())
+                    .stderr(launcher.getListener().getLogger())
+                    .join();
+            if (status != 0) {
+                throw new IOException("Could not pull image: " + image);
+            }
+            baos.reset();
+            status = launcher.executeCommand(args)
+                    .stdout(baos)
+                    .stderr(launcher.getListener().getLogger())
+                    .join();
+            if (status != 0) {
+                throw new IOException("Could not inspect image: " + image);
+            }
+        }
+        return baos.toString(StandardCharsets.UTF_8.name()).trim();
+    }
+
+    private static void copyFromImage(AbstractDockerLauncher launcher,
+                                      String image,
+                                      FilePath passwd,
+                                      FilePath group,
+                                      FilePath useraddDefaults) throws IOException, InterruptedException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int status = launcher.executeCommand(
+                new ArgumentListBuilder("docker", "create", image, "true"))
+                .stdout(baos)
+                .stderr(launcher.getListener().getLogger())
+                .join();
+        if (status != 0) {
+            throw new IOException("Could not create container from " + image);
+        }
+        String containerId = baos.toString(StandardCharsets.UTF_8.name())
+                .trim();
+        try {
+            copy(launcher, containerId, "/etc/passwd", passwd);
+            copy(launcher, containerId, "/etc/group", group);
+            copy(launcher, containerId, "/etc/default/useradd",
+                 useraddDefaults);
+        } finally {
+            launcher.executeCommand(
+                    new ArgumentListBuilder("docker", "rm", containerId))
+                    .stdout(new ByteArrayOutputStream())
+                    .stderr(launcher.getListener().getLogger())
+                    .join();
+        }
+    }
+
+    private static void copy(AbstractDockerLauncher launcher,
+                             String containerId,
+                             String path,
+                             FilePath dest) throws IOException, InterruptedException {
+        int status = launcher.executeCommand(
+                new ArgumentListBuilder("docker", "cp", "-L",
+                                        containerId + ":" + path,
+                                        dest.getRemote()))
+                .stdout(launcher.getListener())
+                .stderr(launcher.getListener().getLogger())
+                .join();
+        if (status != 0) {
+            //Treat a missing file as empty
+            dest.write("", StandardCharsets.UTF_8.name());
+        }
+    }
+
+    /**
+     * Write the file atomically so concurrent builds never mount a partially
+     * written one
+     */
+    private static void write(FilePath file,
+                              String content) throws IOException, InterruptedException {
+        FilePath temp = file.getParent().createTempFile(file.getName(), ".tmp");
+        temp.write(content, StandardCharsets.UTF_8.name());
+        temp.chmod(0644);
+        temp.renameTo(file);
+    }
+}
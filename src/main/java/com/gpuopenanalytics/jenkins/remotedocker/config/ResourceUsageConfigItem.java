@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.config;
+
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ResourceSampler;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.util.ArgumentListBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+
+/**
+ * Samples the container's CPU, memory, block I/O and network usage while the
+ * build runs. The peaks are shown on the build page and the full series is
+ * stored with the build.
+ */
+public class ResourceUsageConfigItem extends ConfigItem {
+
+    private static final int DEFAULT_INTERVAL = 5;
+
+    private final String intervalSeconds;
+
+    @DataBoundConstructor
+    public ResourceUsageConfigItem(String intervalSeconds) {
+        this.intervalSeconds = StringUtils.trimToNull(intervalSeconds);
+    }
+
+    public String getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    private int getInterval() {
+        return intervalSeconds == null ? DEFAULT_INTERVAL : Integer.parseInt(
+                intervalSeconds);
+    }
+
+    @Override
+    public void validate() throws Descriptor.FormException {
+        if (intervalSeconds != null && (!StringUtils.isNumeric(intervalSeconds)
+                || Integer.parseInt(intervalSeconds) < 1)) {
+            throw new Descriptor.FormException(
+                    "Interval must be a positive number of seconds",
+                    "intervalSeconds");
+        }
+    }
+
+    @Override
+    public void addCreateArgs(AbstractDockerLauncher launcher,
+                              ArgumentListBuilder args) {
+        //No-op
+    }
+
+    @Override
+    public void postCreate(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
+        ResourceSampler.start(launcher, getInterval());
+    }
+
+    @Symbol("resourceUsage")
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ConfigItem> {
+
+        @Override
+        public String getDisplayName() {
+            return "Resource Usage Sampling";
+        }
+    }
+}
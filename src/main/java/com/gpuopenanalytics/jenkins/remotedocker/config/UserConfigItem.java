@@ -25,6 +25,7 @@
 package com.gpuopenanalytics.jenkins.remotedocker.config;
 
 import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.AgentUser;
 import com.gpuopenanalytics.jenkins.remotedocker.Utils;
 import hudson.Extension;
 import hudson.model.Descriptor;
@@ -37,10 +38,7 @@ import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 
 public class UserConfigItem extends ConfigItem {
 
@@ -120,62 +118,28 @@ public class UserConfigItem extends ConfigItem {
     @Override
     public void addCreateArgs(AbstractDockerLauncher launcher,
                               ArgumentListBuilder args) {
-        //No-op
+        //No-op, the user is added based on the image
     }
 
     @Override
-    public void postCreate(AbstractDockerLauncher launcher) throws IOException, InterruptedException {
-        if (!isExisting() && !"root".equals(username) && !isCurrentUser()) {
-            String gid = Utils.resolveVariables(launcher, this.gid);
-            String uid = Utils.resolveVariables(launcher, this.uid);
-            String username = Utils.resolveVariables(launcher, this.username);
-
-            createUserAndGroup(launcher, username, uid, gid);
-        } else if (isCurrentUser()) {
-            String uid = executeWithOutput(launcher, "id", "-u");
-            String gid = executeWithOutput(launcher, "id", "-g");
-            String username = executeWithOutput(launcher, "id", "-un");
-
-            createUserAndGroup(launcher, username, uid, gid);
-        }
-    }
-
-    private void createUserAndGroup(AbstractDockerLauncher launcher,
-                                    String username,
-                                    String uid,
-                                    String gid) throws IOException, InterruptedException {
-        ArgumentListBuilder groupAddArgs = new ArgumentListBuilder();
-        groupAddArgs.add("groupadd", "-g", gid, username);
-        int status = launcher.dockerExec(groupAddArgs, false).join();
-        if (status != 0) {
-            throw new IOException("Failed to create group");
-        }
-
-        ArgumentListBuilder userAddArgs = new ArgumentListBuilder();
-        userAddArgs.add("useradd", "-g", gid, "-u", uid, username);
-        status = launcher.dockerExec(userAddArgs, false).join();
-        if (status != 0) {
-            throw new IOException("Failed to create user");
-        }
-    }
-
-    private String executeWithOutput(AbstractDockerLauncher launcher,
-                                     String... args) {
+    public void addCreateArgs(AbstractDockerLauncher launcher,
+                              ArgumentListBuilder args,
+                              String image) {
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int status = launcher.getInner().launch()
-                    .cmds(args)
-                    .stdout(baos)
-                    .stderr(launcher.getListener().getLogger())
-                    .quiet(!launcher.isDebug())
-                    .join();
-            if (status != 0) {
-                throw new RuntimeException(
-                        "Non-zero status " + status + ": " + Arrays
-                                .toString(args));
+            if (!isExisting() && !"root".equals(username) && !isCurrentUser()) {
+                String gid = Utils.resolveVariables(launcher, this.gid);
+                String uid = Utils.resolveVariables(launcher, this.uid);
+                String username = Utils.resolveVariables(launcher,
+                                                         this.username);
+                PasswdOverlay.getOrCreate(launcher, image, username, uid, gid)
+                        .addArgs(args);
+            } else if (isCurrentUser()) {
+                AgentUser user = launcher.getAgentUser();
+                PasswdOverlay.getOrCreate(launcher, image, user.getUsername(),
+                                          user.getUid(), user.getGid())
+                        .addArgs(args);
             }
-            return baos.toString(StandardCharsets.UTF_8.name()).trim();
-        } catch (InterruptedException | IOException e) {
+        } catch (IOException | InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
@@ -186,9 +150,12 @@ public class UserConfigItem extends ConfigItem {
         if (!isCurrentUser()) {
             args.add("--user", Utils.resolveVariables(launcher, username));
         } else {
-            String uid = executeWithOutput(launcher, "id", "-u");
-            String gid = executeWithOutput(launcher, "id", "-g");
-            args.add("--user", uid + ":" + gid);
+            try {
+                AgentUser user = launcher.getAgentUser();
+                args.add("--user", user.getUid() + ":" + user.getGid());
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
@@ -53,6 +53,47 @@ public interface DockerConfiguration extends Serializable {
     void setupImage(AbstractDockerLauncher launcher,
                     String localWorkspace) throws IOException, InterruptedException;
 
+    /**
+     * Whether {@link #prefetchImage(AbstractDockerLauncher, String)} can run
+     * before the workspace is checked out, i.e. it does not read anything
+     * from the workspace
+     *
+     * @param launcher
+     * @param localWorkspace
+     * @return
+     */
+    default boolean canPrefetchImage(AbstractDockerLauncher launcher,
+                                     String localWorkspace) {
+        return false;
+    }
+
+    /**
+     * Set up the image ahead of launching the containers, in the background.
+     * When it completes, {@link #setupImage(AbstractDockerLauncher, String)}
+     * is skipped for a matching configuration. By default, this is {@link
+     * #setupImage(AbstractDockerLauncher, String)}.
+     *
+     * @param launcher
+     * @param localWorkspace
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    default void prefetchImage(AbstractDockerLauncher launcher,
+                               String localWorkspace) throws IOException, InterruptedException {
+        setupImage(launcher, localWorkspace);
+    }
+
+    /**
+     * Take over the state {@link #setupImage(AbstractDockerLauncher, String)}
+     * left on a matching configuration that prefetched the image, such as
+     * the name of a built image
+     *
+     * @param prefetched
+     */
+    default void copyImageSetup(DockerConfiguration prefetched) {
+        //No-op, most configurations keep no state
+    }
+
     /**
      * Add args to the <code>docker create</code>
      * @param launcher
@@ -178,11 +178,47 @@ public class DockerFileConfiguration extends AbstractDockerConfiguration {
         }
     }
 
+    /**
+     * Only Dockerfiles and contexts outside of the workspace can be built
+     * before it is checked out
+     *
+     * @param launcher
+     * @param localWorkspace
+     * @return
+     */
+    @Override
+    public boolean canPrefetchImage(AbstractDockerLauncher launcher,
+                                    String localWorkspace) {
+        if (StringUtils.isEmpty(context)) {
+            return false;
+        }
+        String resolvedContext = Utils.resolveVariables(launcher, context);
+        boolean remoteContext = resolvedContext.contains("://")
+                || resolvedContext.startsWith("git@");
+        return isOutside(Utils.resolveVariables(launcher, dockerFile),
+                         localWorkspace)
+                && (remoteContext || isOutside(resolvedContext,
+                                               localWorkspace));
+    }
+
+    private static boolean isOutside(String path, String localWorkspace) {
+        Path p = Paths.get(path);
+        return p.isAbsolute() && !p.normalize()
+                .startsWith(Paths.get(localWorkspace).normalize());
+    }
+
+    @Override
+    public void copyImageSetup(DockerConfiguration prefetched) {
+        if (prefetched instanceof DockerFileConfiguration) {
+            image = ((DockerFileConfiguration) prefetched).image;
+        }
+    }
+
     @Override
     public void addCreateArgs(AbstractDockerLauncher launcher,
                               ArgumentListBuilder args) {
         getConfigItemList().stream()
-                .forEach(item -> item.addCreateArgs(launcher, args));
+                .forEach(item -> item.addCreateArgs(launcher, args, image));
         getVolumes().stream()
                 .forEach(item -> item.addArgs(args, launcher));
         args.add(image);
@@ -25,26 +25,55 @@
 package com.gpuopenanalytics.jenkins.remotedocker.job;
 
 import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.DockerAction;
+import com.gpuopenanalytics.jenkins.remotedocker.PullStats;
 import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.RegistryRateLimiter;
 import com.gpuopenanalytics.jenkins.remotedocker.config.ConfigItem;
 import com.gpuopenanalytics.jenkins.remotedocker.config.VolumeConfiguration;
 import hudson.Extension;
-import hudson.Launcher;
 import hudson.model.Descriptor;
 import hudson.util.ArgumentListBuilder;
+import jenkins.util.SystemProperties;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
 
 /**
  * A {@link AbstractDockerConfiguration} created from an existing docker image.
  */
 public class DockerImageConfiguration extends AbstractDockerConfiguration {
 
+    private static final long BACKOFF_MILLIS = SystemProperties.getLong(
+            DockerImageConfiguration.class.getName() + ".backoffMillis",
+            2000L);
+    private static final long THROTTLED_BACKOFF_MILLIS = SystemProperties.getLong(
+            DockerImageConfiguration.class.getName() + ".throttledBackoffMillis",
+            30000L);
+    private static final long MAX_BACKOFF_MILLIS = SystemProperties.getLong(
+            DockerImageConfiguration.class.getName() + ".maxBackoffMillis",
+            300000L);
+
+    /**
+     * How the daemon reports a registry's rate limit: the
+     * <code>TOOMANYREQUESTS</code> code of the registry API, or the HTTP
+     * status when the registry sent no error body
+     */
+    private static final Pattern THROTTLED = Pattern.compile(
+            "(^|\\s)toomanyrequests:|\"code\"\\s*:\\s*\"toomanyrequests\""
+                    + "|\\b429 too many requests\\b|unexpected http status: 429\\b",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
     private final String image;
     private final String maxRetries;
     private final boolean forcePull;
@@ -102,46 +131,141 @@ public class DockerImageConfiguration extends AbstractDockerConfiguration {
     public void setupImage(AbstractDockerLauncher launcher,
                            String localWorkspace) throws IOException, InterruptedException {
         if (isForcePull()) {
-            ArgumentListBuilder args = new ArgumentListBuilder();
             String image = Utils.resolveVariables(launcher, getImage());
             String maxRetries = Utils.resolveVariables(launcher, getRetries());
-            args.add("docker", "pull", image);
-            int numRetries = Integer.parseInt(maxRetries);
-            int retries = 0;
-            int status;
-
-            Launcher.ProcStarter proc = launcher.executeCommand(args)
-                        .stderr(launcher.getListener().getLogger())
-                        .stdout(launcher.getListener());
-            status = proc.join();
-
-            while (retries < numRetries && status != 0) {
-                retries += 1;
-                String message = "Docker pull failed, retry " + Integer.toString(retries) +
-                                 " of " + maxRetries + "...";
-                launcher.getListener().getLogger().println(message);
-
-                proc = launcher.executeCommand(args)
-                        .stderr(launcher.getListener().getLogger())
-                        .stdout(launcher.getListener());
-                status = proc.join();
-            }
+            pull(launcher, image, Integer.parseInt(maxRetries));
+        }
+    }
 
-            if (status != 0) {
+    /**
+     * Pull the image, retrying up to <code>maxRetries</code> times. Retries
+     * back off exponentially with jitter, starting higher if the registry
+     * throttled the pull, and every attempt is subject to the node's rate
+     * limit for the registry.
+     *
+     * @param launcher
+     * @param image
+     * @param maxRetries
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private static void pull(AbstractDockerLauncher launcher,
+                             String image,
+                             int maxRetries) throws IOException, InterruptedException {
+        PrintStream logger = launcher.getListener().getLogger();
+        String nodeName = Utils.getNodeName(launcher);
+        String registry = RegistryRateLimiter.getRegistry(image);
+        RegistryRateLimiter limiter = RegistryRateLimiter.get();
+        DockerAction action = launcher.getDockerAction();
+        PullStats stats = action != null ? action.getOrCreatePullStats() : new PullStats();
+        ArgumentListBuilder args = new ArgumentListBuilder("docker", "pull",
+                                                           image);
+        for (int retries = 0; ; retries++) {
+            long waited = limiter.acquire(nodeName, registry);
+            stats.recordAttempt(waited);
+            if (waited >= 1000) {
+                logger.println(String.format(
+                        "Waited %d ms for the pull rate limit of %s",
+                        waited, registry));
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int status = launcher.executeCommand(args)
+                    .stdout(new TeeOutputStream(logger, output))
+                    .stderr(new TeeOutputStream(logger, output))
+                    .join();
+            if (status == 0) {
+                return;
+            }
+            boolean throttled = isThrottled(
+                    output.toString(StandardCharsets.UTF_8.name()));
+            if (throttled) {
+                stats.recordThrottled();
+                limiter.throttled(nodeName, registry);
+            }
+            if (retries >= maxRetries) {
                 throw new IOException("Could not pull image: " + image);
             }
+            long delay = getBackoffMillis(retries, throttled);
+            logger.println(String.format(
+                    "Docker pull %s, retry %d of %d in %d ms...",
+                    throttled ? "was rate limited by " + registry : "failed",
+                    retries + 1, maxRetries, delay));
+            stats.recordBackoff(delay);
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Whether the output of <code>docker pull</code> shows the registry
+     * refused it with a rate limit
+     *
+     * @param output
+     * @return
+     */
+    static boolean isThrottled(String output) {
+        return THROTTLED.matcher(output).find();
+    }
+
+    /**
+     * Exponential backoff with equal jitter: between half and all of
+     * <code>base * 2^retries</code>, capped
+     *
+     * @param retries   the number of retries so far
+     * @param throttled whether the registry rate limited the last pull
+     * @return
+     */
+    static long getBackoffMillis(int retries, boolean throttled) {
+        long base = throttled ? THROTTLED_BACKOFF_MILLIS : BACKOFF_MILLIS;
+        long delay = Math.min(MAX_BACKOFF_MILLIS,
+                              base << Math.min(retries, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    @Override
+    public boolean canPrefetchImage(AbstractDockerLauncher launcher,
+                                    String localWorkspace) {
+        return true;
+    }
+
+    /**
+     * Pull the image if forced to or if it is not on the node yet, so that
+     * <code>docker run</code> does not have to
+     *
+     * @param launcher
+     * @param localWorkspace
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Override
+    public void prefetchImage(AbstractDockerLauncher launcher,
+                              String localWorkspace) throws IOException, InterruptedException {
+        if (isForcePull()) {
+            setupImage(launcher, localWorkspace);
+            return;
+        }
+        String image = Utils.resolveVariables(launcher, getImage());
+        int status = launcher.executeCommand(
+                new ArgumentListBuilder("docker", "image", "inspect",
+                                        "--format", "{{.Id}}", image))
+                .stdout(new ByteArrayOutputStream())
+                .stderr(new ByteArrayOutputStream())
+                .join();
+        if (status != 0) {
+            pull(launcher, image, Integer.parseInt(
+                    Utils.resolveVariables(launcher, getRetries())));
         }
     }
 
     @Override
     public void addCreateArgs(AbstractDockerLauncher launcher,
                               ArgumentListBuilder args) {
+        String image = Utils.resolveVariables(launcher, getImage());
         getConfigItemList().stream()
-                .forEach(item -> item.addCreateArgs(launcher, args));
+                .forEach(item -> item.addCreateArgs(launcher, args, image));
         getVolumes().stream()
                 .forEach(item -> item.addArgs(args, launcher));
 
-        args.add(Utils.resolveVariables(launcher, getImage()));
+        args.add(image);
     }
 
     @Symbol("image")
@@ -73,7 +73,27 @@ public class SideDockerConfiguration extends AbstractDescribableImpl<SideDockerC
     @Override
     public void setupImage(AbstractDockerLauncher launcher,
                            String localWorkspace) throws IOException, InterruptedException {
-        //no-op
+        dockerConfiguration.setupImage(launcher, localWorkspace);
+    }
+
+    @Override
+    public boolean canPrefetchImage(AbstractDockerLauncher launcher,
+                                    String localWorkspace) {
+        return dockerConfiguration.canPrefetchImage(launcher, localWorkspace);
+    }
+
+    @Override
+    public void prefetchImage(AbstractDockerLauncher launcher,
+                              String localWorkspace) throws IOException, InterruptedException {
+        dockerConfiguration.prefetchImage(launcher, localWorkspace);
+    }
+
+    @Override
+    public void copyImageSetup(DockerConfiguration prefetched) {
+        if (prefetched instanceof SideDockerConfiguration) {
+            dockerConfiguration.copyImageSetup(
+                    ((SideDockerConfiguration) prefetched).dockerConfiguration);
+        }
     }
 
     @Override
@@ -21,48 +21,66 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  * THE SOFTWARE.
  */
-
 package com.gpuopenanalytics.jenkins.remotedocker.pipeline;
 
-import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
 import com.gpuopenanalytics.jenkins.remotedocker.DockerState;
-import com.gpuopenanalytics.jenkins.remotedocker.job.DockerConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.LeaseOwner;
 import hudson.EnvVars;
 import hudson.Launcher;
 import hudson.LauncherDecorator;
 import hudson.Proc;
 import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Decorates a {@link Launcher} into an {@link AbstractDockerLauncher}
+ * <p>This is saved with the body's context on every Pipeline checkpoint, so it
+ * only keeps the {@link DockerState} and the <code>docker exec</code>
+ * arguments, which are resolved once when the containers are launched. The
+ * environment is rebuilt from the build when needed, overlaid with the step
+ * context's environment the body last launched a process with, so variables
+ * from <code>withEnv</code> and the node are kept. Before the body launches
+ * anything, only the build's environment is known.
  */
 public class DockerLauncherDecorator extends LauncherDecorator implements Serializable {
 
-    private boolean debug;
-    private DockerState dockerState;
-    private DockerConfiguration dockerConfiguration;
-    private EnvVars environment;
-    private String workspaceOverride;
-    private UsernamePasswordCredentials credentials;
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(
+            DockerLauncherDecorator.class.getName());
+
+    private final boolean debug;
+    private final DockerState dockerState;
+    private final String workspaceOverride;
+    private final ArrayList<String> runArgs;
+    private transient EnvVars environment;
 
+    /**
+     * @param debug
+     * @param dockerState
+     * @param runArgs           the resolved arguments of the main
+     *                          configuration for <code>docker exec</code>
+     * @param workspaceOverride
+     */
     public DockerLauncherDecorator(boolean debug,
                                    DockerState dockerState,
-                                   DockerConfiguration dockerConfiguration,
-                                   EnvVars environment,
-                                   String workspaceOverride,
-                                   @Nullable UsernamePasswordCredentials credentials) {
+                                   List<String> runArgs,
+                                   String workspaceOverride) {
         this.debug = debug;
         this.dockerState = dockerState;
-        this.dockerConfiguration = dockerConfiguration;
-        this.environment = environment;
+        this.runArgs = new ArrayList<>(runArgs);
         this.workspaceOverride = workspaceOverride;
-        this.credentials=credentials;
     }
 
     @Nonnull
@@ -70,16 +88,36 @@ public class DockerLauncherDecorator extends LauncherDecorator implements Serial
     public Launcher decorate(@Nonnull Launcher launcher, @Nonnull Node node) {
         return new AbstractDockerLauncher(launcher, dockerState) {
 
+            /**
+             * The environment of the last process the body launched
+             */
+            private volatile EnvVars contextEnvironment;
+
             @Override
             public Proc dockerExec(Launcher.ProcStarter starter,
                                    boolean addRunArgs) throws IOException {
-                return super.dockerExec(starter, addRunArgs, workspaceOverride,
-                                        dockerConfiguration);
+                String[] envs = starter.envs();
+                if (envs.length > 0) {
+                    contextEnvironment = toEnvVars(envs);
+                }
+                return super.dockerExec(starter,
+                                        addRunArgs ? runArgs : Collections.emptyList(),
+                                        workspaceOverride);
             }
 
             @Override
             public EnvVars getEnvironment() {
-                return environment;
+                EnvVars context = contextEnvironment;
+                if (context == null) {
+                    return getBuildEnvironment(this);
+                }
+                EnvVars env = new EnvVars(getBuildEnvironment(this));
+                env.putAll(context);
+                LeaseOwner owner = dockerState.getLeaseOwner();
+                if (owner != null) {
+                    env.put("NODE_NAME", owner.getNodeName());
+                }
+                return env;
             }
 
             @Override
@@ -89,5 +127,40 @@ public class DockerLauncherDecorator extends LauncherDecorator implements Serial
         };
     }
 
+    /**
+     * The environment of the build on the node running the containers
+     */
+    private synchronized EnvVars getBuildEnvironment(AbstractDockerLauncher launcher) {
+        if (environment == null) {
+            EnvVars env = new EnvVars();
+            Run<?, ?> run = launcher.getRun();
+            if (run != null) {
+                try {
+                    env.putAll(run.getEnvironment(TaskListener.NULL));
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE,
+                               "Could not get the environment of " + run, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            LeaseOwner owner = dockerState.getLeaseOwner();
+            if (owner != null) {
+                env.put("NODE_NAME", owner.getNodeName());
+            }
+            environment = env;
+        }
+        return environment;
+    }
 
+    private static EnvVars toEnvVars(String[] envs) {
+        EnvVars env = new EnvVars();
+        for (String var : envs) {
+            int equals = var.indexOf('=');
+            if (equals > 0) {
+                env.put(var.substring(0, equals), var.substring(equals + 1));
+            }
+        }
+        return env;
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.pipeline;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.gpuopenanalytics.jenkins.remotedocker.DockerAction;
+import com.gpuopenanalytics.jenkins.remotedocker.ImagePrefetch;
+import com.gpuopenanalytics.jenkins.remotedocker.RemoteDockerBuildWrapper;
+import com.gpuopenanalytics.jenkins.remotedocker.SimpleDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import com.gpuopenanalytics.jenkins.remotedocker.job.AbstractDockerConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.job.AbstractDockerConfigurationDescriptor;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerImageConfiguration;
+import com.gpuopenanalytics.jenkins.remotedocker.job.SideDockerConfiguration;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * {@link Step} that starts pulling or building the images of containers in
+ * the background on the current node and returns immediately. A later {@link
+ * RemoteDockerStep} with an identical configuration on the same node waits
+ * for the image instead of setting it up itself.
+ */
+public class RemoteDockerPrefetchStep extends Step {
+
+    private boolean debug;
+    private AbstractDockerConfiguration main;
+    private List<SideDockerConfiguration> sideContainers;
+
+    @DataBoundConstructor
+    public RemoteDockerPrefetchStep(boolean debug,
+                                    AbstractDockerConfiguration main,
+                                    List<SideDockerConfiguration> sideContainers) {
+        this.debug = debug;
+        this.main = main;
+        this.sideContainers = ImmutableList.copyOf(
+                Optional.ofNullable(sideContainers)
+                        .orElse(Collections.emptyList()));
+    }
+
+    @Override
+    public StepExecution start(StepContext stepContext) throws Exception {
+        return new Execution(stepContext, this);
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public AbstractDockerConfiguration getMain() {
+        return main;
+    }
+
+    public List<SideDockerConfiguration> getSideContainers() {
+        return sideContainers;
+    }
+
+    /**
+     * Only queues the set up, so it is fine to run on the CPS VM thread
+     */
+    private static class Execution extends SynchronousStepExecution<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "Only used when starting.")
+        private final transient RemoteDockerPrefetchStep step;
+
+        private Execution(@Nonnull StepContext context,
+                          RemoteDockerPrefetchStep step) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Void run() throws Exception {
+            Launcher launcher = getContext().get(Launcher.class);
+            FilePath workspace = getContext().get(FilePath.class);
+            EnvVars environment = getContext().get(EnvVars.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            Run<?, ?> run = getContext().get(Run.class);
+            RemoteDockerBuildWrapper buildWrapper = new RemoteDockerBuildWrapper(
+                    step.isDebug(), null, step.getMain(),
+                    step.getSideContainers(), null, null);
+            ImagePrefetch prefetch = DockerAction.getOrCreate(run)
+                    .getImagePrefetch();
+            String nodeName = Utils.getNodeName(environment);
+            String localWorkspace = Paths.get(workspace.getRemote())
+                    .toAbsolutePath()
+                    .toString();
+
+            List<DockerConfiguration> configs = new ArrayList<>(
+                    step.getSideContainers());
+            configs.add(step.getMain());
+            for (DockerConfiguration config : configs) {
+                boolean started = prefetch.start(
+                        nodeName, config, localWorkspace,
+                        () -> new SimpleDockerLauncher(launcher,
+                                                       step.isDebug(),
+                                                       environment,
+                                                       buildWrapper, run));
+                if (started) {
+                    listener.getLogger().println(
+                            "Setting up image in the background on " + nodeName);
+                }
+            }
+            return null;
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class,
+                                   FilePath.class,
+                                   Launcher.class,
+                                   EnvVars.class,
+                                   TaskListener.class);
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Prefetch Remote Docker images";
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "remoteDockerPrefetch";
+        }
+
+        public Collection<AbstractDockerConfigurationDescriptor> getDockerConfigurationItemDescriptors() {
+            return AbstractDockerConfigurationDescriptor.all();
+        }
+
+        public Descriptor getDefaultDockerConfigurationDescriptor() {
+            return Jenkins.get().getDescriptorOrDie(
+                    DockerImageConfiguration.class);
+        }
+    }
+}
@@ -24,17 +24,30 @@
 
 package com.gpuopenanalytics.jenkins.remotedocker.pipeline;
 
-import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.DockerAction;
 import com.gpuopenanalytics.jenkins.remotedocker.DockerState;
 import com.gpuopenanalytics.jenkins.remotedocker.RemoteDockerBuildWrapper;
 import com.gpuopenanalytics.jenkins.remotedocker.SimpleDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.Utils;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ContainerEventWatcher;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ContainerReaper;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.LauncherDecorator;
 import hudson.Proc;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.Timer;
 import org.jenkinsci.plugins.workflow.steps.BodyExecution;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.BodyInvoker;
@@ -44,6 +57,13 @@ import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The execution of a {@link RemoteDockerStep}
@@ -52,12 +72,33 @@ public class RemoteDockerStepExecution extends StepExecution {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Logger LOGGER = Logger.getLogger(
+            RemoteDockerStepExecution.class.getName());
+
 
     @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "Only used when starting.")
     private transient RemoteDockerStep remoteDockerStep;
 
-    private DockerState dockerState;
-    private BodyExecution bodyExecution;
+    /**
+     * Runs the container set up so it does not block the CPS VM thread
+     */
+    private static final ExecutorService SETUP_EXECUTOR = new ImpersonatingExecutorService(
+            Executors.newCachedThreadPool(
+                    new NamingThreadFactory(new DaemonThreadFactory(),
+                                            "RemoteDockerStepExecution.setup")),
+            ACL.SYSTEM);
+
+    private static final int RESUME_ATTEMPTS = 30;
+    private static final int RESUME_RETRY_SECONDS = 10;
+
+    private volatile DockerState dockerState;
+    private volatile BodyExecution bodyExecution;
+
+    private transient volatile Future<?> setup;
+    private transient volatile String status;
+    private transient volatile long setupStart;
+    private transient volatile boolean stopped;
+    private transient volatile AbstractDockerLauncher setupLauncher;
 
     public RemoteDockerStepExecution(@Nonnull StepContext context,
                                      RemoteDockerStep remoteDockerStep) {
@@ -79,57 +120,232 @@ public class RemoteDockerStepExecution extends StepExecution {
         Launcher launcher = getContext().get(Launcher.class);
         FilePath workspace = getContext().get(FilePath.class);
         EnvVars environment = getContext().get(EnvVars.class);
-        UsernamePasswordCredentials credentials = getContext().get(
-                UsernamePasswordCredentials.class);
-
-        SimpleDockerLauncher simpleDockerLauncher = new SimpleDockerLauncher(
-                launcher, buildWrapper.isDebug(), environment, buildWrapper);
+        Run<?, ?> run = getContext().get(Run.class);
+        DockerAction.getOrCreate(run);
 
-        dockerState = DockerState.launchContainers(buildWrapper,
-                                                   simpleDockerLauncher,
-                                                   workspace);
+        setupStart = System.currentTimeMillis();
+        status = "Waiting to set up containers";
+        setup = SETUP_EXECUTOR.submit(() -> {
+            try {
+                setUp(buildWrapper, launcher, workspace, environment, run);
+            } catch (Throwable t) {
+                if (!stopped) {
+                    getContext().onFailure(t);
+                }
+            } finally {
+                status = null;
+            }
+        });
+        return false;
+    }
 
-        DockerLauncherDecorator dockerLauncherDecorator = new DockerLauncherDecorator(
-                buildWrapper.isDebug(),
-                dockerState,
-                remoteDockerStep.getMain(),
-                environment,
-                remoteDockerStep.getWorkspaceOverride(),
-                credentials);
+    /**
+     * Launch the containers and then start the body inside of them
+     */
+    private void setUp(RemoteDockerBuildWrapper buildWrapper,
+                       Launcher launcher,
+                       FilePath workspace,
+                       EnvVars environment,
+                       Run<?, ?> run) throws Exception {
+        SimpleDockerLauncher simpleDockerLauncher = new SimpleDockerLauncher(
+                launcher, buildWrapper.isDebug(), environment, buildWrapper,
+                run);
+        simpleDockerLauncher.setProgressListener(p -> status = p);
+        setupLauncher = simpleDockerLauncher;
 
-        LauncherDecorator launcherDecorator = BodyInvoker.mergeLauncherDecorators(
-                getContext().get(LauncherDecorator.class),
-                dockerLauncherDecorator);
-        bodyExecution = getContext().newBodyInvoker()
-                .withContext(launcherDecorator)
-                .withCallback(new Callback(dockerState))
-                .start();
+        long start = System.currentTimeMillis();
+        DockerState state = DockerState.launchContainers(buildWrapper,
+                                                         simpleDockerLauncher,
+                                                         workspace);
+        BodyInvoker invoker;
+        try {
+            //Resolved now so the decorator does not have to keep the
+            // configuration and environment
+            ArgumentListBuilder runArgs = new ArgumentListBuilder();
+            buildWrapper.getDockerConfiguration().addRunArgs(
+                    simpleDockerLauncher, runArgs);
+            DockerLauncherDecorator dockerLauncherDecorator = new DockerLauncherDecorator(
+                    buildWrapper.isDebug(),
+                    state,
+                    runArgs.toList(),
+                    buildWrapper.getWorkspaceOverride());
 
+            LauncherDecorator launcherDecorator = BodyInvoker.mergeLauncherDecorators(
+                    getContext().get(LauncherDecorator.class),
+                    dockerLauncherDecorator);
+            invoker = getContext().newBodyInvoker()
+                    .withContext(launcherDecorator)
+                    .withCallback(new Callback(state));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            reap(getNodeName(state), state);
+            throw e;
+        }
+        //Either the body starts or stop() already failed the step, never both
+        synchronized (this) {
+            if (!stopped) {
+                dockerState = state;
+                bodyExecution = invoker.start();
+            }
+        }
+        if (bodyExecution == null) {
+            //Stopped while the containers were starting. This thread may have
+            // been interrupted, so the reaper removes them.
+            reap(getNodeName(state), state);
+            return;
+        }
+        watchContainers(start);
+    }
 
-        return false;
+    /**
+     * Fail the body as soon as one of the containers dies
+     *
+     * @param since when the containers were started or last seen running
+     */
+    private void watchContainers(long since) {
+        try {
+            TaskListener listener = getContext().get(TaskListener.class);
+            ContainerEventWatcher.get().watch(dockerState, since, death -> {
+                death.print(listener);
+                BodyExecution body = bodyExecution;
+                if (body != null) {
+                    body.cancel(new AbortException(
+                            death.getShortDescription()));
+                }
+            });
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.WARNING,
+                       "Cannot watch containers " + dockerState.getContainerIds(),
+                       e);
+        }
     }
 
     @Override
     public void stop(@Nonnull Throwable cause) throws Exception {
-        if (bodyExecution != null) {
-            bodyExecution.cancel(cause);
+        BodyExecution body;
+        synchronized (this) {
+            stopped = true;
+            body = bodyExecution;
         }
-        if (dockerState != null) {
-            Launcher launcher = getContext().get(Launcher.class);
-            dockerState.tearDown(createLauncher(launcher, dockerState));
+        if (body != null) {
+            //The body's callback hands the containers to the reaper
+            body.cancel(cause);
+            return;
         }
-
+        Future<?> setup = this.setup;
+        if (setup != null && !setup.isDone()) {
+            long start = System.nanoTime();
+            //Kill pulls, builds, etc and interrupt waiting for resources
+            AbstractDockerLauncher launcher = setupLauncher;
+            if (launcher != null) {
+                launcher.killInFlight();
+            }
+            setup.cancel(true);
+            //The set up thread removes the partially started containers and
+            // releases their resources by itself, the executor is not held
+            // for it
+            TaskListener listener = getContext().get(TaskListener.class);
+            if (listener != null) {
+                listener.getLogger().println(String.format(
+                        "Aborted container set up in %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(
+                                System.nanoTime() - start)));
+            }
+            getContext().onFailure(cause);
+            return;
+        }
+        //The set up failed or will not start the body anymore
+        getContext().onFailure(cause);
     }
 
     @Override
     public void onResume() {
+        if (dockerState == null && bodyExecution == null) {
+            //The set up thread did not survive the restart
+            getContext().onFailure(new AbortException(
+                    "Jenkins restarted while the containers were being set up"));
+        } else if (dockerState != null) {
+            //The managers lost their leases with the restart. Take them back
+            // before other builds get them, tearing down releases them again
+            dockerState.restoreResources();
+            long start = System.nanoTime();
+            SETUP_EXECUTOR.submit(() -> reattach(start, 1));
+        }
+    }
 
+    /**
+     * Check that the containers survived the restart so the body can go on
+     * using them. If any are gone, the body is failed, which tears down what
+     * is left.
+     *
+     * @param start   when the step resumed
+     * @param attempt
+     */
+    private void reattach(long start, int attempt) {
+        try {
+            Launcher launcher = getContext().get(Launcher.class);
+            if (launcher == null || launcher.getChannel() == null) {
+                //The agent has not reconnected yet
+                if (attempt < RESUME_ATTEMPTS) {
+                    Timer.get().schedule(
+                            () -> SETUP_EXECUTOR.submit(
+                                    () -> reattach(start, attempt + 1)),
+                            RESUME_RETRY_SECONDS, TimeUnit.SECONDS);
+                    return;
+                }
+                throw new AbortException(
+                        "The agent running the containers did not come back after the restart");
+            }
+            TaskListener listener = getContext().get(TaskListener.class);
+            long checked = System.currentTimeMillis();
+            List<String> missing = dockerState.findMissingResources(
+                    createLauncher(launcher, dockerState));
+            long millis = TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - start);
+            if (missing.isEmpty()) {
+                listener.getLogger().println(String.format(
+                        "Reattached to containers %s in %d ms",
+                        dockerState.getContainerIds(), millis));
+                watchContainers(checked);
+                return;
+            }
+            throw new AbortException(String.format(
+                    "Containers or network %s are gone after the restart (checked in %d ms)",
+                    missing, millis));
+        } catch (Exception e) {
+            if (bodyExecution != null) {
+                bodyExecution.cancel(e);
+            } else {
+                reap(getNodeName(dockerState), dockerState);
+                getContext().onFailure(e);
+            }
+        }
     }
 
     @CheckForNull
     @Override
     public String getStatus() {
-        return null;
+        String status = this.status;
+        if (status == null) {
+            return null;
+        }
+        return String.format("%s (%d s)", status,
+                             (System.currentTimeMillis() - setupStart) / 1000);
+    }
+
+    private static String getNodeName(DockerState dockerState) {
+        return dockerState.getLeaseOwner() != null
+                ? dockerState.getLeaseOwner().getNodeName() : "master";
+    }
+
+    /**
+     * Queue the containers to be torn down in the background, on the node's
+     * channel at the time of each attempt
+     */
+    private static void reap(String nodeName, DockerState dockerState) {
+        ContainerReaper.get().submit(
+                nodeName, dockerState,
+                () -> createLauncher(ContainerReaper.logToController(nodeName),
+                                     dockerState));
     }
 
     private static AbstractDockerLauncher createLauncher(Launcher launcher,
@@ -154,8 +370,9 @@ public class RemoteDockerStepExecution extends StepExecution {
     }
 
     /**
-     * Callback to execute at the end of the step's body. Basically, just
-     * shutdown the containers
+     * Callback to execute at the end of the step's body. Collects the
+     * resource usage and hands the containers to the {@link ContainerReaper}
+     * so the step completes without waiting for them to be removed.
      */
     private static class Callback extends BodyExecutionCallback {
 
@@ -167,24 +384,50 @@ public class RemoteDockerStepExecution extends StepExecution {
 
         @Override
         public void onSuccess(StepContext context, Object result) {
-            try {
-                Launcher launcher = context.get(Launcher.class);
-                dockerState.tearDown(createLauncher(launcher, dockerState));
-                context.onSuccess(result);
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+            tearDown(context, () -> context.onSuccess(result));
         }
 
         @Override
         public void onFailure(StepContext context, Throwable t) {
-            try {
-                Launcher launcher = context.get(Launcher.class);
-                dockerState.tearDown(createLauncher(launcher, dockerState));
-                context.onFailure(t);
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+            tearDown(context, () -> context.onFailure(t));
+        }
+
+        /**
+         * Collect the usage while the step and its log are still open, but
+         * off the CPS VM thread, then complete the step
+         */
+        private void tearDown(StepContext context, Runnable complete) {
+            ContainerEventWatcher.get().unwatch(dockerState);
+            SETUP_EXECUTOR.submit(() -> {
+                try {
+                    Launcher launcher = context.get(Launcher.class);
+                    try {
+                        dockerState.collectUsage(createLauncher(launcher,
+                                                                dockerState));
+                    } catch (RuntimeException e) {
+                        //The agent is gone, the reaper retries the teardown
+                        LOGGER.log(Level.WARNING,
+                                   "Could not collect resource usage of " + dockerState.getContainerIds(),
+                                   e);
+                    }
+                    String nodeName;
+                    if (dockerState.getLeaseOwner() != null) {
+                        nodeName = dockerState.getLeaseOwner().getNodeName();
+                    } else {
+                        Computer computer = context.get(Computer.class);
+                        nodeName = computer != null ? Utils.getNodeName(
+                                computer) : "master";
+                    }
+                    reap(nodeName, dockerState);
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING,
+                               "Could not queue teardown of " + dockerState.getContainerIds(),
+                               e);
+                    dockerState.releaseResources();
+                } finally {
+                    complete.run();
+                }
+            });
         }
     }
 }
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.gpuopenanalytics.jenkins.remotedocker.agent.LeaseOwner;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerConfiguration;
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.Proc;
+
+import java.io.IOException;
+
+/**
+ * {@link AbstractDockerLauncher} over a {@link FakeLauncher} with a fixed
+ * environment, for benchmarks and tests
+ */
+public class BenchmarkDockerLauncher extends AbstractDockerLauncher {
+
+    private final EnvVars environment;
+    private final DockerConfiguration dockerConfiguration;
+    private String workspaceOverride;
+
+    public BenchmarkDockerLauncher(Launcher launcher,
+                                   EnvVars environment,
+                                   DockerConfiguration dockerConfiguration) {
+        super(launcher);
+        this.environment = environment;
+        this.dockerConfiguration = dockerConfiguration;
+    }
+
+    /**
+     * Create an environment like a build's, padded with generated variables
+     * up to the size
+     *
+     * @param size
+     * @return
+     */
+    public static EnvVars createEnvironment(int size) {
+        EnvVars env = new EnvVars();
+        env.put("NODE_NAME", "master");
+        env.put("JOB_NAME", "team/project/master");
+        env.put("BRANCH_NAME", "master");
+        env.put("BUILD_NUMBER", "42");
+        env.put("WORKSPACE", "/var/lib/jenkins/workspace/team_project_master");
+        env.put("PATH", "/usr/local/sbin:/usr/local/bin:/usr/sbin:/usr/bin:/sbin:/bin");
+        env.put("CUDA_VERSION", "10.1");
+        env.put("IMAGE_TAG", "cuda10.1-ubuntu18.04");
+        for (int i = env.size(); i < size; i++) {
+            env.put("GENERATED_VARIABLE_" + i, "value-of-generated-variable-" + i);
+        }
+        return env;
+    }
+
+    /**
+     * Start a new lease owner, as launching containers does, so the leases
+     * taken by config items can be released afterwards
+     *
+     * @return
+     */
+    public LeaseOwner newLeaseOwner() {
+        return newLeaseOwner(null);
+    }
+
+    /**
+     * Start a new lease owner for the build
+     *
+     * @param runId the {@link hudson.model.Run#getExternalizableId()} of the
+     *              build
+     * @return
+     */
+    public LeaseOwner newLeaseOwner(String runId) {
+        LeaseOwner owner = LeaseOwner.create(Utils.getNodeName(this), runId);
+        configureLeaseOwner(owner);
+        return owner;
+    }
+
+    public void setWorkspaceOverride(String workspaceOverride) {
+        this.workspaceOverride = workspaceOverride;
+    }
+
+    @Override
+    public Proc dockerExec(ProcStarter starter,
+                           boolean addRunArgs) throws IOException {
+        return super.dockerExec(starter, addRunArgs, workspaceOverride,
+                                dockerConfiguration);
+    }
+
+    @Override
+    public EnvVars getEnvironment() {
+        return environment;
+    }
+
+    @Override
+    public boolean isDebug() {
+        return false;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A scriptable stand-in for the docker CLI, see <code>fake-docker.sh</code>.
+ * It is used instead of <code>docker</code> from when {@link #useForDocker()}
+ * is called until {@link #stopUsingForDocker()} is.
+ */
+public class FakeDocker {
+
+    private final File executable;
+    private final File log;
+    private final File conf;
+
+    private FakeDocker(File dir) {
+        this.executable = new File(dir, "docker");
+        this.log = new File(dir, "invocations.log");
+        this.conf = new File(dir, "fake-docker.conf");
+    }
+
+    /**
+     * Install the stand-in into the directory
+     *
+     * @param dir
+     * @param pullMillis  latency of <code>docker pull</code>
+     * @param runMillis   latency of <code>docker run</code>
+     * @param execMillis  latency of <code>docker exec</code> before the
+     *                    command starts
+     * @param rmMillis    latency of <code>docker rm</code>
+     * @param otherMillis latency of all other commands
+     * @return
+     * @throws IOException
+     */
+    public static FakeDocker install(File dir,
+                                     long pullMillis,
+                                     long runMillis,
+                                     long execMillis,
+                                     long rmMillis,
+                                     long otherMillis) throws IOException {
+        FakeDocker docker = new FakeDocker(dir);
+        try (InputStream in = FakeDocker.class.getResourceAsStream(
+                "fake-docker.sh")) {
+            FileUtils.writeByteArrayToFile(docker.executable,
+                                           IOUtils.toByteArray(in));
+        }
+        if (!docker.executable.setExecutable(true)) {
+            throw new IOException("Could not make " + docker.executable + " executable");
+        }
+        FileUtils.writeStringToFile(
+                docker.conf,
+                String.format("PULL_MS=%d%nRUN_MS=%d%nEXEC_MS=%d%nRM_MS=%d%nOTHER_MS=%d%n",
+                              pullMillis, runMillis, execMillis, rmMillis,
+                              otherMillis),
+                StandardCharsets.UTF_8);
+        return docker;
+    }
+
+    /**
+     * Make <code>docker events</code> report the last container started as
+     * OOM killed, with exit code 137, after the delay
+     *
+     * @param millis
+     * @return
+     * @throws IOException
+     */
+    public FakeDocker dieAfter(long millis) throws IOException {
+        FileUtils.writeStringToFile(conf, String.format("DIE_MS=%d%n", millis),
+                                    StandardCharsets.UTF_8, true);
+        return this;
+    }
+
+    /**
+     * Make the plugin run this stand-in instead of <code>docker</code>
+     */
+    public void useForDocker() {
+        System.setProperty(AbstractDockerLauncher.class.getName() + ".docker",
+                           executable.getAbsolutePath());
+    }
+
+    /**
+     * Make the plugin run <code>docker</code> again
+     */
+    public static void stopUsingForDocker() {
+        System.clearProperty(AbstractDockerLauncher.class.getName() + ".docker");
+    }
+
+    /**
+     * Get the invocations so far, one per line as
+     * <code>&lt;epoch ms&gt; &lt;args&gt;</code>
+     *
+     * @return
+     * @throws IOException
+     */
+    public List<String> getInvocations() throws IOException {
+        if (!log.exists()) {
+            return Collections.emptyList();
+        }
+        return FileUtils.readLines(log, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Forget the invocations so far
+     *
+     * @throws IOException
+     */
+    public void clearInvocations() throws IOException {
+        FileUtils.deleteQuietly(log);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Launcher} that does not run anything. Each command completes
+ * immediately with status 0 and the canned output of the longest matching
+ * command prefix, so launchers can be benchmarked and tested without docker
+ * or GPUs. Commands can also be passed on to another launcher to run a
+ * stand-in script.
+ */
+public class FakeLauncher extends Launcher {
+
+    private final Map<String, String> responses = new TreeMap<>();
+    private final Map<String, Launcher> delegates = new TreeMap<>();
+    private final AtomicLong invocations = new AtomicLong();
+
+    /**
+     * @param listener
+     * @param channel  the channel callables are run on, such as {@link
+     *                 FilePath#localChannel}, or null if none are run
+     */
+    public FakeLauncher(TaskListener listener,
+                        @CheckForNull VirtualChannel channel) {
+        super(listener, channel);
+        respond("docker --version", "Docker version 19.03.5, build 633a0ea\n");
+    }
+
+    /**
+     * Answer commands starting with the prefix, such as <code>nvidia-smi
+     * -L</code>, with the output
+     *
+     * @param commandPrefix
+     * @param stdout
+     * @return this
+     */
+    public FakeLauncher respond(String commandPrefix, String stdout) {
+        synchronized (responses) {
+            responses.put(commandPrefix, stdout);
+        }
+        return this;
+    }
+
+    /**
+     * Run commands starting with the prefix, such as the path of a stand-in
+     * script, with the launcher instead of answering them
+     *
+     * @param commandPrefix
+     * @param launcher
+     * @return this
+     */
+    public FakeLauncher delegate(String commandPrefix, Launcher launcher) {
+        synchronized (delegates) {
+            delegates.put(commandPrefix, launcher);
+        }
+        return this;
+    }
+
+    /**
+     * Number of commands launched so far
+     *
+     * @return
+     */
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    @Override
+    public Proc launch(ProcStarter starter) throws IOException {
+        invocations.incrementAndGet();
+        List<String> cmds = starter.cmds();
+        //Skip the env HOME=... used when logged in to a registry
+        int first = 0;
+        while (first < cmds.size() && ("env".equals(cmds.get(first))
+                || cmds.get(first).contains("="))) {
+            first++;
+        }
+        String command = String.join(" ", cmds.subList(first, cmds.size()));
+        Launcher delegate = null;
+        synchronized (delegates) {
+            for (Map.Entry<String, Launcher> e : delegates.entrySet()) {
+                if (command.startsWith(e.getKey())) {
+                    delegate = e.getValue();
+                }
+            }
+        }
+        if (delegate != null) {
+            return delegate.launch(starter);
+        }
+        String output = "";
+        synchronized (responses) {
+            for (Map.Entry<String, String> e : responses.entrySet()) {
+                if (command.startsWith(e.getKey())) {
+                    //Sorted, so later matches are longer
+                    output = e.getValue();
+                }
+            }
+        }
+        if (starter.stdout() != null) {
+            starter.stdout().write(output.getBytes(StandardCharsets.UTF_8));
+        }
+        return new FinishedProc();
+    }
+
+    @Override
+    public Channel launchChannel(String[] cmd,
+                                 OutputStream out,
+                                 FilePath workDir,
+                                 Map<String, String> envVars) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void kill(Map<String, String> modelEnvVars) {
+        //Nothing is ever running
+    }
+
+    private static class FinishedProc extends Proc {
+
+        @Override
+        public boolean isAlive() {
+            return false;
+        }
+
+        @Override
+        public void kill() {
+        }
+
+        @Override
+        public int join() {
+            return 0;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return null;
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketValuesRoundTrip() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            assertEquals(i, LatencyHistogram.indexOf(LatencyHistogram.valueOf(i)));
+        }
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        assertEquals(0, LatencyHistogram.indexOf(0));
+        assertEquals(LatencyHistogram.BUCKETS - 1,
+                     LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE));
+        //Consecutive values never skip a bucket
+        int previous = 0;
+        for (long micros = 1; micros < 1 << 20; micros++) {
+            int index = LatencyHistogram.indexOf(micros);
+            assertTrue(index == previous || index == previous + 1);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void bucketValuesWithin3Percent() {
+        for (long micros = 1; micros <= LatencyHistogram.MAX_VALUE;
+             micros = micros * 3 / 2 + 1) {
+            long value = LatencyHistogram.valueOf(
+                    LatencyHistogram.indexOf(micros));
+            assertTrue(micros + " -> " + value,
+                       Math.abs(value - micros) <= micros * 3 / 100);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertWithin3Percent(50_000, histogram.getValueAtPercentile(50));
+        assertWithin3Percent(95_000, histogram.getValueAtPercentile(95));
+        assertWithin3Percent(99_000, histogram.getValueAtPercentile(99));
+        assertWithin3Percent(100_000, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void emptyPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals("0 \u00b5s", histogram.getP99());
+    }
+
+    @Test
+    public void clampsValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(-1);
+        histogram.recordNanos(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.valueOf(LatencyHistogram.BUCKETS - 1),
+                     histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void formatsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(10));
+        histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(2));
+
+        assertEquals("10 \u00b5s", histogram.getP50());
+        assertTrue(histogram.getP99(), histogram.getP99().endsWith(" ms"));
+    }
+
+    @Test
+    public void addsAndResets() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.recordNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        b.recordNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        b.recordNanos(TimeUnit.MILLISECONDS.toNanos(5));
+
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(2, b.getCount());
+
+        a.reset();
+        assertEquals(0, a.getCount());
+    }
+
+    @Test
+    public void persistsNonEmptyBuckets() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(3));
+        histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(3));
+        histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(100));
+
+        assertEquals("3:2,82:1", histogram.toBuckets());
+
+        LatencyHistogram copy = roundTrip(histogram);
+        assertEquals(histogram.toBuckets(), copy.toBuckets());
+        assertEquals(histogram.getValueAtPercentile(99),
+                     copy.getValueAtPercentile(99));
+        //The restored histogram is still usable
+        copy.recordNanos(TimeUnit.MICROSECONDS.toNanos(3));
+        assertEquals(4, copy.getCount());
+    }
+
+    @Test
+    public void persistsEmptyHistogram() throws Exception {
+        LatencyHistogram copy = roundTrip(new LatencyHistogram());
+
+        assertEquals("", copy.toBuckets());
+        assertEquals(0, copy.getCount());
+    }
+
+    @Test
+    public void countsBucketsBeyondTheLastInIt() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.addBuckets("1:1," + LatencyHistogram.BUCKETS + ":2,"
+                                     + (LatencyHistogram.BUCKETS + 100) + ":3");
+
+        assertEquals(6, histogram.getCount());
+        assertEquals("1:1," + (LatencyHistogram.BUCKETS - 1) + ":5",
+                     histogram.toBuckets());
+    }
+
+    private static void assertWithin3Percent(long expected, long actual) {
+        assertTrue(expected + " != " + actual,
+                   Math.abs(actual - expected) <= expected * 3 / 100);
+    }
+
+    private static LatencyHistogram roundTrip(LatencyHistogram histogram) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(histogram);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (LatencyHistogram) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryHistoryTest {
+
+    private static final long MIB = 1L << 20;
+    private static final long GIB = 1L << 30;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * One entry per peak, in the order given, all with the limit
+     */
+    private static List<MemoryHistory.Entry> history(long limit,
+                                                     long... peaks) {
+        List<MemoryHistory.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < peaks.length; i++) {
+            entries.add(new MemoryHistory.Entry(i + 1, peaks[i], limit));
+        }
+        return entries;
+    }
+
+    @Test
+    public void noRecommendationBelowTheMinimumBuilds() {
+        assertNull(MemoryHistory.recommend(Collections.emptyList()));
+        assertNull(MemoryHistory.recommend(
+                history(0, GIB, GIB, GIB, GIB)));
+        assertNotNull(MemoryHistory.recommend(
+                history(0, GIB, GIB, GIB, GIB, GIB)));
+    }
+
+    @Test
+    public void maxPeakBelow100Builds() {
+        MemoryHistory.Recommendation recommendation = MemoryHistory.recommend(
+                history(0, 300 * MIB, 1000 * MIB, 200 * MIB, 900 * MIB,
+                        100 * MIB));
+
+        assertEquals(1000 * MIB, recommendation.getPeakBytes());
+        assertEquals("max", recommendation.getPeakStatistic());
+        assertEquals(5, recommendation.getBuilds());
+    }
+
+    @Test
+    public void p99PeakFrom100Builds() {
+        long[] peaks = new long[100];
+        for (int i = 0; i < peaks.length; i++) {
+            peaks[i] = (i + 1) * MIB;
+        }
+        //The order of the builds does not matter
+        Random random = new Random(42);
+        for (int i = peaks.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long swap = peaks[i];
+            peaks[i] = peaks[j];
+            peaks[j] = swap;
+        }
+
+        MemoryHistory.Recommendation recommendation = MemoryHistory.recommend(
+                history(0, peaks));
+
+        assertEquals(99 * MIB, recommendation.getPeakBytes());
+        assertEquals("p99", recommendation.getPeakStatistic());
+    }
+
+    @Test
+    public void addsHeadroomRoundedUpTo64MiB() {
+        //1000 MiB plus 20% is 1200 MiB, rounded up to 19 * 64 MiB
+        MemoryHistory.Recommendation recommendation = MemoryHistory.recommend(
+                history(0, 1000 * MIB, 1000 * MIB, 1000 * MIB, 1000 * MIB,
+                        1000 * MIB));
+
+        assertEquals(1216 * MIB, recommendation.getRecommendedBytes());
+        assertEquals("1216m", recommendation.getRecommendedValue());
+    }
+
+    @Test
+    public void keepsMultiplesOf64MiB() {
+        //320 MiB plus 20% is exactly 6 * 64 MiB
+        MemoryHistory.Recommendation recommendation = MemoryHistory.recommend(
+                history(0, 320 * MIB, 320 * MIB, 320 * MIB, 320 * MIB,
+                        320 * MIB));
+
+        assertEquals(384 * MIB, recommendation.getRecommendedBytes());
+    }
+
+    @Test
+    public void recommendsWholeGigabytes() {
+        MemoryHistory.Recommendation recommendation = MemoryHistory.recommend(
+                history(0, 5 * GIB, 5 * GIB, 5 * GIB, 5 * GIB, 5 * GIB));
+
+        assertEquals("6g", recommendation.getRecommendedValue());
+    }
+
+    @Test
+    public void recommendsAtLeast64MiB() {
+        MemoryHistory.Recommendation recommendation = MemoryHistory.recommend(
+                history(0, MIB, MIB, MIB, MIB, 0));
+
+        assertEquals(64 * MIB, recommendation.getRecommendedBytes());
+    }
+
+    @Test
+    public void flagsOverProvisionedLimits() {
+        long[] peaks = {5 * GIB, 5 * GIB, 5 * GIB, 5 * GIB, 5 * GIB};
+
+        assertTrue(MemoryHistory.recommend(history(12 * GIB, peaks))
+                           .isOverProvisioned());
+        assertFalse(MemoryHistory.recommend(history(8 * GIB, peaks))
+                            .isOverProvisioned());
+        MemoryHistory.Recommendation unlimited = MemoryHistory.recommend(
+                history(0, peaks));
+        assertFalse(unlimited.isOverProvisioned());
+        assertNull(unlimited.getCurrentLimit());
+    }
+
+    @Test
+    public void appendsBuilds() throws Exception {
+        File dir = tmp.getRoot();
+        MemoryHistory.append(dir, new MemoryHistory.Entry(1, GIB, 4 * GIB));
+        MemoryHistory.append(dir, new MemoryHistory.Entry(2, 2 * GIB, 4 * GIB));
+
+        List<MemoryHistory.Entry> entries = MemoryHistory.load(dir);
+
+        assertEquals(2, entries.size());
+        assertEquals(1, entries.get(0).getBuild());
+        assertEquals(2 * GIB, entries.get(1).getPeakBytes());
+        assertEquals(4 * GIB, entries.get(1).getLimitBytes());
+    }
+
+    @Test
+    public void mergesLaunchesOfOneBuild() throws Exception {
+        File dir = tmp.getRoot();
+        MemoryHistory.append(dir, new MemoryHistory.Entry(7, GIB, 8 * GIB));
+        //A second remoteDocker step of the same build
+        List<MemoryHistory.Entry> entries = MemoryHistory.append(
+                dir, new MemoryHistory.Entry(7, 3 * GIB, 4 * GIB));
+
+        assertEquals(1, entries.size());
+        assertEquals(7, entries.get(0).getBuild());
+        assertEquals(3 * GIB, entries.get(0).getPeakBytes());
+        assertEquals(8 * GIB, entries.get(0).getLimitBytes());
+        assertEquals(entries.toString(), MemoryHistory.load(dir).toString());
+    }
+
+    @Test
+    public void keepsTheLastBuilds() throws Exception {
+        File dir = tmp.getRoot();
+        for (int build = 1; build <= 35; build++) {
+            MemoryHistory.append(dir, new MemoryHistory.Entry(build, GIB, 0));
+        }
+
+        List<MemoryHistory.Entry> entries = MemoryHistory.load(dir);
+
+        assertEquals(30, entries.size());
+        assertEquals(6, entries.get(0).getBuild());
+        assertEquals(35, entries.get(29).getBuild());
+    }
+
+    @Test
+    public void skipsMalformedLines() throws Exception {
+        File dir = tmp.getRoot();
+        FileUtils.writeStringToFile(new File(dir, MemoryHistory.FILE_NAME),
+                                    "1,1024,0\nnot,a,number\n2,2048\n\n3,4096,0\n",
+                                    StandardCharsets.UTF_8);
+
+        List<MemoryHistory.Entry> entries = MemoryHistory.load(dir);
+
+        assertEquals(2, entries.size());
+        assertEquals(3, entries.get(1).getBuild());
+    }
+
+    @Test
+    public void noHistory() {
+        assertTrue(MemoryHistory.load(tmp.getRoot()).isEmpty());
+    }
+}
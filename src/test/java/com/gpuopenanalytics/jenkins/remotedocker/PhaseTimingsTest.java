@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PhaseTimingsTest {
+
+    @Test
+    public void summarizesPhasesInOrder() {
+        PhaseTimings timings = new PhaseTimings();
+        timings.record(PhaseTimings.Phase.TEARDOWN,
+                       TimeUnit.MILLISECONDS.toNanos(40));
+        timings.record(PhaseTimings.Phase.EXEC,
+                       TimeUnit.MICROSECONDS.toNanos(1500));
+        timings.record(PhaseTimings.Phase.EXEC,
+                       TimeUnit.MICROSECONDS.toNanos(2500));
+        timings.record(PhaseTimings.Phase.LOGIN,
+                       TimeUnit.MILLISECONDS.toNanos(300));
+
+        List<PhaseTimings.PhaseSummary> phases = timings.getPhases();
+
+        assertEquals(3, phases.size());
+        assertEquals("LOGIN", phases.get(0).getPhase());
+        assertEquals("EXEC", phases.get(1).getPhase());
+        assertEquals("TEARDOWN", phases.get(2).getPhase());
+
+        PhaseTimings.PhaseSummary exec = phases.get(1);
+        assertEquals("docker exec overhead", exec.getDisplayName());
+        assertEquals(2, exec.getCount());
+        assertEquals(4, exec.getTotalMillis());
+        assertEquals(2, exec.getMaxMillis());
+        assertEquals(2.0, exec.getAverageMillis(), 0.001);
+        assertEquals("2.0", exec.getAverage());
+    }
+
+    @Test
+    public void noPhases() {
+        assertTrue(new PhaseTimings().getPhases().isEmpty());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker;
+
+import com.gpuopenanalytics.jenkins.remotedocker.agent.ContainerDeath;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerImageConfiguration;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.tasks.Shell;
+import jenkins.model.InterruptedBuildAction;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteDockerBuildWrapperTest {
+
+    @ClassRule
+    public static TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private static FakeDocker docker;
+
+    @BeforeClass
+    public static void installFakeDocker() throws Exception {
+        docker = FakeDocker.install(tmp.getRoot(), 0, 0, 0, 0, 0)
+                .dieAfter(TimeUnit.SECONDS.toMillis(3));
+        docker.useForDocker();
+    }
+
+    @AfterClass
+    public static void uninstallFakeDocker() {
+        FakeDocker.stopUsingForDocker();
+    }
+
+    @Test
+    public void failsWhenTheContainerDies() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildWrappersList().add(new RemoteDockerBuildWrapper(
+                false, null,
+                new DockerImageConfiguration(Collections.emptyList(),
+                                             Collections.emptyList(),
+                                             "ubuntu:18.04", false, "0"),
+                Collections.emptyList(), null, null));
+        project.getBuildersList().add(new Shell("sleep 60"));
+
+        FreeStyleBuild build = j.assertBuildStatus(Result.FAILURE,
+                                                   project.scheduleBuild2(0));
+
+        InterruptedBuildAction action = build.getAction(
+                InterruptedBuildAction.class);
+        assertNotNull("The build was not interrupted", action);
+        List<ContainerDeath> deaths = action.getCauses().stream()
+                .filter(ContainerDeath.class::isInstance)
+                .map(ContainerDeath.class::cast)
+                .collect(Collectors.toList());
+        assertEquals(1, deaths.size());
+        assertTrue(deaths.get(0).isMain());
+        assertTrue(deaths.get(0).isOomKilled());
+        assertEquals(137, deaths.get(0).getExitCode());
+        assertTrue("The containers were not removed",
+                   docker.getInvocations().stream()
+                           .anyMatch(i -> i.contains(" rm -f ")));
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.BenchmarkDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.FakeLauncher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheVolumeManagerTest {
+
+    private static final String MAVEN = CacheVolumeManager.VOLUME_PREFIX + "0123456789ab-maven";
+    private static final String PARENT = CacheVolumeManager.VOLUME_PREFIX + "ba9876543210-maven";
+    private static final String PIP = CacheVolumeManager.VOLUME_PREFIX + "0123456789ab-pip";
+    private static final long GIB = 1L << 30;
+
+    private RecordingLauncher launcher;
+    private CacheVolumeManager manager;
+
+    @Before
+    public void setUp() {
+        launcher = new RecordingLauncher();
+        manager = new CacheVolumeManager();
+    }
+
+    /**
+     * Output of <code>docker system df -v</code> listing the volumes, each
+     * given as name, links and size
+     */
+    private static String systemDf(String... volumes) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Images space usage:\n\n")
+                .append("REPOSITORY          TAG       IMAGE ID       CREATED       SIZE      SHARED SIZE   UNIQUE SIZE   CONTAINERS\n")
+                .append("nvidia/cuda         10.1      4b0fb1a0a4c4   2 weeks ago   2.48GB    0B            2.48GB        1\n\n")
+                .append("Containers space usage:\n\n")
+                .append("CONTAINER ID   IMAGE         COMMAND     LOCAL VOLUMES   SIZE      CREATED       STATUS         NAMES\n")
+                .append("f3a6c1d2e4b5   nvidia/cuda   \"/bin/sh\"   1               0B        2 hours ago   Up 2 hours     eager_turing\n\n")
+                .append("Local Volumes space usage:\n\n")
+                .append("VOLUME NAME                                                        LINKS     SIZE\n")
+                .append("4f1e2d3c4b5a69788796a5b4c3d2e1f04f1e2d3c4b5a69788796a5b4c3d2e1f0   1         12kB\n");
+        for (int i = 0; i < volumes.length; i += 3) {
+            sb.append(String.format("%-66s %-9s %s%n", volumes[i], volumes[i + 1],
+                                    volumes[i + 2]));
+        }
+        sb.append("\nBuild cache usage: 0B\n\n")
+                .append("CACHE ID    CACHE TYPE    SIZE      CREATED   LAST USED   USAGE     SHARED\n");
+        return sb.toString();
+    }
+
+    private void volumes(String... volumes) {
+        launcher.respond("docker system df -v", systemDf(volumes));
+    }
+
+    /**
+     * A launcher for a new build on the node
+     */
+    private BenchmarkDockerLauncher newBuild() {
+        BenchmarkDockerLauncher build = new BenchmarkDockerLauncher(
+                launcher, BenchmarkDockerLauncher.createEnvironment(0), null);
+        build.newLeaseOwner();
+        return build;
+    }
+
+    private CacheVolumeUsage acquire(BenchmarkDockerLauncher build,
+                                     String baseVolume,
+                                     String parentVolume,
+                                     long budget) throws Exception {
+        return manager.acquire(build, "maven", baseVolume, parentVolume,
+                               budget);
+    }
+
+    @Test
+    public void parsesOnlyCacheVolumes() {
+        Map<String, CacheVolumeManager.VolumeInfo> volumes = CacheVolumeManager.parseSystemDf(
+                systemDf(MAVEN, "0", "1.5GB", PIP, "2", "512MiB", "unrelated",
+                         "0", "1GB"));
+
+        assertEquals(2, volumes.size());
+        assertEquals(0, volumes.get(MAVEN).getLinks());
+        assertEquals(1500000000L, volumes.get(MAVEN).getSize());
+        assertEquals(2, volumes.get(PIP).getLinks());
+        assertEquals(512L << 20, volumes.get(PIP).getSize());
+    }
+
+    @Test
+    public void parsesNoVolumes() {
+        assertTrue(CacheVolumeManager.parseSystemDf(systemDf()).isEmpty());
+        assertTrue(CacheVolumeManager.parseSystemDf("").isEmpty());
+    }
+
+    @Test
+    public void unknownSizesAreNegative() {
+        Map<String, CacheVolumeManager.VolumeInfo> volumes = CacheVolumeManager.parseSystemDf(
+                systemDf(MAVEN, "N/A", "N/A"));
+
+        assertEquals(0, volumes.get(MAVEN).getLinks());
+        assertEquals(-1, volumes.get(MAVEN).getSize());
+    }
+
+    @Test
+    public void hitsAnIdleVolume() throws Exception {
+        volumes(MAVEN, "0", "1GB");
+
+        CacheVolumeUsage usage = acquire(newBuild(), MAVEN, null, 0);
+
+        assertEquals(MAVEN, usage.getVolume());
+        assertEquals(CacheVolumeUsage.Status.HIT, usage.getStatus());
+        assertEquals(1000000000L, usage.getSizeBytes());
+        assertFalse(launcher.ran("docker volume create"));
+    }
+
+    @Test
+    public void createsTheFirstSlot() throws Exception {
+        volumes();
+
+        CacheVolumeUsage usage = acquire(newBuild(), MAVEN, null, 0);
+
+        assertEquals(MAVEN, usage.getVolume());
+        assertEquals(CacheVolumeUsage.Status.MISS, usage.getStatus());
+        assertTrue(launcher.ran("docker volume create --label "
+                                        + CacheVolumeManager.CACHE_LABEL + "=maven " + MAVEN));
+    }
+
+    @Test
+    public void createsASlotWhenTheVolumeIsLeased() throws Exception {
+        volumes(MAVEN, "0", "1GB");
+        acquire(newBuild(), MAVEN, null, 0);
+
+        CacheVolumeUsage usage = acquire(newBuild(), MAVEN, null, 0);
+
+        assertEquals(MAVEN + ".1", usage.getVolume());
+        assertEquals(CacheVolumeUsage.Status.MISS, usage.getStatus());
+    }
+
+    @Test
+    public void createsASlotWhenTheVolumeIsMounted() throws Exception {
+        //Mounted by a container the plugin does not know about
+        volumes(MAVEN, "1", "1GB", MAVEN + ".1", "1", "1GB");
+
+        CacheVolumeUsage usage = acquire(newBuild(), MAVEN, null, 0);
+
+        assertEquals(MAVEN + ".2", usage.getVolume());
+    }
+
+    @Test
+    public void reusesAReleasedSlot() throws Exception {
+        volumes(MAVEN, "0", "1GB", MAVEN + ".1", "0", "1GB");
+        acquire(newBuild(), MAVEN, null, 0);
+        BenchmarkDockerLauncher second = newBuild();
+        acquire(second, MAVEN, null, 0);
+        manager.release(second.getLeaseOwner());
+
+        CacheVolumeUsage usage = acquire(newBuild(), MAVEN, null, 0);
+
+        assertEquals(MAVEN + ".1", usage.getVolume());
+        assertEquals(CacheVolumeUsage.Status.HIT, usage.getStatus());
+    }
+
+    @Test
+    public void seedsFromTheParent() throws Exception {
+        volumes(PARENT, "0", "2GB");
+
+        CacheVolumeUsage usage = acquire(newBuild(), MAVEN, PARENT, 0);
+
+        assertEquals(MAVEN, usage.getVolume());
+        assertEquals(CacheVolumeUsage.Status.SEEDED, usage.getStatus());
+        assertEquals(2000000000L, usage.getSizeBytes());
+        assertTrue(launcher.ran("docker run --rm -v " + PARENT + ":/from:ro -v " + MAVEN + ":/to"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() throws Exception {
+        String older = CacheVolumeManager.VOLUME_PREFIX + "000000000001-maven";
+        String newer = CacheVolumeManager.VOLUME_PREFIX + "000000000002-maven";
+        volumes(older, "0", "1GiB", newer, "0", "1GiB", MAVEN, "0", "1GiB");
+        BenchmarkDockerLauncher build = newBuild();
+        acquire(build, older, null, 0);
+        manager.release(build.getLeaseOwner());
+        build = newBuild();
+        acquire(build, newer, null, 0);
+        manager.release(build.getLeaseOwner());
+
+        CacheVolumeUsage usage = acquire(newBuild(), MAVEN, null, 2 * GIB);
+
+        assertEquals(1, usage.getEvicted());
+        assertTrue(launcher.ran("docker volume rm " + older));
+        assertFalse(launcher.ran("docker volume rm " + newer));
+        assertFalse(launcher.ran("docker volume rm " + MAVEN));
+    }
+
+    @Test
+    public void neverEvictsLeasedVolumes() throws Exception {
+        volumes(PIP, "0", "1GiB", MAVEN, "0", "1GiB");
+        acquire(newBuild(), PIP, null, 0);
+
+        CacheVolumeUsage usage = acquire(newBuild(), MAVEN, null, GIB);
+
+        assertEquals(0, usage.getEvicted());
+        assertFalse(launcher.ran("docker volume rm"));
+    }
+
+    @Test
+    public void reportsTheFirstAttemptOfARetriedLaunch() throws Exception {
+        volumes();
+        BenchmarkDockerLauncher build = newBuild();
+        LeaseOwner owner = build.getLeaseOwner();
+        acquire(build, MAVEN, null, 0);
+        //Released while waiting for another resource
+        manager.release(owner);
+        volumes(MAVEN, "0", "0B");
+        acquire(build, MAVEN, null, 0);
+
+        List<CacheVolumeUsage> usages = manager.takeUsages(owner);
+
+        assertEquals(1, usages.size());
+        assertEquals(MAVEN, usages.get(0).getVolume());
+        assertEquals(CacheVolumeUsage.Status.MISS, usages.get(0).getStatus());
+        assertEquals(Collections.emptyList(), manager.takeUsages(owner));
+    }
+
+    /**
+     * Records the commands it was asked to run
+     */
+    private static class RecordingLauncher extends FakeLauncher {
+
+        private final List<String> commands = new ArrayList<>();
+
+        RecordingLauncher() {
+            super(TaskListener.NULL, null);
+        }
+
+        @Override
+        public Proc launch(ProcStarter starter) throws IOException {
+            synchronized (commands) {
+                commands.add(String.join(" ", starter.cmds()));
+            }
+            return super.launch(starter);
+        }
+
+        boolean ran(String commandPrefix) {
+            synchronized (commands) {
+                return commands.stream().anyMatch(c -> c.startsWith(commandPrefix));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContainerEventWatcherTest {
+
+    private static final String ID = "4f66ad9a0b2e4f1d8c0b8a6b1c2d3e4f5a6b7c8d9e0f1a2b3c4d5e6f7a8b9c0d";
+
+    @Test
+    public void parsesDie() {
+        assertArrayEquals(new String[]{"die", ID, "137"},
+                          ContainerEventWatcher.parseEvent(
+                                  "die\t" + ID + "\t137\n"));
+    }
+
+    @Test
+    public void parsesOomWithoutExitCode() {
+        assertArrayEquals(new String[]{"oom", ID, "-1"},
+                          ContainerEventWatcher.parseEvent("oom\t" + ID + "\t"));
+    }
+
+    @Test
+    public void parsesLinesWithoutExitCodeColumn() {
+        assertArrayEquals(new String[]{"oom", ID, "-1"},
+                          ContainerEventWatcher.parseEvent("oom\t" + ID));
+    }
+
+    @Test
+    public void ignoresUnreadableExitCode() {
+        assertArrayEquals(new String[]{"die", ID, "-1"},
+                          ContainerEventWatcher.parseEvent(
+                                  "die\t" + ID + "\t<no value>"));
+    }
+
+    @Test
+    public void rejectsLinesWithoutId() {
+        assertNull(ContainerEventWatcher.parseEvent("die"));
+        assertNull(ContainerEventWatcher.parseEvent("die\t\t137"));
+        assertNull(ContainerEventWatcher.parseEvent(""));
+    }
+}
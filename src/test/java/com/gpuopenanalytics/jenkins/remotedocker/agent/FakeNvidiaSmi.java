@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.FakeLauncher;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A stand-in for <code>nvidia-smi</code>, see <code>fake-nvidia-smi.sh</code>.
+ * The GPUs it reports are set with {@link #write(String, String)} and can be
+ * changed while a test runs.
+ */
+public class FakeNvidiaSmi {
+
+    private final File dir;
+    private final File executable;
+    private final File log;
+
+    private FakeNvidiaSmi(File dir) {
+        this.dir = dir;
+        this.executable = new File(dir, "nvidia-smi");
+        this.log = new File(dir, "invocations.log");
+    }
+
+    /**
+     * Install the stand-in into the directory
+     *
+     * @param dir
+     * @return
+     * @throws IOException
+     */
+    public static FakeNvidiaSmi install(File dir) throws IOException {
+        FakeNvidiaSmi nvidiaSmi = new FakeNvidiaSmi(dir);
+        try (InputStream in = FakeNvidiaSmi.class.getResourceAsStream(
+                "fake-nvidia-smi.sh")) {
+            FileUtils.writeByteArrayToFile(nvidiaSmi.executable,
+                                           IOUtils.toByteArray(in));
+        }
+        if (!nvidiaSmi.executable.setExecutable(true)) {
+            throw new IOException("Could not make " + nvidiaSmi.executable + " executable");
+        }
+        return nvidiaSmi;
+    }
+
+    /**
+     * Set the output of a query, such as <code>list.txt</code> for
+     * <code>nvidia-smi -L</code>
+     *
+     * @param file
+     * @param output
+     * @return this
+     * @throws IOException
+     */
+    public FakeNvidiaSmi write(String file, String output) throws IOException {
+        FileUtils.writeStringToFile(new File(dir, file), output,
+                                    StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Set the output of a query to a fixture next to this class
+     *
+     * @param file
+     * @param fixture
+     * @return this
+     * @throws IOException
+     */
+    public FakeNvidiaSmi copy(String file, String fixture) throws IOException {
+        return write(file, readFixture(fixture));
+    }
+
+    /**
+     * Create a {@link FakeLauncher} that runs this stand-in on the local
+     * machine
+     *
+     * @param listener
+     * @return
+     */
+    public FakeLauncher createLauncher(TaskListener listener) {
+        return new FakeLauncher(listener, FilePath.localChannel)
+                .delegate(getExecutable(), new Launcher.LocalLauncher(listener));
+    }
+
+    public String getExecutable() {
+        return executable.getAbsolutePath();
+    }
+
+    /**
+     * Get the invocations so far, one per line
+     *
+     * @return
+     * @throws IOException
+     */
+    public List<String> getInvocations() throws IOException {
+        if (!log.exists()) {
+            return Collections.emptyList();
+        }
+        return FileUtils.readLines(log, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a fixture next to this class, such as recorded
+     * <code>nvidia-smi</code> output
+     *
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    public static String readFixture(String name) throws IOException {
+        try (InputStream in = FakeNvidiaSmi.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("No fixture " + name);
+            }
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
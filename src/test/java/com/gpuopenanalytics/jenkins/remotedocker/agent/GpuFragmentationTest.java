@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GpuFragmentationTest {
+
+    @Test
+    public void summarizesFreeDevices() throws Exception {
+        List<GpuDevice> devices = GpuInventoryTest.parseFixture().getDevices();
+
+        GpuFragmentation fragmentation = GpuFragmentation.of(devices);
+
+        assertEquals(6, fragmentation.getFreeDevices());
+        assertEquals(97656, fragmentation.getFreeMemoryMiB());
+        assertEquals(40536, fragmentation.getLargestFreeMiB());
+        assertEquals(58, fragmentation.getFragmentationPercent());
+        assertEquals("{1g.5gb=2, 2g.10gb=1, 3g.20gb=1, whole GPU=2}",
+                     fragmentation.getFreeByProfile().toString());
+        assertEquals("6 free device(s) [2x 1g.5gb, 1x 2g.10gb, 1x 3g.20gb, 2x whole GPU], "
+                             + "largest 40536 MiB of 97656 MiB free, fragmentation 58%",
+                     fragmentation.toString());
+    }
+
+    @Test
+    public void notFragmentedInOneDevice() throws Exception {
+        GpuDevice a100 = GpuInventoryTest.parseFixture().getDevices().get(4);
+
+        assertEquals(0, GpuFragmentation.of(Collections.singletonList(a100))
+                .getFragmentationPercent());
+    }
+
+    @Test
+    public void notFragmentedWithoutFreeDevices() {
+        GpuFragmentation fragmentation = GpuFragmentation.of(
+                Collections.emptyList());
+
+        assertEquals(0, fragmentation.getFreeDevices());
+        assertEquals(0, fragmentation.getFragmentationPercent());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.gpuopenanalytics.jenkins.remotedocker.agent.FakeNvidiaSmi.readFixture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GpuInventoryTest {
+
+    static final String A100_MIG = "GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77";
+    static final String A100 = "GPU-8c4f1e2a-6b3d-4a5e-9f70-1d2c3b4a5e6f";
+    static final String V100 = "GPU-3b8a2a8c-8a1e-4c7c-9d8a-0c6e1b5f3e21";
+
+    static GpuInventory parseFixture() throws Exception {
+        return GpuInventory.parse(readFixture("nvidia-smi-L.txt"),
+                                  readFixture("nvidia-smi-memory-total.csv"));
+    }
+
+    @Test
+    public void parsesMigSlicesInsteadOfTheirGpu() throws Exception {
+        List<GpuDevice> devices = parseFixture().getDevices();
+
+        assertEquals(6, devices.size());
+        GpuDevice slice = devices.get(0);
+        assertTrue(slice.isMig());
+        assertEquals("MIG-7c1f3e0a-2b4d-5e6f-8a9b-0c1d2e3f4a5b", slice.getUuid());
+        assertEquals(0, slice.getGpuIndex());
+        assertEquals(A100_MIG, slice.getGpuUuid());
+        assertEquals("NVIDIA A100-SXM4-40GB", slice.getName());
+        assertEquals("3g.20gb", slice.getMigProfile());
+        assertEquals(20 * 1024, slice.getMemoryMiB());
+        assertEquals(3, slice.getComputeSlices());
+        assertEquals("1g.5gb", devices.get(3).getMigProfile());
+        assertEquals(A100_MIG, devices.get(3).getGpuUuid());
+    }
+
+    @Test
+    public void parsesWholeGpusWithTheirMemory() throws Exception {
+        List<GpuDevice> devices = parseFixture().getDevices();
+
+        GpuDevice a100 = devices.get(4);
+        assertFalse(a100.isMig());
+        assertNull(a100.getMigProfile());
+        assertEquals(A100, a100.getUuid());
+        assertEquals(A100, a100.getGpuUuid());
+        assertEquals(1, a100.getGpuIndex());
+        assertEquals(40536, a100.getMemoryMiB());
+        assertEquals(Integer.MAX_VALUE, a100.getComputeSlices());
+        GpuDevice v100 = devices.get(5);
+        assertEquals("Tesla V100-SXM2-16GB", v100.getName());
+        assertEquals(2, v100.getGpuIndex());
+        assertEquals(16160, v100.getMemoryMiB());
+    }
+
+    @Test
+    public void wholeGpuMemoryIsUnknownWithoutQuery() throws Exception {
+        List<GpuDevice> devices = GpuInventory.parse(
+                readFixture("nvidia-smi-L.txt")).getDevices();
+
+        assertEquals(-1, devices.get(4).getMemoryMiB());
+        assertEquals(20 * 1024, devices.get(0).getMemoryMiB());
+    }
+
+    @Test
+    public void parsesOldMigUuids() throws Exception {
+        List<GpuDevice> devices = GpuInventory.parse(
+                readFixture("nvidia-smi-L-r450.txt")).getDevices();
+
+        assertEquals(2, devices.size());
+        assertEquals("MIG-GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77/2/0",
+                     devices.get(1).getUuid());
+        assertEquals("A100-SXM4-40GB", devices.get(1).getName());
+    }
+
+    @Test
+    public void emptyWithoutGpus() {
+        assertTrue(GpuInventory.parse("No devices were found\n").isEmpty());
+        assertTrue(GpuInventory.parse("").isEmpty());
+    }
+
+    @Test
+    public void skipsUnknownMemory() {
+        assertEquals(1, GpuLeaseManager.parseMemory(
+                A100 + ", 40536\n" + V100 + ", [N/A]\n").size());
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.BenchmarkDockerLauncher;
+import hudson.model.TaskListener;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GpuLeaseManagerTest {
+
+    private static final String GPU_0 = "GPU-5d5ba0d6-d33d-2b2c-524d-9e3d8d2b8a77";
+    private static final String GPU_1 = "GPU-3b8a2a8c-8a1e-4c7c-9d8a-0c6e1b5f3e21";
+    private static final GpuRequest ONE = new GpuRequest(1, null, 0);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FakeNvidiaSmi nvidiaSmi;
+    private GpuLeaseManager manager;
+
+    @Before
+    public void setUp() throws IOException {
+        nvidiaSmi = FakeNvidiaSmi.install(tmp.getRoot())
+                .write("list.txt",
+                       "GPU 0: Tesla V100-SXM2-16GB (UUID: " + GPU_0 + ")\n"
+                               + "GPU 1: Tesla V100-SXM2-16GB (UUID: " + GPU_1 + ")\n")
+                .write("memory-total.csv",
+                       GPU_0 + ", 16160\n" + GPU_1 + ", 16160\n")
+                .write("memory-free.csv",
+                       GPU_0 + ", 16000\n" + GPU_1 + ", 16000\n");
+        manager = new GpuLeaseManager(nvidiaSmi.getExecutable());
+    }
+
+    private BenchmarkDockerLauncher createLauncher() {
+        return new BenchmarkDockerLauncher(
+                nvidiaSmi.createLauncher(TaskListener.NULL),
+                BenchmarkDockerLauncher.createEnvironment(0), null);
+    }
+
+    private static List<String> uuids(List<GpuDevice> devices) {
+        return devices.stream()
+                .map(GpuDevice::getUuid)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void leasesDevicesExclusively() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        BenchmarkDockerLauncher second = createLauncher();
+        LeaseOwner secondOwner = second.newLeaseOwner();
+
+        List<GpuDevice> firstDevices = manager.acquire(first, ONE, false);
+        List<GpuDevice> secondDevices = manager.acquire(second, ONE, false);
+
+        assertEquals(1, firstDevices.size());
+        assertEquals(1, secondDevices.size());
+        assertNotEquals(firstDevices.get(0), secondDevices.get(0));
+        assertEquals(firstDevices, manager.getLeased(firstOwner));
+        assertEquals(secondDevices, manager.getLeased(secondOwner));
+        assertEquals(0, manager.getFragmentation("master").getFreeDevices());
+    }
+
+    @Test(expected = ResourcesBusyException.class)
+    public void busyWhenAllDevicesAreLeased() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        first.newLeaseOwner();
+        manager.acquire(first, new GpuRequest(2, null, 0), false);
+
+        BenchmarkDockerLauncher second = createLauncher();
+        second.newLeaseOwner();
+        manager.acquire(second, ONE, false);
+    }
+
+    @Test
+    public void failsWhenTheNodeHasTooFewDevices() throws Exception {
+        BenchmarkDockerLauncher launcher = createLauncher();
+        launcher.newLeaseOwner();
+        try {
+            manager.acquire(launcher, new GpuRequest(3, null, 0), false);
+            fail("Only two GPUs");
+        } catch (ResourcesBusyException e) {
+            fail("Waiting would never succeed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("only has 2"));
+        }
+    }
+
+    @Test
+    public void restoresLeasesAfterRestart() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        List<GpuDevice> firstDevices = manager.acquire(first, ONE, false);
+
+        GpuLeaseManager restarted = new GpuLeaseManager(
+                nvidiaSmi.getExecutable());
+        assertTrue(restarted.restore(firstOwner,
+                                     manager.getLeases(firstOwner)));
+
+        BenchmarkDockerLauncher second = createLauncher();
+        second.newLeaseOwner();
+        List<GpuDevice> secondDevices = restarted.acquire(second, ONE, false);
+        assertNotEquals(firstDevices, secondDevices);
+        assertEquals(firstDevices, restarted.getLeased(firstOwner));
+    }
+
+    @Test
+    public void doesNotRestoreDevicesLeasedSinceTheRestart() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        manager.acquire(first, new GpuRequest(2, null, 0), false);
+
+        GpuLeaseManager restarted = new GpuLeaseManager(
+                nvidiaSmi.getExecutable());
+        BenchmarkDockerLauncher second = createLauncher();
+        LeaseOwner secondOwner = second.newLeaseOwner();
+        List<GpuDevice> secondDevices = restarted.acquire(second, ONE, false);
+
+        assertFalse(restarted.restore(firstOwner,
+                                      manager.getLeases(firstOwner)));
+        assertEquals(secondDevices, restarted.getLeased(secondOwner));
+        assertEquals(1, restarted.getLeased(firstOwner).size());
+    }
+
+    @Test
+    public void releasesOnTearDown() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        manager.acquire(first, new GpuRequest(2, null, 0), false);
+
+        manager.release(firstOwner);
+
+        assertTrue(manager.getLeased(firstOwner).isEmpty());
+        BenchmarkDockerLauncher second = createLauncher();
+        second.newLeaseOwner();
+        assertEquals(2, manager.acquire(second, new GpuRequest(2, null, 0),
+                                        false).size());
+    }
+
+    @Test
+    public void releasesWhenTheBuildEndsWithoutTearDown() throws Exception {
+        BenchmarkDockerLauncher crashed = createLauncher();
+        LeaseOwner crashedOwner = crashed.newLeaseOwner("team/project/master#42");
+        BenchmarkDockerLauncher other = createLauncher();
+        LeaseOwner otherOwner = other.newLeaseOwner("team/project/master#43");
+        manager.acquire(crashed, ONE, false);
+        manager.acquire(other, ONE, false);
+
+        manager.releaseRun("team/project/master#42");
+
+        assertTrue(manager.getLeased(crashedOwner).isEmpty());
+        assertEquals(1, manager.getLeased(otherOwner).size());
+    }
+
+    @Test
+    public void placesOnTheGpuWithTheMostFreeMemory() throws Exception {
+        nvidiaSmi.write("memory-free.csv",
+                        GPU_0 + ", 1024\n" + GPU_1 + ", 15000\n");
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        assertEquals(Collections.singletonList(GPU_1),
+                     uuids(manager.acquire(first, ONE, true)));
+        manager.release(firstOwner);
+
+        //Another process took GPU 1's memory meanwhile
+        nvidiaSmi.write("memory-free.csv",
+                        GPU_0 + ", 15000\n" + GPU_1 + ", 1024\n");
+        BenchmarkDockerLauncher second = createLauncher();
+        second.newLeaseOwner();
+        assertEquals(Collections.singletonList(GPU_0),
+                     uuids(manager.acquire(second, ONE, true)));
+
+        long queries = nvidiaSmi.getInvocations().stream()
+                .filter(i -> i.startsWith("--query-gpu=uuid,memory.free"))
+                .count();
+        assertEquals(2, queries);
+    }
+
+    @Test
+    public void doesNotQueryFreeMemoryUnlessAsked() throws Exception {
+        BenchmarkDockerLauncher launcher = createLauncher();
+        launcher.newLeaseOwner();
+        manager.acquire(launcher, ONE, false);
+
+        assertTrue(nvidiaSmi.getInvocations().stream()
+                           .noneMatch(i -> i.contains("memory.free")));
+    }
+
+    private void useFixture() throws IOException {
+        nvidiaSmi.copy("list.txt", "nvidia-smi-L.txt")
+                .copy("memory-total.csv", "nvidia-smi-memory-total.csv");
+    }
+
+    private List<String> lease(GpuRequest request) throws Exception {
+        BenchmarkDockerLauncher launcher = createLauncher();
+        launcher.newLeaseOwner();
+        return uuids(manager.acquire(launcher, request, false));
+    }
+
+    @Test
+    public void binPacksOnTheSmallestFittingDevices() throws Exception {
+        useFixture();
+        GpuRequest small = new GpuRequest(1, "1g.5gb", 0);
+
+        assertEquals(Collections.singletonList(
+                "MIG-9f8e7d6c-5b4a-5c3d-9e2f-1a0b9c8d7e6f"), lease(small));
+        assertEquals(Collections.singletonList(
+                "MIG-0f1e2d3c-4b5a-5968-8776-a5b4c3d2e1f0"), lease(small));
+        //Only larger slices are left
+        assertEquals(Collections.singletonList(
+                "MIG-1a2b3c4d-5e6f-5a7b-8c9d-0e1f2a3b4c5d"), lease(small));
+        //The V100 rather than the 3g.20gb slice or the A100
+        assertEquals(Collections.singletonList(GpuInventoryTest.V100),
+                     lease(new GpuRequest(1, null, 16000)));
+
+        GpuFragmentation fragmentation = manager.getFragmentation("master");
+        assertEquals(2, fragmentation.getFreeDevices());
+        assertEquals(20480 + 40536, fragmentation.getFreeMemoryMiB());
+        assertEquals(34, fragmentation.getFragmentationPercent());
+    }
+
+    @Test
+    public void spreadsRequestsWithoutMinimumOverGpus() throws Exception {
+        useFixture();
+
+        List<Integer> gpus = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            BenchmarkDockerLauncher launcher = createLauncher();
+            launcher.newLeaseOwner();
+            gpus.add(manager.acquire(launcher, ONE, false).get(0)
+                             .getGpuIndex());
+        }
+
+        assertEquals(Arrays.asList(0, 1, 2, 0), gpus);
+    }
+
+    @Test
+    public void reportsFragmentationWhenTheRequestDoesNotFit() throws Exception {
+        useFixture();
+        assertEquals(Collections.singletonList(GpuInventoryTest.A100),
+                     lease(new GpuRequest(1, null, 40000)));
+
+        try {
+            lease(new GpuRequest(2, null, 20000));
+            fail("Only the 3g.20gb slice is left that large");
+        } catch (ResourcesBusyException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(
+                    "largest 20480 MiB of 57120 MiB free"));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GpuRequestTest {
+
+    private List<GpuDevice> devices;
+
+    @Before
+    public void setUp() throws Exception {
+        devices = GpuInventoryTest.parseFixture().getDevices();
+    }
+
+    private List<String> fitting(GpuRequest request) {
+        return devices.stream()
+                .filter(request::fits)
+                .map(d -> d.isMig() ? d.getMigProfile() : d.getName())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void anyDeviceFitsWithoutMinimum() {
+        GpuRequest request = new GpuRequest(1, null, 0);
+
+        assertFalse(request.hasMinimum());
+        assertEquals(devices.size(), fitting(request).size());
+    }
+
+    @Test
+    public void profileNeedsAsManySlicesAndAsMuchMemory() {
+        GpuRequest request = new GpuRequest(1, "2g.10gb", 0);
+
+        assertTrue(request.hasMinimum());
+        assertEquals(Arrays.asList("3g.20gb", "2g.10gb",
+                                             "NVIDIA A100-SXM4-40GB",
+                                             "Tesla V100-SXM2-16GB"),
+                     fitting(request));
+    }
+
+    @Test
+    public void memoryNeedsAsMuchMemory() {
+        assertEquals(Arrays.asList("3g.20gb",
+                                             "NVIDIA A100-SXM4-40GB",
+                                             "Tesla V100-SXM2-16GB"),
+                     fitting(new GpuRequest(1, null, 16000)));
+        assertEquals(Arrays.asList("3g.20gb",
+                                             "NVIDIA A100-SXM4-40GB"),
+                     fitting(new GpuRequest(1, null, 20 * 1024)));
+    }
+
+    @Test
+    public void unknownMemoryDoesNotFitAMinimum() {
+        GpuDevice unknown = new GpuDevice(GpuInventoryTest.V100, 0,
+                                          GpuInventoryTest.V100,
+                                          "Tesla V100-SXM2-16GB", null, -1);
+
+        assertFalse(new GpuRequest(1, null, 1024).fits(unknown));
+        assertTrue(new GpuRequest(1, "1g.5gb", 0).fits(unknown));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.gpuopenanalytics.jenkins.remotedocker.BenchmarkDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.FakeLauncher;
+import hudson.model.TaskListener;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryBudgetManagerTest {
+
+    private static final long GIB = 1L << 30;
+    private static final long BUDGET = 4 * GIB;
+
+    private final MemoryBudgetManager manager = new MemoryBudgetManager();
+
+    private static BenchmarkDockerLauncher createLauncher() {
+        return new BenchmarkDockerLauncher(
+                new FakeLauncher(TaskListener.NULL, null),
+                BenchmarkDockerLauncher.createEnvironment(0), null);
+    }
+
+    @Test
+    public void reservesWithinTheBudget() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        BenchmarkDockerLauncher second = createLauncher();
+        LeaseOwner secondOwner = second.newLeaseOwner();
+
+        manager.reserve(first, GIB, BUDGET);
+        manager.reserve(second, 3 * GIB, BUDGET);
+
+        assertEquals(BUDGET, manager.getReserved("master"));
+        assertEquals(Long.valueOf(GIB), manager.getReservations("master")
+                .get(firstOwner));
+        assertEquals(Long.valueOf(3 * GIB), manager.getReservations("master")
+                .get(secondOwner));
+    }
+
+    @Test
+    public void addsUpTheContainersOfAnOwner() throws Exception {
+        BenchmarkDockerLauncher launcher = createLauncher();
+        LeaseOwner owner = launcher.newLeaseOwner();
+
+        manager.reserve(launcher, GIB, BUDGET);
+        manager.reserve(launcher, 2 * GIB, BUDGET);
+
+        assertEquals(3 * GIB, manager.getLeases(owner));
+    }
+
+    @Test
+    public void failsWhenOverTheWholeBudget() throws Exception {
+        BenchmarkDockerLauncher launcher = createLauncher();
+        launcher.newLeaseOwner();
+        try {
+            manager.reserve(launcher, 5 * GIB, BUDGET);
+            fail("More than the budget");
+        } catch (ResourcesBusyException e) {
+            fail("Waiting would never succeed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("budget of master"));
+        }
+        assertEquals(0, manager.getReserved("master"));
+    }
+
+    @Test
+    public void failsWhenTheOwnersContainersAreOverTheWholeBudget() throws Exception {
+        BenchmarkDockerLauncher launcher = createLauncher();
+        launcher.newLeaseOwner();
+        manager.reserve(launcher, 3 * GIB, BUDGET);
+        try {
+            manager.reserve(launcher, 2 * GIB, BUDGET);
+            fail("The main and side containers need more than the budget");
+        } catch (ResourcesBusyException e) {
+            fail("Waiting would never succeed");
+        } catch (IOException e) {
+            assertEquals(3 * GIB, manager.getReserved("master"));
+        }
+    }
+
+    @Test
+    public void busyWhenItDoesNotFitRightNow() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        first.newLeaseOwner();
+        manager.reserve(first, 3 * GIB, BUDGET);
+
+        BenchmarkDockerLauncher second = createLauncher();
+        LeaseOwner secondOwner = second.newLeaseOwner();
+        try {
+            manager.reserve(second, 2 * GIB, BUDGET);
+            fail("Only 1 GiB is free");
+        } catch (ResourcesBusyException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Waiting for"));
+        }
+        assertEquals(3 * GIB, manager.getReserved("master"));
+        assertNull(manager.getLeases(secondOwner));
+    }
+
+    @Test
+    public void fitsOnceReleased() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        manager.reserve(first, 3 * GIB, BUDGET);
+
+        manager.release(firstOwner);
+
+        BenchmarkDockerLauncher second = createLauncher();
+        second.newLeaseOwner();
+        manager.reserve(second, 2 * GIB, BUDGET);
+        assertEquals(2 * GIB, manager.getReserved("master"));
+    }
+
+    @Test
+    public void releasesWhenTheBuildEndsWithoutTearDown() throws Exception {
+        BenchmarkDockerLauncher crashed = createLauncher();
+        LeaseOwner crashedOwner = crashed.newLeaseOwner("team/project/master#42");
+        BenchmarkDockerLauncher other = createLauncher();
+        LeaseOwner otherOwner = other.newLeaseOwner("team/project/master#43");
+        manager.reserve(crashed, GIB, BUDGET);
+        manager.reserve(other, GIB, BUDGET);
+
+        manager.releaseRun("team/project/master#42");
+
+        assertNull(manager.getLeases(crashedOwner));
+        assertEquals(GIB, manager.getLeases(otherOwner));
+    }
+
+    @Test
+    public void tracksWithoutABudget() throws Exception {
+        BenchmarkDockerLauncher launcher = createLauncher();
+        launcher.newLeaseOwner();
+
+        manager.reserve(launcher, 64 * GIB, 0);
+
+        assertEquals(64 * GIB, manager.getReserved("master"));
+    }
+
+    @Test
+    public void restoresReservationsAfterRestart() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        manager.reserve(first, 3 * GIB, BUDGET);
+
+        MemoryBudgetManager restarted = new MemoryBudgetManager();
+        assertTrue(restarted.restore(firstOwner, manager.getLeases(firstOwner)));
+
+        assertEquals(3 * GIB, restarted.getReserved("master"));
+        BenchmarkDockerLauncher second = createLauncher();
+        second.newLeaseOwner();
+        try {
+            restarted.reserve(second, 2 * GIB, BUDGET);
+            fail("The restored reservation still counts");
+        } catch (ResourcesBusyException e) {
+            //Expected
+        }
+
+        restarted.release(firstOwner);
+        restarted.reserve(second, 2 * GIB, BUDGET);
+        assertEquals(2 * GIB, restarted.getReserved("master"));
+    }
+
+    @Test
+    public void restoresOverTheBudget() throws Exception {
+        BenchmarkDockerLauncher first = createLauncher();
+        LeaseOwner firstOwner = first.newLeaseOwner();
+        manager.reserve(first, 3 * GIB, BUDGET);
+
+        //Another build reserved memory before the first one was restored
+        MemoryBudgetManager restarted = new MemoryBudgetManager();
+        BenchmarkDockerLauncher second = createLauncher();
+        second.newLeaseOwner();
+        restarted.reserve(second, 2 * GIB, BUDGET);
+
+        //Its containers already run
+        assertTrue(restarted.restore(firstOwner, manager.getLeases(firstOwner)));
+        assertEquals(5 * GIB, restarted.getReserved("master"));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static com.gpuopenanalytics.jenkins.remotedocker.agent.FakeNvidiaSmi.readFixture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NumaTopologyTest {
+
+    private static final NumaTopology TWO_NODES = NumaTopology.parse(
+            ImmutableMap.of(0, "0-19,40-59", 1, "20-39,60-79"));
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static SortedSet<Integer> set(Integer... values) {
+        return new TreeSet<>(Arrays.asList(values));
+    }
+
+    /**
+     * Lay out sysfs like a two socket machine with a GPU on each socket
+     */
+    private File createSysfs() throws IOException {
+        File sysfs = tmp.newFolder("sys");
+        write(sysfs, "devices/system/node/node0/cpulist", "0-19,40-59\n");
+        write(sysfs, "devices/system/node/node1/cpulist", "20-39,60-79\n");
+        write(sysfs, "devices/system/node/possible", "0-1\n");
+        write(sysfs, "devices/system/node/has_cpu", "0-1\n");
+        write(sysfs, "devices/system/cpu/online", "0-79\n");
+        write(sysfs, "bus/pci/devices/0000:06:00.0/numa_node", "0\n");
+        write(sysfs, "bus/pci/devices/0000:85:00.0/numa_node", "1\n");
+        //Firmware that does not report the node
+        write(sysfs, "bus/pci/devices/0000:86:00.0/numa_node", "-1\n");
+        return sysfs;
+    }
+
+    private static void write(File root,
+                              String path,
+                              String content) throws IOException {
+        FileUtils.writeStringToFile(new File(root, path), content,
+                                    StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void parsesCpuLists() {
+        assertEquals(set(0, 1, 2, 3, 8, 10, 11),
+                     NumaTopology.parseCpuList("0-3,8,10-11"));
+        assertEquals(set(5), NumaTopology.parseCpuList(" 5\n"));
+        assertEquals(40, NumaTopology.parseCpuList("0-19,40-59").size());
+        assertTrue(NumaTopology.parseCpuList("").isEmpty());
+        assertTrue(NumaTopology.parseCpuList("N/A").isEmpty());
+        assertTrue(NumaTopology.parseCpuList("0-3,x").isEmpty());
+    }
+
+    @Test
+    public void formatsCpuLists() {
+        assertEquals("0-3,8,10-11", NumaTopology.formatCpuList(
+                set(11, 10, 8, 3, 2, 1, 0)));
+        assertEquals("0-19,40-59", NumaTopology.formatCpuList(
+                NumaTopology.parseCpuList("0-19,40-59")));
+        assertEquals("", NumaTopology.formatCpuList(Collections.emptySet()));
+    }
+
+    @Test
+    public void parsesNumaAffinity() throws Exception {
+        Map<Integer, SortedSet<Integer>> affinity = TWO_NODES.parseGpuAffinity(
+                readFixture("nvidia-smi-topo-m.txt"));
+
+        assertEquals(ImmutableMap.of(0, set(0), 1, set(0), 2, set(1), 3,
+                                     set(1)), affinity);
+    }
+
+    @Test
+    public void fallsBackToCpuAffinityOnOlderDrivers() throws Exception {
+        Map<Integer, SortedSet<Integer>> affinity = TWO_NODES.parseGpuAffinity(
+                readFixture("nvidia-smi-topo-m-r418.txt"));
+
+        assertEquals(ImmutableMap.of(0, set(0), 1, set(1)), affinity);
+    }
+
+    @Test
+    public void fallsBackToCpuAffinityWithoutNumaAffinity() throws Exception {
+        NumaTopology single = NumaTopology.parse(ImmutableMap.of(0, "0-15"));
+
+        Map<Integer, SortedSet<Integer>> affinity = single.parseGpuAffinity(
+                readFixture("nvidia-smi-topo-m-no-numa.txt"));
+
+        assertEquals(ImmutableMap.of(0, set(0), 1, set(0)), affinity);
+    }
+
+    @Test
+    public void omitsNodesOutsideOfTheTopology() throws Exception {
+        NumaTopology single = NumaTopology.parse(
+                ImmutableMap.of(0, "0-19,40-59"));
+
+        Map<Integer, SortedSet<Integer>> affinity = single.parseGpuAffinity(
+                readFixture("nvidia-smi-topo-m.txt"));
+
+        assertEquals(ImmutableMap.of(0, set(0), 1, set(0)), affinity);
+    }
+
+    @Test
+    public void convertsBusIdsToSysfs() {
+        assertEquals("0000:3b:00.0",
+                     NumaTopology.toSysfsBusId("00000000:3B:00.0"));
+        assertEquals("0001:af:00.0",
+                     NumaTopology.toSysfsBusId(" 00000001:AF:00.0\n"));
+        assertEquals("0000:3b:00.0",
+                     NumaTopology.toSysfsBusId("0000:3b:00.0"));
+    }
+
+    @Test
+    public void readsNodesFromSysfs() throws Exception {
+        NumaTopology topology = new NumaTopology.Reader(createSysfs()).call();
+
+        assertEquals(set(0, 1), topology.getNodes());
+        assertEquals(NumaTopology.parseCpuList("20-39,60-79"),
+                     topology.getCpus(1));
+        assertEquals(80, topology.getAllCpus().size());
+        assertEquals(set(0, 1), topology.getNodesOf(set(19, 20)));
+    }
+
+    @Test
+    public void readsOneNodeWithoutNumaInSysfs() throws Exception {
+        File sysfs = tmp.newFolder("sys");
+        write(sysfs, "devices/system/cpu/online", "0-7\n");
+
+        NumaTopology topology = new NumaTopology.Reader(sysfs).call();
+
+        assertEquals(set(0), topology.getNodes());
+        assertEquals(set(0, 1, 2, 3, 4, 5, 6, 7), topology.getCpus(0));
+    }
+
+    @Test
+    public void readsGpuNodesFromSysfs() throws Exception {
+        Map<Integer, String> busIds = CpuSetManager.parseBusIds(
+                readFixture("nvidia-smi-bus-ids.csv"));
+
+        Map<String, Integer> nodes = new NumaTopology.PciNodeReader(
+                createSysfs(), busIds.values()).call();
+
+        //00000000:07:00.0 is missing and 00000000:86:00.0 unknown
+        assertEquals(ImmutableMap.of("00000000:06:00.0", 0,
+                                     "00000000:85:00.0", 1), nodes);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+
+public class OrphanReaperTest {
+
+    private static final long NOW = 1570000000000L;
+    private static final String OLD = Long.toString(
+            NOW - TimeUnit.DAYS.toMillis(1));
+
+    @Test
+    public void keepsContainersOfBuildsThatKeepThem() {
+        assertFalse(OrphanReaper.isOrphan("team/project", "42", OLD, "true",
+                                          NOW));
+    }
+
+    @Test
+    public void keepsYoungContainers() {
+        assertFalse(OrphanReaper.isOrphan("team/project", "42",
+                                          Long.toString(NOW - 1000), "",
+                                          NOW));
+    }
+
+    @Test
+    public void keepsContainersNotCreatedForABuild() {
+        assertFalse(OrphanReaper.isOrphan("", "", OLD, "", NOW));
+    }
+
+    @Test
+    public void keepsContainersWithUnreadableLabels() {
+        assertFalse(OrphanReaper.isOrphan("team/project", "42", "yesterday",
+                                          "", NOW));
+    }
+}
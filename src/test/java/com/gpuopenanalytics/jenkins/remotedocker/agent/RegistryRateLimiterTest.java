@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RegistryRateLimiterTest {
+
+    /**
+     * One token every 100 ms after a burst of two
+     */
+    private final RegistryRateLimiter limiter = new RegistryRateLimiter(2, 600);
+
+    @Test
+    public void burstDoesNotWait() throws Exception {
+        assertTrue(limiter.acquire("master", "docker.io") < 50);
+        assertTrue(limiter.acquire("master", "docker.io") < 50);
+    }
+
+    @Test
+    public void waitsForARefillAfterTheBurst() throws Exception {
+        limiter.acquire("master", "docker.io");
+        limiter.acquire("master", "docker.io");
+
+        long waited = limiter.acquire("master", "docker.io");
+
+        assertTrue("Waited " + waited, waited >= 50 && waited < 1000);
+    }
+
+    @Test
+    public void refillsOverTime() throws Exception {
+        limiter.acquire("master", "docker.io");
+        limiter.acquire("master", "docker.io");
+        Thread.sleep(250);
+
+        assertTrue(limiter.acquire("master", "docker.io") < 50);
+        assertTrue(limiter.acquire("master", "docker.io") < 50);
+    }
+
+    @Test
+    public void throttlingEmptiesTheBucket() throws Exception {
+        limiter.throttled("master", "docker.io");
+
+        long waited = limiter.acquire("master", "docker.io");
+
+        assertTrue("Waited " + waited, waited >= 50 && waited < 1000);
+    }
+
+    @Test
+    public void bucketsArePerNodeAndRegistry() throws Exception {
+        limiter.throttled("master", "docker.io");
+
+        assertTrue(limiter.acquire("agent", "docker.io") < 50);
+        assertTrue(limiter.acquire("master", "nvcr.io") < 50);
+    }
+
+    @Test
+    public void registryOfImage() {
+        assertEquals("docker.io", RegistryRateLimiter.getRegistry("ubuntu"));
+        assertEquals("docker.io",
+                     RegistryRateLimiter.getRegistry("nvidia/cuda:11.0-base"));
+        assertEquals("nvcr.io",
+                     RegistryRateLimiter.getRegistry("nvcr.io/nvidia/pytorch:20.03-py3"));
+        assertEquals("registry.example.com:5000",
+                     RegistryRateLimiter.getRegistry("registry.example.com:5000/team/image"));
+        assertEquals("localhost",
+                     RegistryRateLimiter.getRegistry("localhost/image"));
+        assertEquals("localhost:5000",
+                     RegistryRateLimiter.getRegistry("localhost:5000/image:tag"));
+    }
+}
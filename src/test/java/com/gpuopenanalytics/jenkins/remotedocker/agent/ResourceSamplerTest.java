@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.gpuopenanalytics.jenkins.remotedocker.agent.FakeNvidiaSmi.readFixture;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceSamplerTest {
+
+    private static final File ROOT = new File("/sys/fs/cgroup");
+    private static final String CONTAINER = "4f6f2c1d0b8e7a9c3d5e1f2a4b6c8d0e2f4a6b8c0d2e4f6a8b0c2d4e6f8a0b2c";
+
+    @Test
+    public void findsCgroupV1Files() throws Exception {
+        ResourceSampler.CgroupFiles files = ResourceSampler.parseProcCgroup(
+                readFixture("proc-cgroup-v1.txt"), ROOT);
+
+        assertNotNull(files);
+        assertFalse(files.v2);
+        assertEquals(new File(ROOT, "memory/docker/" + CONTAINER + "/memory.usage_in_bytes"),
+                     files.memory);
+        assertEquals(new File(ROOT, "cpu,cpuacct/docker/" + CONTAINER + "/cpuacct.usage"),
+                     files.cpu);
+        assertTrue(files.cpuInNanos);
+        assertEquals(new File(ROOT, "blkio/docker/" + CONTAINER + "/blkio.throttle.io_service_bytes"),
+                     files.blkio);
+    }
+
+    @Test
+    public void findsCgroupV2Files() throws Exception {
+        ResourceSampler.CgroupFiles files = ResourceSampler.parseProcCgroup(
+                readFixture("proc-cgroup-v2.txt"), ROOT);
+
+        assertNotNull(files);
+        assertTrue(files.v2);
+        File dir = new File(ROOT, "system.slice/docker-" + CONTAINER + ".scope");
+        assertEquals(new File(dir, "memory.current"), files.memory);
+        assertEquals(new File(dir, "cpu.stat"), files.cpu);
+        assertFalse(files.cpuInNanos);
+        assertEquals(new File(dir, "io.stat"), files.blkio);
+    }
+
+    @Test
+    public void noCgroupFilesWithoutControllers() {
+        assertNull(ResourceSampler.parseProcCgroup("", ROOT));
+        assertNull(ResourceSampler.parseProcCgroup("1:name=systemd:/\n", ROOT));
+    }
+
+    @Test
+    public void parsesCpuStat() throws Exception {
+        assertEquals(2534500000L,
+                     ResourceSampler.parseCpuStat(readFixture("cpu.stat")));
+        assertEquals(-1, ResourceSampler.parseCpuStat("user_usec 1\n"));
+    }
+
+    @Test
+    public void sumsIoStatOverDevices() throws Exception {
+        assertArrayEquals(new long[]{1048576 + 4096, 2097152},
+                          ResourceSampler.parseIoStat(readFixture("io.stat")));
+        assertArrayEquals(new long[]{0, 0}, ResourceSampler.parseIoStat(""));
+    }
+
+    @Test
+    public void sumsBlkioOverDevices() throws Exception {
+        assertArrayEquals(new long[]{1048576 + 4096, 2097152},
+                          ResourceSampler.parseBlkio(
+                                  readFixture("blkio.throttle.io_service_bytes")));
+    }
+
+    @Test
+    public void sumsNetDevWithoutLoopback() throws Exception {
+        assertArrayEquals(new long[]{5242880 + 1000, 131072 + 2000},
+                          ResourceSampler.parseNetDev(
+                                  readFixture("proc-net-dev.txt")));
+    }
+
+    @Test
+    public void parsesDockerStats() throws Exception {
+        List<String> lines = Arrays.asList(
+                readFixture("docker-stats.txt").split("\n"));
+
+        assertArrayEquals(new long[]{2500, 512L * 1024 * 1024, 1500000, 0, 648, 1200},
+                          ResourceSampler.parseStatsLine(lines.get(0)));
+        assertArrayEquals(new long[]{0, 0, 0, 0, 0, 0},
+                          ResourceSampler.parseStatsLine(lines.get(1)));
+        assertNull(ResourceSampler.parseStatsLine(lines.get(2)));
+        assertNull(ResourceSampler.parseStatsLine("--|--|--|--"));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.agent;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceSeriesTest {
+
+    @Test
+    public void keepsPeaksOfDroppedSamples() throws Exception {
+        ResourceSeries series = new ResourceSeries();
+        series.add(0, 100, 1024, 0, 0, 0, 0);
+        //Dropped when the series first fills up
+        series.add(1, 8000, 999999, 0, 0, 0, 0);
+        for (int i = 2; i < 100000; i++) {
+            series.add(i, 100, 1024, i, i, i, i);
+        }
+
+        assertTrue(series.size() <= 20000);
+        StringWriter csv = new StringWriter();
+        series.writeCsv(csv);
+        assertFalse(csv.toString().contains("999999"));
+        assertEquals(8000, series.getPeakCpuMillicores());
+        assertEquals(999999, series.getPeakMemoryBytes());
+    }
+
+    @Test
+    public void keepsPeaksOfSkippedSamples() {
+        ResourceSeries series = new ResourceSeries();
+        for (int i = 0; i < 100000; i++) {
+            //Every odd sample is skipped once the stride is 2 or more
+            boolean spike = i == 99999;
+            series.add(i, spike ? 4000 : 100, spike ? 2048 : 1024, 0, 0, 0, 0);
+        }
+
+        assertEquals(4000, series.getPeakCpuMillicores());
+        assertEquals(2048, series.getPeakMemoryBytes());
+    }
+
+    @Test
+    public void reportsLastCumulativeCounters() {
+        ResourceSeries series = new ResourceSeries();
+        series.add(0, 0, 0, 10, 20, 30, 40);
+        series.add(1000, 0, 0, 11, 21, 31, 41);
+
+        assertEquals(11, series.getBlockReadBytes());
+        assertEquals(21, series.getBlockWriteBytes());
+        assertEquals(31, series.getNetRxBytes());
+        assertEquals(41, series.getNetTxBytes());
+    }
+
+    @Test
+    public void writesCsv() throws Exception {
+        ResourceSeries series = new ResourceSeries();
+        series.add(0, 1, 2, 3, 4, 5, 6);
+        StringWriter csv = new StringWriter();
+
+        series.writeCsv(csv);
+
+        assertEquals("offset_ms,cpu_millicores,memory_bytes,block_read_bytes,"
+                             + "block_write_bytes,net_rx_bytes,net_tx_bytes\n"
+                             + "0,1,2,3,4,5,6\n", csv.toString());
+    }
+}
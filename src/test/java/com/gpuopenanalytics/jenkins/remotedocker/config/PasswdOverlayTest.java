@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.config;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PasswdOverlayTest {
+
+    private static final String PASSWD = "root:x:0:0:root:/root:/bin/bash\n"
+            + "daemon:x:1:1:daemon:/usr/sbin:/usr/sbin/nologin\n"
+            + "ubuntu:x:1000:1000::/home/ubuntu:/bin/bash\n";
+
+    private static final String GROUP = "root:x:0:\n"
+            + "daemon:x:1:\n"
+            + "ubuntu:x:1000:\n";
+
+    @Test
+    public void appendsANewUser() {
+        assertEquals(PASSWD + "builder:x:1001:1001::/home/builder:/bin/sh\n",
+                     PasswdOverlay.mergePasswd(PASSWD, "", "builder", "1001",
+                                               "1001"));
+    }
+
+    @Test
+    public void usesTheUseraddDefaultsOfTheImage() {
+        String defaults = "# useradd defaults file\n"
+                + "GROUP=100\n"
+                + "HOME=/users\n"
+                + "SHELL=/bin/bash\n";
+
+        assertEquals(PASSWD + "builder:x:1001:1001::/users/builder:/bin/bash\n",
+                     PasswdOverlay.mergePasswd(PASSWD, defaults, "builder",
+                                               "1001", "1001"));
+    }
+
+    @Test
+    public void ignoresEmptyUseraddDefaults() {
+        assertEquals(PASSWD + "builder:x:1001:1001::/home/builder:/bin/sh\n",
+                     PasswdOverlay.mergePasswd(PASSWD, "SHELL=\n", "builder",
+                                               "1001", "1001"));
+    }
+
+    @Test
+    public void replacesAnExistingUserKeepingItsHome() {
+        String passwd = "root:x:0:0:root:/root:/bin/bash\n"
+                + "builder:x:500:500:Builder:/var/lib/builder:/bin/zsh\n"
+                + "daemon:x:1:1:daemon:/usr/sbin:/usr/sbin/nologin\n";
+
+        assertEquals("root:x:0:0:root:/root:/bin/bash\n"
+                             + "daemon:x:1:1:daemon:/usr/sbin:/usr/sbin/nologin\n"
+                             + "builder:x:1001:1001::/var/lib/builder:/bin/zsh\n",
+                     PasswdOverlay.mergePasswd(passwd, "HOME=/users\n",
+                                               "builder", "1001", "1001"));
+    }
+
+    @Test
+    public void precedesAnExistingUserWithTheUid() {
+        assertEquals("root:x:0:0:root:/root:/bin/bash\n"
+                             + "daemon:x:1:1:daemon:/usr/sbin:/usr/sbin/nologin\n"
+                             + "builder:x:1000:1000::/home/builder:/bin/sh\n"
+                             + "ubuntu:x:1000:1000::/home/ubuntu:/bin/bash\n",
+                     PasswdOverlay.mergePasswd(PASSWD, "", "builder", "1000",
+                                               "1000"));
+    }
+
+    @Test
+    public void doesNotMatchUsernamePrefixes() {
+        assertEquals(PASSWD + "ubunt:x:1001:1001::/home/ubunt:/bin/sh\n",
+                     PasswdOverlay.mergePasswd(PASSWD, "", "ubunt", "1001",
+                                               "1001"));
+    }
+
+    @Test
+    public void passwdWithoutTrailingNewline() {
+        assertEquals(PASSWD + "builder:x:1001:1001::/home/builder:/bin/sh\n",
+                     PasswdOverlay.mergePasswd(PASSWD.trim(), "", "builder",
+                                               "1001", "1001"));
+    }
+
+    @Test
+    public void emptyPasswd() {
+        assertEquals("builder:x:1001:1001::/home/builder:/bin/sh\n",
+                     PasswdOverlay.mergePasswd("", "", "builder", "1001",
+                                               "1001"));
+    }
+
+    @Test
+    public void appendsANewGroup() {
+        assertEquals(GROUP + "builder:x:1001:\n",
+                     PasswdOverlay.mergeGroup(GROUP, "builder", "1001"));
+    }
+
+    @Test
+    public void keepsAnExistingGid() {
+        assertEquals(GROUP, PasswdOverlay.mergeGroup(GROUP, "builder", "1000"));
+    }
+
+    @Test
+    public void replacesAGroupOfTheSameName() {
+        String group = GROUP + "builder:x:500:\n";
+
+        assertEquals(GROUP + "builder:x:1001:\n",
+                     PasswdOverlay.mergeGroup(group, "builder", "1001"));
+    }
+
+    @Test
+    public void groupWithoutTrailingNewline() {
+        assertEquals(GROUP + "builder:x:1001:\n",
+                     PasswdOverlay.mergeGroup(GROUP.trim(), "builder", "1001"));
+        assertEquals(GROUP,
+                     PasswdOverlay.mergeGroup(GROUP.trim(), "builder", "1000"));
+    }
+}
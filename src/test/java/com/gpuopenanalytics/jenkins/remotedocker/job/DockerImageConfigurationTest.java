@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.job;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DockerImageConfigurationTest {
+
+    @Test
+    public void throttledByDockerHub() {
+        assertTrue(DockerImageConfiguration.isThrottled(
+                "Error response from daemon: toomanyrequests: You have reached your pull rate limit. "
+                        + "You may increase the limit by authenticating and upgrading: "
+                        + "https://www.docker.com/increase-rate-limit\n"));
+    }
+
+    @Test
+    public void throttledByTheRegistryApi() {
+        assertTrue(DockerImageConfiguration.isThrottled(
+                "toomanyrequests: Rate exceeded\n"));
+        assertTrue(DockerImageConfiguration.isThrottled(
+                "{\"errors\":[{\"code\":\"TOOMANYREQUESTS\",\"message\":\"retry later\"}]}\n"));
+    }
+
+    @Test
+    public void throttledByHttpStatus() {
+        assertTrue(DockerImageConfiguration.isThrottled(
+                "Error response from daemon: Get https://registry.example.com/v2/team/image/manifests/latest: "
+                        + "received unexpected HTTP status: 429 Too Many Requests\n"));
+        assertTrue(DockerImageConfiguration.isThrottled(
+                "error pulling image configuration: download failed after attempts=6: "
+                        + "unexpected http status: 429\n"));
+    }
+
+    @Test
+    public void otherFailuresAreNotThrottled() {
+        assertFalse(DockerImageConfiguration.isThrottled(
+                "Error response from daemon: manifest for nvidia/cuda:9.9 not found: manifest unknown\n"));
+        assertFalse(DockerImageConfiguration.isThrottled(
+                "Error response from daemon: pull access denied for team/toomanyrequests, "
+                        + "repository does not exist or may require 'docker login'\n"));
+        assertFalse(DockerImageConfiguration.isThrottled(
+                "4f4fb700ef54: Downloading [=====>        ] 429 kB/1.2 MB\n"
+                        + "Error response from daemon: unexpected EOF\n"));
+        assertFalse(DockerImageConfiguration.isThrottled(
+                "Error response from daemon: Get https://registry.example.com/v2/: "
+                        + "received unexpected HTTP status: 500 Internal Server Error\n"));
+    }
+
+    @Test
+    public void backoffDoublesWithEqualJitter() {
+        for (int retries = 0; retries < 5; retries++) {
+            long delay = 2000L << retries;
+            for (int i = 0; i < 100; i++) {
+                long backoff = DockerImageConfiguration.getBackoffMillis(
+                        retries, false);
+                assertTrue(backoff + " < " + delay / 2, backoff >= delay / 2);
+                assertTrue(backoff + " > " + delay, backoff <= delay);
+            }
+        }
+    }
+
+    @Test
+    public void throttledBackoffStartsHigher() {
+        for (int i = 0; i < 100; i++) {
+            long backoff = DockerImageConfiguration.getBackoffMillis(0, true);
+            assertTrue(backoff >= 15000 && backoff <= 30000);
+        }
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        for (int retries : new int[]{10, 20, 63, Integer.MAX_VALUE}) {
+            long backoff = DockerImageConfiguration.getBackoffMillis(retries,
+                                                                     true);
+            assertTrue(backoff + " for " + retries,
+                       backoff >= 150000 && backoff <= 300000);
+        }
+    }
+
+    @Test
+    public void backoffIsJittered() {
+        long first = DockerImageConfiguration.getBackoffMillis(3, false);
+        boolean varies = false;
+        for (int i = 0; i < 100 && !varies; i++) {
+            varies = DockerImageConfiguration.getBackoffMillis(3, false) != first;
+        }
+        assertTrue(varies);
+    }
+}
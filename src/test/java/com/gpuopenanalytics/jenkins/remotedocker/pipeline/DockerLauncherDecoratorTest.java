@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.pipeline;
+
+import com.google.common.collect.ImmutableList;
+import com.gpuopenanalytics.jenkins.remotedocker.AbstractDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.BenchmarkDockerLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.DockerState;
+import com.gpuopenanalytics.jenkins.remotedocker.FakeLauncher;
+import com.gpuopenanalytics.jenkins.remotedocker.agent.LeaseOwner;
+import com.gpuopenanalytics.jenkins.remotedocker.config.ConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.EnvironmentVariableConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.ExtraDockerArgsConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.config.UserConfigItem;
+import com.gpuopenanalytics.jenkins.remotedocker.job.DockerImageConfiguration;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DockerLauncherDecoratorTest {
+
+    /**
+     * The decorator is saved on every Pipeline checkpoint, so it must stay
+     * small however large the build's environment and configuration
+     */
+    private static final int MAX_BYTES = 4096;
+
+    private static final String CONTAINER_ID = "4f66ad9a0b2e4f1d8c0b8a6b1c2d3e4f5a6b7c8d9e0f1a2b3c4d5e6f7a8b9c0d";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    /**
+     * Serialize a decorator created as the step does
+     *
+     * @param environmentSize the number of variables of the build
+     * @param configItems     the number of config items besides the user
+     * @return the size in bytes
+     */
+    private static int serializedSize(int environmentSize,
+                                      int configItems) throws IOException {
+        List<ConfigItem> items = new ArrayList<>();
+        items.add(new UserConfigItem(false, "builder", null, null));
+        for (int i = 0; i < configItems; i++) {
+            items.add(new EnvironmentVariableConfigItem(
+                    "VARIABLE_" + i + "=${JOB_NAME}-${BUILD_NUMBER}"));
+            items.add(new ExtraDockerArgsConfigItem(
+                    "--label variable-" + i + "=${BUILD_NUMBER}"));
+        }
+        DockerImageConfiguration config = new DockerImageConfiguration(
+                items, Collections.emptyList(), "ubuntu:18.04", false, "0");
+        BenchmarkDockerLauncher launcher = new BenchmarkDockerLauncher(
+                new FakeLauncher(TaskListener.NULL, FilePath.localChannel),
+                BenchmarkDockerLauncher.createEnvironment(environmentSize),
+                config);
+        DockerState dockerState = new DockerState(
+                false, CONTAINER_ID, ImmutableList.of(CONTAINER_ID),
+                Optional.empty(), true, null,
+                LeaseOwner.create("master", "team/project/master#42"), null);
+        ArgumentListBuilder runArgs = new ArgumentListBuilder();
+        config.addRunArgs(launcher, runArgs);
+        DockerLauncherDecorator decorator = new DockerLauncherDecorator(
+                false, dockerState, runArgs.toList(), "/workspace");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            out.writeObject(decorator);
+        }
+        return baos.size();
+    }
+
+    @Test
+    public void sizeIsBounded() throws IOException {
+        int size = serializedSize(4096, 256);
+        assertTrue("Serialized to " + size + " bytes", size < MAX_BYTES);
+    }
+
+    @Test
+    public void sizeDoesNotGrowWithTheEnvironment() throws IOException {
+        assertEquals(serializedSize(8, 1), serializedSize(4096, 1));
+    }
+
+    @Test
+    public void sizeDoesNotGrowWithTheConfiguration() throws IOException {
+        assertEquals(serializedSize(8, 1), serializedSize(8, 256));
+    }
+
+    @Test
+    public void keepsTheStepContextEnvironment() throws Exception {
+        DockerState dockerState = new DockerState(
+                false, CONTAINER_ID, ImmutableList.of(CONTAINER_ID),
+                Optional.empty(), true, null,
+                LeaseOwner.create("gpu-node", null), null);
+        DockerLauncherDecorator decorator = new DockerLauncherDecorator(
+                false, dockerState, Collections.emptyList(), null);
+        AbstractDockerLauncher launcher = (AbstractDockerLauncher) decorator.decorate(
+                new FakeLauncher(TaskListener.NULL, FilePath.localChannel),
+                j.jenkins);
+
+        assertEquals("gpu-node", launcher.getEnvironment().get("NODE_NAME"));
+
+        //As sh does inside withEnv
+        launcher.launch()
+                .envs("FROM_WITH_ENV=value", "NODE_NAME=master")
+                .cmds("true")
+                .join();
+
+        EnvVars env = launcher.getEnvironment();
+        assertEquals("value", env.get("FROM_WITH_ENV"));
+        //The containers run on the leased node
+        assertEquals("gpu-node", env.get("NODE_NAME"));
+    }
+}
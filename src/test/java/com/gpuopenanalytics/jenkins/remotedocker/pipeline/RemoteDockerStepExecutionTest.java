@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2019, NVIDIA CORPORATION.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.gpuopenanalytics.jenkins.remotedocker.pipeline;
+
+import com.gpuopenanalytics.jenkins.remotedocker.FakeDocker;
+import hudson.model.Result;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteDockerStepExecutionTest {
+
+    /**
+     * Well below both the pull and the time stop() used to wait for the set
+     * up to finish
+     */
+    private static final long ABORT_BOUND_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+    @ClassRule
+    public static TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private static FakeDocker docker;
+
+    @BeforeClass
+    public static void installFakeDocker() throws Exception {
+        docker = FakeDocker.install(tmp.getRoot(),
+                                    TimeUnit.MINUTES.toMillis(2), 0, 0, 0, 0);
+        docker.useForDocker();
+    }
+
+    @AfterClass
+    public static void uninstallFakeDocker() {
+        FakeDocker.stopUsingForDocker();
+    }
+
+    @Test
+    public void abortDuringPullFreesTheExecutor() throws Exception {
+        WorkflowJob job = j.createProject(WorkflowJob.class, "pull");
+        job.setDefinition(new CpsFlowDefinition(
+                "node {\n"
+                        + "  withRemoteDocker(main: image(image: 'ubuntu:18.04', forcePull: true, maxRetries: '0', configItemList: [], volumes: [])) {\n"
+                        + "    sh 'true'\n"
+                        + "  }\n"
+                        + "}", true));
+        WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (docker.getInvocations().stream().noneMatch(i -> i.contains(" pull "))) {
+            assertTrue("docker pull never started",
+                       System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+
+        long start = System.currentTimeMillis();
+        run.doStop();
+        j.waitForCompletion(run);
+        while (j.jenkins.toComputer().countBusy() > 0) {
+            assertTrue("The executor is still busy",
+                       System.currentTimeMillis() - start < ABORT_BOUND_MILLIS);
+            Thread.sleep(100);
+        }
+        long millis = System.currentTimeMillis() - start;
+
+        assertTrue("Freed the executor after " + millis + " ms",
+                   millis < ABORT_BOUND_MILLIS);
+        assertEquals(Result.ABORTED, run.getResult());
+        j.assertLogContains("Aborted container set up", run);
+    }
+}
@@ -0,0 +1,45 @@
+#!/usr/bin/env bash
+#
+# Stand-in for nvidia-smi. Every invocation is appended to the log and answered
+# with the file next to this script that describes the node's GPUs:
+#
+#   -L                                 list.txt
+#   --query-gpu=uuid,memory.total ...  memory-total.csv
+#   --query-gpu=uuid,memory.free ...   memory-free.csv
+#   --query-gpu=index,pci.bus_id ...   bus-ids.csv
+#   topo -m                            topo.txt
+#
+# Missing files fail like nvidia-smi does without a driver.
+
+DIR="$(cd "$(dirname "$0")" && pwd)"
+LOG="$DIR/invocations.log"
+
+echo "$*" >> "$LOG"
+
+case "$1" in
+    -L)
+        FILE=list.txt
+        ;;
+    --query-gpu=uuid,memory.total)
+        FILE=memory-total.csv
+        ;;
+    --query-gpu=uuid,memory.free)
+        FILE=memory-free.csv
+        ;;
+    --query-gpu=index,pci.bus_id)
+        FILE=bus-ids.csv
+        ;;
+    topo)
+        FILE=topo.txt
+        ;;
+    *)
+        echo "Unsupported arguments: $*" >&2
+        exit 2
+        ;;
+esac
+
+if [ ! -f "$DIR/$FILE" ]; then
+    echo "NVIDIA-SMI has failed because it couldn't communicate with the NVIDIA driver." >&2
+    exit 9
+fi
+cat "$DIR/$FILE"
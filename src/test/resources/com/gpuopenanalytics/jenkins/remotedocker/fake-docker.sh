@@ -0,0 +1,123 @@
+#!/usr/bin/env bash
+#
+# Stand-in for the docker CLI. Every invocation is appended to the log and
+# sleeps for the latency configured for its command. Containers are not
+# isolated: exec runs the command directly on the host.
+#
+# fake-docker.conf next to this script sets LOG and the latencies in
+# milliseconds: PULL_MS, RUN_MS, EXEC_MS, RM_MS and OTHER_MS. With DIE_MS set,
+# docker events reports the last container started as OOM killed that long
+# after it was called.
+
+DIR="$(cd "$(dirname "$0")" && pwd)"
+LOG="$DIR/invocations.log"
+PULL_MS=0
+RUN_MS=0
+EXEC_MS=0
+RM_MS=0
+OTHER_MS=0
+DIE_MS=-1
+if [ -f "$DIR/fake-docker.conf" ]; then
+    . "$DIR/fake-docker.conf"
+fi
+
+echo "$(date +%s%3N) $*" >> "$LOG"
+
+latency() {
+    if [ "$1" -gt 0 ]; then
+        sleep "$(awk "BEGIN { print $1 / 1000 }")"
+    fi
+}
+
+fake_id() {
+    head -c 32 /dev/urandom | od -An -tx1 | tr -d ' \n'
+    echo
+}
+
+case "$1" in
+    --version)
+        echo "Docker version 19.03.5, build 633a0ea"
+        ;;
+    pull)
+        latency "$PULL_MS"
+        echo "Status: Image is up to date for $2"
+        ;;
+    run)
+        latency "$RUN_MS"
+        id="$(fake_id)"
+        echo "$id" >> "$DIR/containers"
+        echo "$id"
+        ;;
+    rm)
+        latency "$RM_MS"
+        shift
+        for arg in "$@"; do
+            case "$arg" in
+                -*) ;;
+                *) echo "$arg" ;;
+            esac
+        done
+        ;;
+    network)
+        latency "$OTHER_MS"
+        case "$2" in
+            create) fake_id ;;
+            rm) echo "$3" ;;
+        esac
+        ;;
+    events)
+        if [ "$DIE_MS" -ge 0 ]; then
+            latency "$DIE_MS"
+            id="$(tail -n 1 "$DIR/containers")"
+            printf 'oom\t%s\t\n' "$id"
+            printf 'die\t%s\t137\n' "$id"
+        fi
+        # Like the daemon, stream until killed
+        exec sleep 86400
+        ;;
+    logs)
+        echo "Killed"
+        ;;
+    image)
+        latency "$OTHER_MS"
+        if [ "$2" = inspect ]; then
+            echo "sha256:$(fake_id)"
+        fi
+        ;;
+    inspect)
+        latency "$OTHER_MS"
+        shift
+        while [ $# -gt 1 ]; do
+            case "$1" in
+                --format|-f) shift 2 ;;
+                -*) shift ;;
+                *) break ;;
+            esac
+        done
+        for id in "$@"; do
+            echo "$id true"
+        done
+        ;;
+    exec)
+        latency "$EXEC_MS"
+        shift
+        workdir=
+        while [ $# -gt 0 ]; do
+            case "$1" in
+                --workdir|-w) workdir="$2"; shift 2 ;;
+                --user|-u|--env|-e|--env-file) shift 2 ;;
+                -*) shift ;;
+                *) break ;;
+            esac
+        done
+        #Skip the container ID and run the rest on the host
+        shift
+        if [ -n "$workdir" ]; then
+            mkdir -p "$workdir" && cd "$workdir" || exit 1
+        fi
+        exec "$@"
+        ;;
+    *)
+        latency "$OTHER_MS"
+        ;;
+esac